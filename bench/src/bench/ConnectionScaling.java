@@ -0,0 +1,440 @@
+package bench;
+
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.Timeout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Connection scaling and footprint of a skeleton.
+ *
+ * <p>
+ * Usage: <code>java bench.ConnectionScaling [-n counts] [-m idle|slow] [-t threads] [-o file]</code>,
+ * or <code>make bench-connections BENCHARGS="..."</code>.
+ *
+ * <p>
+ * The skeleton runs in a child JVM, so that its footprint is not mixed with that of the clients.
+ * The harness opens connections to it in steps, up to each count of <code>-n</code> (default
+ * 100,1000,5000,10000,20000). Connections are either <em>idle</em>, sending nothing after
+ * connecting, or <em>slow</em>, trickling a request which never completes at one byte per second
+ * each. After each step the harness records, for the skeleton's process: heap used after a full
+ * GC, live Java threads, native threads, open file descriptors and resident memory, as well as
+ * the skeleton's open connections and queue depth. It then measures the time to connect a new
+ * socket, and the latency of a complete call on a fresh connection, which shows whether the
+ * skeleton still serves anyone.
+ *
+ * <p>
+ * The skeleton reads each request on the service thread that runs it. <code>-t</code> gives the
+ * bounds on the service threads to compare, 0 standing for the default of a thread per connection
+ * (default 0,64). A connection which never sends a complete request holds a service thread, so a
+ * bound limits the connections the skeleton can serve at once, not the ones it can hold, while
+ * without one the threads grow with the connections.
+ *
+ * <p>
+ * The report is printed as a table, and written as CSV to <code>-o</code> (default
+ * bench/connections.csv). The ramp stops early if connections cannot be opened any more, usually
+ * because of the file descriptor limit, which must allow twice the largest count.
+ */
+public class ConnectionScaling {
+    private static final double MS = 1e6;
+    private static final long CALL_TIMEOUT_MILLIS = 5000;
+    private static final int CONNECT_PROBES = 20;
+
+    /** Footprint of the skeleton's process at one point in time. */
+    public static class Sample implements Serializable {
+        long heapUsed;
+        int javaThreads;
+        int nativeThreads;
+        long fileDescriptors;
+        long residentBytes;
+        int openConnections;
+        int queueDepth;
+    }
+
+    /** Remote interface of the child JVM reporting its footprint. */
+    public interface Footprint {
+        @Timeout(30000)
+        Sample sample() throws RMIException;
+    }
+
+    /** Remote interface of the skeleton under test. */
+    public interface Target {
+        void ping() throws RMIException;
+    }
+
+    private final InetSocketAddress target;
+    private final Footprint footprint;
+    private final Target stub;
+    private final String mode;
+    private final List<Socket> connections = new ArrayList<Socket>();
+    private final ExecutorService caller = Executors.newSingleThreadExecutor();
+    private Thread dripper;
+
+    /**
+     * Creates a harness for a running child.
+     * @param target address of the skeleton under test
+     * @param footprintAddress address of the skeleton reporting the footprint
+     * @param mode "idle" or "slow"
+     */
+    ConnectionScaling(InetSocketAddress target, InetSocketAddress footprintAddress, String mode) {
+        this.target = target;
+        this.footprint = Stub.create(Footprint.class, footprintAddress);
+        this.stub = Stub.create(Target.class, target);
+        this.mode = mode;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        int[] counts = {100, 1000, 5000, 10000, 20000};
+        int[] threads = {0, 64};
+        String mode = "idle";
+        String output = "bench/connections.csv";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-n") && i + 1 < args.length) {
+                counts = parseList(args[++i]);
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                threads = parseList(args[++i]);
+            } else if (args[i].equals("-m") && i + 1 < args.length) {
+                mode = args[++i];
+            } else if (args[i].equals("-o") && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (!mode.equals("idle") && !mode.equals("slow")) {
+            usage();
+            return;
+        }
+
+        long limit = maxFileDescriptors();
+        if (limit > 0 && limit < counts[counts.length - 1] + 100L) {
+            System.err.println("warning: the file descriptor limit (" + limit
+                    + ") will stop the ramp early, raise it with ulimit -n");
+        }
+
+        try (PrintWriter csv = new PrintWriter(new FileWriter(output))) {
+            csv.println("threads,mode,connections,heap_bytes,java_threads,native_threads,fds,rss_bytes,"
+                    + "open_connections,queue_depth,connect_p50_ms,connect_max_ms,call_ms");
+            for (int pool : threads) {
+                runEngine(pool, mode, counts, csv);
+            }
+        }
+        System.out.println("\nreport written to " + output);
+    }
+
+    private static void usage() {
+        System.err.println("usage: java bench.ConnectionScaling [-n counts] [-m idle|slow] [-t threads] [-o file]");
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * Ramp the connections to one child skeleton with the given pool size.
+     * @param pool number of service threads of the skeleton
+     * @param mode "idle" or "slow"
+     * @param counts connection counts to stop at
+     * @param csv report receiving one line per step
+     * @throws Exception if the child cannot be started
+     */
+    private static void runEngine(int pool, String mode, int[] counts, PrintWriter csv) throws Exception {
+        int port = RoundTripBenchmark.freePort();
+        int footprintPort = RoundTripBenchmark.freePort();
+        Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), ConnectionScaling.class.getName(), "--serve",
+                String.valueOf(port), String.valueOf(footprintPort), String.valueOf(pool))
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader childOut = new BufferedReader(new InputStreamReader(child.getInputStream()));
+        String line = childOut.readLine();
+        if (!"ready".equals(line)) {
+            child.destroyForcibly();
+            throw new IOException("Skeleton process failed to start: " + line);
+        }
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ConnectionScaling harness = new ConnectionScaling(new InetSocketAddress(loopback, port),
+                new InetSocketAddress(loopback, footprintPort), mode);
+        System.out.printf("%n%s service threads, %s connections%n", pool == 0 ? "unbounded" : String.valueOf(pool),
+                mode);
+        System.out.printf("%8s %10s %8s %8s %8s %10s %8s %8s %10s %10s %10s%n", "CONNS", "HEAP MB", "JTHREADS",
+                "NTHREADS", "FDS", "RSS MB", "OPEN", "QUEUE", "CONN P50", "CONN MAX", "CALL MS");
+        try {
+            harness.ramp(pool, counts, csv);
+        } finally {
+            harness.close();
+            child.destroy();
+            child.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Open connections up to each count, recording a step at each.
+     * @param pool number of service threads, for the report
+     * @param counts connection counts to stop at
+     * @param csv report receiving one line per step
+     * @throws RMIException if the footprint cannot be sampled
+     * @throws InterruptedException if interrupted while measuring
+     */
+    private void ramp(int pool, int[] counts, PrintWriter csv) throws RMIException, InterruptedException {
+        if (mode.equals("slow")) {
+            startDripping();
+        }
+        for (int count : counts) {
+            String failure = null;
+            while (connections.size() < count && failure == null) {
+                failure = open();
+            }
+            // let the skeleton accept the backlog
+            Thread.sleep(1000);
+
+            Sample sample = footprint.sample();
+            long[] connect = measureConnect();
+            double callMillis = measureCall();
+            System.out.printf("%8d %10.1f %8d %8d %8d %10.1f %8d %8d %10.3f %10.3f %10s%n", connections.size(),
+                    sample.heapUsed / 1048576.0, sample.javaThreads, sample.nativeThreads, sample.fileDescriptors,
+                    sample.residentBytes / 1048576.0, sample.openConnections, sample.queueDepth, connect[0] / MS,
+                    connect[1] / MS, callMillis < 0 ? "timeout" : String.format("%.3f", callMillis));
+            csv.printf("%d,%s,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%s%n", pool, mode, connections.size(),
+                    sample.heapUsed, sample.javaThreads, sample.nativeThreads, sample.fileDescriptors,
+                    sample.residentBytes, sample.openConnections, sample.queueDepth, connect[0] / MS,
+                    connect[1] / MS, callMillis < 0 ? "" : String.format("%.3f", callMillis));
+            csv.flush();
+            if (failure != null) {
+                System.out.println("stopped at " + connections.size() + " connections: " + failure);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Open one more connection, and send the start of a request if connections are slow.
+     * @return null, or the reason the connection could not be opened
+     */
+    private String open() {
+        Socket socket = new Socket();
+        try {
+            socket.connect(target, 5000);
+            if (mode.equals("slow")) {
+                OutputStream out = socket.getOutputStream();
+                // object stream header, then a string object announcing 65535 bytes which never arrive
+                out.write(new byte[] {(byte) 0xac, (byte) 0xed, 0x00, 0x05, 0x74, (byte) 0xff, (byte) 0xff});
+                out.flush();
+            }
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return e.toString();
+        }
+        synchronized (connections) {
+            connections.add(socket);
+        }
+        return null;
+    }
+
+    /**
+     * Start the thread writing one byte per second on every slow connection.
+     */
+    private void startDripping() {
+        dripper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    List<Socket> open;
+                    synchronized (connections) {
+                        open = new ArrayList<Socket>(connections);
+                    }
+                    for (Socket socket : open) {
+                        try {
+                            socket.getOutputStream().write('x');
+                        } catch (IOException e) {
+                            // the skeleton gave up on it, the report shows the open connections
+                        }
+                    }
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "dripper");
+        dripper.setDaemon(true);
+        dripper.start();
+    }
+
+    /**
+     * Time the connection of new sockets, closed immediately.
+     * @return the median and maximum connect times in nanoseconds
+     */
+    private long[] measureConnect() {
+        long[] times = new long[CONNECT_PROBES];
+        for (int i = 0; i < times.length; i++) {
+            Socket socket = new Socket();
+            long start = System.nanoTime();
+            try {
+                socket.connect(target, 5000);
+                times[i] = System.nanoTime() - start;
+            } catch (IOException e) {
+                times[i] = System.nanoTime() - start;
+            } finally {
+                closeQuietly(socket);
+            }
+        }
+        Arrays.sort(times);
+        return new long[] {times[times.length / 2], times[times.length - 1]};
+    }
+
+    /**
+     * Time a complete call on a new connection.
+     * @return the latency in milliseconds, or -1 if the call failed or took longer than the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private double measureCall() throws InterruptedException {
+        final long start = System.nanoTime();
+        Future<?> call = caller.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws RMIException {
+                stub.ping();
+                return null;
+            }
+        });
+        try {
+            call.get(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return (System.nanoTime() - start) / MS;
+        } catch (ExecutionException | TimeoutException e) {
+            call.cancel(true);
+            return -1;
+        }
+    }
+
+    private void close() {
+        if (dripper != null) {
+            dripper.interrupt();
+        }
+        caller.shutdownNow();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                closeQuietly(socket);
+            }
+            connections.clear();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * Run the skeleton under test and the footprint skeleton, in the child JVM.
+     * @param port port of the skeleton under test
+     * @param footprintPort port of the footprint skeleton
+     * @param pool number of service threads of the skeleton under test
+     * @throws RMIException if a skeleton cannot be started
+     */
+    private static void serve(int port, int footprintPort, int pool) throws RMIException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        final Skeleton<Target> skeleton = new Skeleton<Target>(Target.class, new Target() {
+            @Override
+            public void ping() {
+            }
+        }, new InetSocketAddress(loopback, port));
+        skeleton.setWorkerThreads(pool);
+        skeleton.start();
+
+        Skeleton<Footprint> footprint = new Skeleton<Footprint>(Footprint.class, new Footprint() {
+            @Override
+            public Sample sample() {
+                Sample sample = new Sample();
+                System.gc();
+                sample.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+                sample.javaThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+                sample.nativeThreads = (int) procStatus("Threads:");
+                sample.residentBytes = procStatus("VmRSS:") * 1024;
+                sample.fileDescriptors = openFileDescriptors();
+                sample.openConnections = skeleton.getOpenConnections();
+                sample.queueDepth = skeleton.getQueueDepth();
+                return sample;
+            }
+        }, new InetSocketAddress(loopback, footprintPort));
+        footprint.setWorkerThreads(2);
+        footprint.start();
+
+        System.out.println("ready");
+        System.out.flush();
+    }
+
+    /**
+     * Read a numeric field of /proc/self/status.
+     * @param field name of the field, with its colon
+     * @return the value, or -1 if it cannot be read
+     */
+    private static long procStatus(String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private static long openFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private static long maxFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) os).getMaxFileDescriptorCount();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,19 @@
+package bench;
+
+import rmi.RMIException;
+
+import java.util.List;
+
+/**
+ * Remote interface of the round trip benchmarks. Every method returns its argument, so that the
+ * response is as large as the request.
+ */
+public interface Echo {
+    byte[] echoBytes(byte[] payload) throws RMIException;
+
+    String echoString(String payload) throws RMIException;
+
+    List<Object> echoGraph(List<Object> payload) throws RMIException;
+
+    void ping() throws RMIException;
+}
@@ -0,0 +1,216 @@
+package bench;
+
+import rmi.CapturedCall;
+import rmi.HistogramSnapshot;
+import rmi.LatencyHistogram;
+import rmi.RMIException;
+import rmi.Stub;
+import rmi.TrafficCapture;
+import test.NetworkProxy;
+
+import java.io.FileInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a <code>TrafficCapture</code> recording against a skeleton.
+ *
+ * <p>
+ * Usage: <code>java bench.Replay [-x speed] [-t threads] [-n calls] [-N network] file host
+ * port</code>, or <code>make replay REPLAYARGS="..."</code>. The classes of the recorded remote
+ * interfaces and arguments must be on the class path.
+ *
+ * <p>
+ * The calls of the recording are read and decoded up front, then issued through one stub per
+ * interface on the recorded schedule: each call is due its recorded gap after the previous one,
+ * divided by <code>-x</code> (default 1, real time). Calls run on a pool of <code>-t</code>
+ * threads (default 64) and the schedule never waits for them, so the latency of a call is measured
+ * from the time it was due, as in <code>PingPongClient</code>. <code>-n</code> replays only the
+ * first calls, and <code>-N</code> replays through a <code>NetworkProxy</code> with one of the
+ * network profiles of <code>RoundTripBenchmark</code>.
+ *
+ * <p>
+ * The report gives the offered and achieved rates and, for each method, the number of calls, the
+ * calls whose server object threw (part of the recorded mix), the calls which failed with an
+ * <code>RMIException</code> and the latency percentiles.
+ */
+public class Replay {
+    private static final double MS = 1e6;
+
+    /** Calls of one method, with their outcomes. */
+    private static class MethodResult {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder thrown = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    /** Decoded call, ready to be issued. */
+    private static class Scheduled {
+        final Object stub;
+        final Method method;
+        final Object[] args;
+        final long offsetNanos;
+        final MethodResult result;
+
+        Scheduled(Object stub, Method method, Object[] args, long offsetNanos, MethodResult result) {
+            this.stub = stub;
+            this.method = method;
+            this.args = args;
+            this.offsetNanos = offsetNanos;
+            this.result = result;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        double speed = 1;
+        int threads = 64;
+        long limit = Long.MAX_VALUE;
+        String network = "loopback";
+        List<String> positional = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-x") && i + 1 < args.length) {
+                speed = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                limit = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-N") && i + 1 < args.length) {
+                network = args[++i];
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.size() != 3 || !(speed > 0) || threads <= 0) {
+            System.err.println("usage: java bench.Replay [-x speed] [-t threads] [-n calls] [-N network] "
+                    + "file host port");
+            System.exit(2);
+        }
+
+        InetSocketAddress target = new InetSocketAddress(positional.get(1), Integer.parseInt(positional.get(2)));
+        NetworkProxy proxy = RoundTripBenchmark.proxyFor(network, target);
+        InetSocketAddress address = proxy == null ? target : proxy.getAddress();
+        Map<String, MethodResult> results = new LinkedHashMap<String, MethodResult>();
+        List<Scheduled> calls = load(positional.get(0), limit, speed, address, results);
+        if (calls.isEmpty()) {
+            System.err.println("no calls in " + positional.get(0));
+            System.exit(1);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long lag = replay(calls, pool);
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        if (proxy != null) {
+            proxy.stop();
+        }
+        report(calls, results, lag);
+    }
+
+    /**
+     * Read and decode a recording.
+     * @param path path of the recording
+     * @param limit largest number of calls read
+     * @param speed factor the recorded gaps are divided by
+     * @param address address of the skeleton
+     * @param results receives the results of each method, in the order they first appear
+     * @return the calls in order
+     * @throws Exception if the recording cannot be read, or a method cannot be found or called
+     */
+    private static List<Scheduled> load(String path, long limit, double speed, InetSocketAddress address,
+                                        Map<String, MethodResult> results) throws Exception {
+        List<Scheduled> calls = new ArrayList<Scheduled>();
+        Map<Class<?>, Object> stubs = new HashMap<Class<?>, Object>();
+        ClassLoader loader = Replay.class.getClassLoader();
+        long offset = 0;
+        try (TrafficCapture.Reader reader = TrafficCapture.read(new FileInputStream(path))) {
+            CapturedCall call;
+            while (calls.size() < limit && (call = reader.next()) != null) {
+                Method method = call.resolve(loader);
+                Class<?> remoteInterface = Class.forName(call.getRemoteInterface(), false, loader);
+                Object stub = stubs.get(remoteInterface);
+                if (stub == null) {
+                    stub = Stub.create(remoteInterface, address);
+                    stubs.put(remoteInterface, stub);
+                }
+                String name = remoteInterface.getSimpleName() + "." + method.getName();
+                MethodResult result = results.get(name);
+                if (result == null) {
+                    result = new MethodResult();
+                    results.put(name, result);
+                }
+                offset += (long) (call.getGapMicros() * 1000 / speed);
+                calls.add(new Scheduled(stub, method, call.decodeArguments(), offset, result));
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Issue the calls on their schedule.
+     * @param calls the calls
+     * @param pool threads making the calls
+     * @return the largest delay of the schedule itself, in nanoseconds
+     */
+    private static long replay(List<Scheduled> calls, ExecutorService pool) {
+        final long start = System.nanoTime();
+        long lag = 0;
+        for (final Scheduled call : calls) {
+            final long due = start + call.offsetNanos;
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            lag = Math.max(lag, now - due);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        call.method.invoke(call.stub, call.args);
+                    } catch (InvocationTargetException e) {
+                        if (e.getTargetException() instanceof RMIException) {
+                            call.result.errors.increment();
+                        } else {
+                            call.result.thrown.increment();
+                        }
+                    } catch (IllegalAccessException e) {
+                        call.result.errors.increment();
+                    }
+                    // measured from the time the call was due, not from when a thread took it
+                    call.result.latency.record(System.nanoTime() - due);
+                }
+            });
+        }
+        return lag;
+    }
+
+    private static void report(List<Scheduled> calls, Map<String, MethodResult> results, long lag) {
+        long span = calls.get(calls.size() - 1).offsetNanos;
+        long slowest = 0;
+        for (Scheduled call : calls) {
+            slowest = Math.max(slowest, call.offsetNanos + call.result.latency.snapshot().getMax());
+        }
+        System.out.printf("%d calls over %.1f s: offered %.1f/s, achieved %.1f/s, schedule lag up to %.2f ms%n",
+                calls.size(), span / 1e9, span == 0 ? 0.0 : calls.size() * 1e9 / span,
+                slowest == 0 ? 0.0 : calls.size() * 1e9 / slowest, lag / MS);
+        System.out.printf("%-40s %8s %8s %8s %10s %10s %10s %10s%n", "METHOD", "CALLS", "THROWN", "ERRORS",
+                "P50 MS", "P99 MS", "P99.9 MS", "MAX MS");
+        for (Map.Entry<String, MethodResult> entry : results.entrySet()) {
+            MethodResult result = entry.getValue();
+            HistogramSnapshot latency = result.latency.snapshot();
+            System.out.printf("%-40s %8d %8d %8d %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(),
+                    latency.getCount(), result.thrown.sum(), result.errors.sum(), latency.getP50() / MS,
+                    latency.getP99() / MS, latency.getP999() / MS, latency.getMax() / MS);
+        }
+    }
+}
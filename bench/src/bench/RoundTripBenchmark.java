@@ -0,0 +1,229 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import test.NetworkProxy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips from a stub to a skeleton over the loopback interface, or through an impairing proxy.
+ *
+ * <p>
+ * Each benchmark makes one remote call, which opens a connection, sends the request, runs the
+ * server object and reads the response. The parameters vary:
+ * <ul>
+ * <li><code>payload</code>: the type of the argument, echoed back by the server object: a byte
+ *     array, a string, an object graph (a list of maps of boxed values and strings), or nothing;</li>
+ * <li><code>size</code>: the approximate size of the argument in bytes;</li>
+ * <li><code>mode</code>: how the skeleton runs the call: on its service threads, on the own pool of
+ *     a bulkhead, or on the service threads with latency and size instrumentation turned off;</li>
+ * <li><code>network</code>: the network between stub and skeleton. Only <code>loopback</code> is
+ *     run by default; <code>lan</code> (0.2 &plusmn; 0.05 ms each way), <code>wan</code>
+ *     (20 &plusmn; 5 ms each way, 10 MB/s) and <code>slow</code> (80 ms plus an exponential tail,
+ *     1 MB/s, 1400 byte segments) put a <code>NetworkProxy</code> in between. Select them with, for
+ *     example, <code>BENCHARGS="RoundTrip -p network=wan"</code>.</li>
+ * </ul>
+ * Sockets are the only transport, so there is no transport parameter. The thread count is set by
+ * the three benchmark methods.
+ *
+ * <p>
+ * Throughput is reported in calls per millisecond and latency as sampled percentiles, in
+ * milliseconds. Run with
+ * <code>make bench</code>, which writes the results as JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RoundTripBenchmark {
+    @Param({"bytes", "string", "graph", "none"})
+    public String payload;
+
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    @Param({"service", "bulkhead", "uninstrumented"})
+    public String mode;
+
+    @Param({"loopback"})
+    public String network;
+
+    private Skeleton<Echo> skeleton;
+    private NetworkProxy proxy;
+    private Echo stub;
+    private byte[] bytes;
+    private String string;
+    private List<Object> graph;
+
+    /** Server object: returns every argument unchanged. */
+    private static class EchoServer implements Echo {
+        @Override
+        public byte[] echoBytes(byte[] payload) {
+            return payload;
+        }
+
+        @Override
+        public String echoString(String payload) {
+            return payload;
+        }
+
+        @Override
+        public List<Object> echoGraph(List<Object> payload) {
+            return payload;
+        }
+
+        @Override
+        public void ping() {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, RMIException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort());
+        skeleton = new Skeleton<Echo>(Echo.class, new EchoServer(), address);
+        if (mode.equals("bulkhead")) {
+            // every method has a bulkhead of its own, named after it
+            for (String method : new String[] {"echoBytes", "echoString", "echoGraph", "ping"}) {
+                skeleton.setBulkhead(method, 0, 16);
+            }
+        } else if (mode.equals("uninstrumented")) {
+            skeleton.setInstrumentationEnabled(false);
+        }
+        skeleton.start();
+        proxy = proxyFor(network, address);
+        stub = Stub.create(Echo.class, proxy == null ? address : proxy.getAddress());
+
+        bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 'x');
+        string = new String(bytes, "US-ASCII");
+        graph = graphOf(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        if (proxy != null) {
+            proxy.stop();
+        }
+        skeleton.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object oneThread() throws RMIException {
+        return call();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object fourThreads() throws RMIException {
+        return call();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object sixteenThreads() throws RMIException {
+        return call();
+    }
+
+    private Object call() throws RMIException {
+        switch (payload) {
+            case "bytes":
+                return stub.echoBytes(bytes);
+            case "string":
+                return stub.echoString(string);
+            case "graph":
+                return stub.echoGraph(graph);
+            default:
+                stub.ping();
+                return null;
+        }
+    }
+
+    /**
+     * Start a proxy impairing the network to a skeleton.
+     * @param network name of the network profile
+     * @param target address of the skeleton
+     * @return the running proxy, or <code>null</code> for the loopback interface
+     * @throws IOException if the proxy cannot be started
+     */
+    public static NetworkProxy proxyFor(String network, InetSocketAddress target) throws IOException {
+        NetworkProxy proxy = new NetworkProxy(target);
+        switch (network) {
+            case "loopback":
+                return null;
+            case "lan":
+                proxy.setDelay(NetworkProxy.normal(0.2, 0.05));
+                break;
+            case "wan":
+                proxy.setDelay(NetworkProxy.normal(20, 5));
+                proxy.setBandwidth(10 * 1024 * 1024);
+                break;
+            case "slow":
+                proxy.setDelay(NetworkProxy.exponential(80, 20));
+                proxy.setBandwidth(1024 * 1024);
+                proxy.setSegmentSize(1400);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown network " + network);
+        }
+        proxy.start();
+        return proxy;
+    }
+
+    /**
+     * Build a list of small maps, about <code>size</code> bytes once serialized.
+     * @param size approximate serialized size
+     * @return the graph
+     */
+    public static List<Object> graphOf(int size) {
+        List<Object> graph = new ArrayList<Object>();
+        // a map of three entries takes about 64 bytes once the class descriptors have been sent
+        for (int i = 0; i < Math.max(1, size / 64); i++) {
+            Map<String, Object> node = new HashMap<String, Object>();
+            node.put("id", i);
+            node.put("name", "node-" + i);
+            node.put("weight", i * 0.5);
+            graph.add(node);
+        }
+        return graph;
+    }
+
+    /**
+     * Find a port nobody listens on. Skeletons need a fixed port, since stubs are created from the
+     * address the skeleton was given.
+     * @return the port
+     * @throws IOException if no port can be bound
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package bench;
+
+import rmi.RMIException;
+import rmi.Skeleton;
+import rmi.Stub;
+import rmi.Timeout;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Soak test of a skeleton, looking for leaked threads, sockets and memory.
+ *
+ * <p>
+ * Usage: <code>java bench.Soak [-d seconds] [-i seconds] [-t threads]</code>, or
+ * <code>make soak SOAKARGS="..."</code>. Everything runs in one JVM on the loopback interface.
+ *
+ * <p>
+ * For <code>-d</code> seconds (default 600), <code>-t</code> threads (default 8) drive a mix of
+ * calls at a skeleton: successful calls, calls whose server object throws, calls which time out
+ * and are cancelled, connections closed before sending anything, and connections closed half way
+ * through their request. Every <code>-i</code> seconds (default 10) the harness samples, after a
+ * full GC, the heap used, the live threads, the open file descriptors and the skeleton's open
+ * connections.
+ *
+ * <p>
+ * The test fails, with exit status 1, if after the first quarter of the run any of the samples
+ * grows at every single interval by more than a small margin overall, or if once the load has
+ * stopped and the calls have drained the skeleton still holds connections or the thread and file
+ * descriptor counts stay well above the level of the start.
+ */
+public class Soak {
+    private static final double MB = 1048576.0;
+    /** Growth tolerated over the whole run before a monotonic series counts as a leak. */
+    private static final long THREAD_MARGIN = 8;
+    private static final long FD_MARGIN = 32;
+    private static final long HEAP_MARGIN = 8 * 1048576L;
+
+    /** Remote interface exercised by the soak. */
+    public interface Service {
+        String echo(String value) throws RMIException;
+
+        void fail(String path) throws FileNotFoundException, RMIException;
+
+        @Timeout(50)
+        String slow(int millis) throws RMIException;
+    }
+
+    /** Server object of the soak. */
+    private static class ServiceImpl implements Service {
+        @Override
+        public String echo(String value) {
+            return value;
+        }
+
+        @Override
+        public void fail(String path) throws FileNotFoundException {
+            throw new FileNotFoundException(path);
+        }
+
+        @Override
+        public String slow(int millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                // cancelled by the stub
+                return "cancelled";
+            }
+            return "done";
+        }
+    }
+
+    /** Resource usage at one point in time. */
+    private static class Sample {
+        final long heap;
+        final long threads;
+        final long fds;
+        final long connections;
+
+        Sample(long heap, long threads, long fds, long connections) {
+            this.heap = heap;
+            this.threads = threads;
+            this.fds = fds;
+            this.connections = connections;
+        }
+    }
+
+    private final Skeleton<Service> skeleton;
+    private final InetSocketAddress address;
+    private final Service stub;
+    private final LongAdder[] counts = new LongAdder[5];
+    private final LongAdder unexpected = new LongAdder();
+    private volatile boolean running = true;
+
+    Soak(InetSocketAddress address) throws RMIException {
+        this.address = address;
+        this.skeleton = new Skeleton<Service>(Service.class, new ServiceImpl(), address);
+        // half-sent requests must give their threads back during the run
+        skeleton.setRequestTimeout(1000);
+        // a bounded pool, so that the threads left once the load stops have a known limit
+        skeleton.setWorkerThreads(64);
+        this.stub = Stub.create(Service.class, address);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long durationMillis = 600000;
+        long intervalMillis = 10000;
+        int threads = 8;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                durationMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("-i") && i + 1 < args.length) {
+                intervalMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("usage: java bench.Soak [-d seconds] [-i seconds] [-t threads]");
+                System.exit(2);
+            }
+        }
+
+        Soak soak = new Soak(new InetSocketAddress(InetAddress.getLoopbackAddress(), RoundTripBenchmark.freePort()));
+        boolean passed = soak.run(durationMillis, intervalMillis, threads);
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Run the soak.
+     * @param durationMillis duration of the load
+     * @param intervalMillis time between samples
+     * @param threadCount number of load threads
+     * @return whether no leak was detected
+     * @throws Exception if the skeleton cannot be started
+     */
+    boolean run(long durationMillis, long intervalMillis, int threadCount) throws Exception {
+        Sample baseline = sample();
+        skeleton.start();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running) {
+                        drive();
+                    }
+                }
+            }, "soak-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        System.out.printf("%8s %10s %8s %8s %8s %10s %10s %10s %10s %10s %8s%n", "SECONDS", "HEAP MB", "THREADS",
+                "FDS", "CONNS", "OK", "FAILED", "CANCELLED", "ABORTED", "HALF-SENT", "ODD");
+        List<Sample> samples = new ArrayList<Sample>();
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < durationMillis) {
+            Thread.sleep(Math.min(intervalMillis, durationMillis - (System.currentTimeMillis() - start)));
+            Sample sample = sample();
+            samples.add(sample);
+            System.out.printf("%8d %10.1f %8d %8d %8d %10d %10d %10d %10d %10d %8d%n",
+                    (System.currentTimeMillis() - start) / 1000, sample.heap / MB, sample.threads, sample.fds,
+                    sample.connections, counts[0].sum(), counts[1].sum(), counts[2].sum(), counts[3].sum(),
+                    counts[4].sum(), unexpected.sum());
+        }
+
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // let cancelled calls and half-sent requests time out
+        Thread.sleep(3000);
+        Sample drained = sample();
+        skeleton.stop();
+        System.out.printf("drained: heap %.1f MB, %d threads, %d fds, %d connections (start: %.1f MB, %d threads, "
+                + "%d fds)%n", drained.heap / MB, drained.threads, drained.fds, drained.connections,
+                baseline.heap / MB, baseline.threads, baseline.fds);
+
+        boolean passed = true;
+        int from = samples.size() / 4;
+        passed &= check("threads", samples, from, THREAD_MARGIN, new Metric() {
+            public long of(Sample sample) {
+                return sample.threads;
+            }
+        });
+        passed &= check("file descriptors", samples, from, FD_MARGIN, new Metric() {
+            public long of(Sample sample) {
+                return sample.fds;
+            }
+        });
+        passed &= check("heap", samples, from, HEAP_MARGIN, new Metric() {
+            public long of(Sample sample) {
+                return sample.heap;
+            }
+        });
+        if (drained.connections != 0) {
+            System.out.println("LEAK: " + drained.connections + " connections still open after the load stopped");
+            passed = false;
+        }
+        // the skeleton's service threads idle out after a minute, so they may still be alive
+        if (drained.threads > baseline.threads + skeleton.getWorkerThreads() + THREAD_MARGIN) {
+            System.out.println("LEAK: " + drained.threads + " threads after the load stopped");
+            passed = false;
+        }
+        if (drained.fds > baseline.fds + FD_MARGIN) {
+            System.out.println("LEAK: " + drained.fds + " file descriptors after the load stopped");
+            passed = false;
+        }
+        if (unexpected.sum() > 0) {
+            System.out.println("FAIL: " + unexpected.sum() + " calls had an unexpected outcome");
+            passed = false;
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /** Value of a sample checked for growth. */
+    private interface Metric {
+        long of(Sample sample);
+    }
+
+    /**
+     * Check a series for monotonic growth.
+     * @param name name of the series, for the report
+     * @param samples the samples
+     * @param from index of the first sample checked, to skip the warm-up
+     * @param margin total growth tolerated
+     * @param metric value of the samples
+     * @return <code>false</code> if the series never decreased and grew by more than the margin
+     */
+    private static boolean check(String name, List<Sample> samples, int from, long margin, Metric metric) {
+        if (samples.size() - from < 4) {
+            System.out.println("too few samples to check " + name + " for growth, run longer");
+            return true;
+        }
+        for (int i = from + 1; i < samples.size(); i++) {
+            if (metric.of(samples.get(i)) < metric.of(samples.get(i - 1))) {
+                return true;
+            }
+        }
+        long growth = metric.of(samples.get(samples.size() - 1)) - metric.of(samples.get(from));
+        if (growth <= margin) {
+            return true;
+        }
+        System.out.println("LEAK: " + name + " grew at every sample, by " + growth + " in total");
+        return false;
+    }
+
+    /**
+     * Make one call of a kind chosen at random, and check its outcome.
+     */
+    private void drive() {
+        int kind;
+        int roll = ThreadLocalRandom.current().nextInt(100);
+        if (roll < 60) {
+            kind = 0;
+        } else if (roll < 75) {
+            kind = 1;
+        } else if (roll < 80) {
+            kind = 2;
+        } else if (roll < 90) {
+            kind = 3;
+        } else {
+            kind = 4;
+        }
+        try {
+            switch (kind) {
+                case 0:
+                    String value = "soak-" + roll;
+                    if (!stub.echo(value).equals(value)) {
+                        unexpected.increment();
+                    }
+                    break;
+                case 1:
+                    try {
+                        stub.fail("/soak/missing");
+                        unexpected.increment();
+                    } catch (FileNotFoundException e) {
+                        // expected
+                    }
+                    break;
+                case 2:
+                    try {
+                        stub.slow(1000);
+                        unexpected.increment();
+                    } catch (RMIException e) {
+                        // timed out, the stub cancels the call on the skeleton
+                    }
+                    break;
+                case 3:
+                    // disconnect before sending anything
+                    new Socket(address.getAddress(), address.getPort()).close();
+                    break;
+                default:
+                    halfSend();
+            }
+            counts[kind].increment();
+        } catch (RMIException | IOException e) {
+            unexpected.increment();
+        }
+    }
+
+    /**
+     * Send the beginning of a request and disconnect, as a client crashing mid-request.
+     * @throws IOException if the connection fails
+     */
+    private void halfSend() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            // object stream header and the start of an object which never completes
+            out.write(new byte[] {(byte) 0xac, (byte) 0xed, 0x00, 0x05, 0x73, 0x72});
+            out.flush();
+        }
+    }
+
+    /**
+     * Sample the resources of the process after a full GC.
+     * @return the sample
+     */
+    private Sample sample() {
+        System.gc();
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long fds = -1;
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            fds = ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+        }
+        return new Sample(heap, threads, fds, skeleton.getOpenConnections());
+    }
+}
@@ -0,0 +1,201 @@
+package bench;
+
+import pingpong.pingpongserver.PingPongServerFactory;
+import pingpong.pingpongserver.RealFactory;
+import rmi.Skeleton;
+import rmi.Stub;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Startup time of a pingpong skeleton and its first calls, in fresh JVMs.
+ *
+ * <p>
+ * Usage: <code>java bench.Startup [-n runs] [-c calls]</code>, or <code>make bench-startup</code>.
+ * For each configuration, <code>-n</code> JVMs (default 5) are launched one after the other. Each
+ * starts a <code>PingPongServerFactory</code> skeleton on the loopback interface, creates a stub
+ * for it and makes <code>-c</code> calls (default 2000) back to back, each a
+ * <code>makePingPongServer</code> round trip followed by a <code>ping</code> of the result. The
+ * configurations are:
+ * <ul>
+ * <li><code>cold</code>: the skeleton's eager warmup turned off;</li>
+ * <li><code>warm</code>: the default, with eager warmup;</li>
+ * <li><code>warm+cds</code>: eager warmup, with the AppCDS archive written by <code>make cds</code>.
+ *     Only run if <code>pingpong.jsa</code> exists in the working directory.</li>
+ * </ul>
+ * When <code>pingpong.jar</code> exists, every configuration loads the classes from it, so that
+ * they differ only by the archive.
+ *
+ * <p>
+ * The report gives, as medians over the runs: the time from launch to <code>main</code>, the time
+ * <code>Skeleton.start</code> took, the latency of the first call, the time from launch to the
+ * answer of the first call, the time from the first call until steady state, and the steady-state
+ * latency. Steady state is the median latency of the last quarter of the calls; it is reached at
+ * the first window of 50 calls whose median is within 25% of it.
+ */
+public class Startup {
+    private static final String JAR = "pingpong.jar";
+    private static final String ARCHIVE = "pingpong.jsa";
+    private static final int WINDOW = 50;
+    private static final String[] METRICS = {"main", "start", "first", "launchToFirst", "toSteady", "steady"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            child(args[1].equals("warm"), Integer.parseInt(args[2]), Long.parseLong(args[3]));
+            return;
+        }
+        int runs = 5;
+        int calls = 2000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-n") && i + 1 < args.length) {
+                runs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-c") && i + 1 < args.length) {
+                calls = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("usage: java bench.Startup [-n runs] [-c calls]");
+                System.exit(2);
+            }
+        }
+        if (calls < 4 * WINDOW) {
+            System.err.println("at least " + 4 * WINDOW + " calls are needed to find the steady state");
+            System.exit(2);
+        }
+
+        String classPath = System.getProperty("java.class.path");
+        if (new File(JAR).isFile()) {
+            classPath = JAR + File.pathSeparator + classPath;
+        }
+        List<String> configurations = new ArrayList<String>(Arrays.asList("cold", "warm"));
+        if (new File(ARCHIVE).isFile()) {
+            configurations.add("warm+cds");
+        } else {
+            System.out.println("no " + ARCHIVE + ", run make cds to include the warm+cds configuration");
+        }
+
+        System.out.printf("%-10s %5s %9s %9s %9s %16s %13s %14s%n", "CONFIG", "RUNS", "MAIN MS", "START MS",
+                "FIRST MS", "LAUNCH>FIRST MS", "TO STEADY MS", "STEADY P50 US");
+        for (String configuration : configurations) {
+            Map<String, double[]> results = new HashMap<String, double[]>();
+            for (String metric : METRICS) {
+                results.put(metric, new double[runs]);
+            }
+            for (int run = 0; run < runs; run++) {
+                Map<String, Double> sample = launch(configuration, classPath, calls);
+                for (String metric : METRICS) {
+                    results.get(metric)[run] = sample.get(metric);
+                }
+            }
+            System.out.printf("%-10s %5d %9.1f %9.1f %9.2f %16.1f %13.1f %14.1f%n", configuration, runs,
+                    median(results.get("main")), median(results.get("start")), median(results.get("first")),
+                    median(results.get("launchToFirst")), median(results.get("toSteady")),
+                    median(results.get("steady")));
+        }
+    }
+
+    /**
+     * Run one configuration in a fresh JVM.
+     * @param configuration name of the configuration
+     * @param classPath class path of the JVM
+     * @param calls number of calls made
+     * @return the measurements of the child, by metric
+     * @throws Exception if the child fails
+     */
+    private static Map<String, Double> launch(String configuration, String classPath, int calls) throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (configuration.endsWith("+cds")) {
+            command.add("-XX:SharedArchiveFile=" + ARCHIVE);
+            command.add("-Xlog:cds=error");
+        }
+        command.addAll(Arrays.asList("-cp", classPath, Startup.class.getName(), "--child",
+                configuration.startsWith("warm") ? "warm" : "cold", String.valueOf(calls),
+                String.valueOf(System.currentTimeMillis())));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        Map<String, Double> sample = new HashMap<String, Double>();
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                for (String pair : line.split(" ")) {
+                    String[] parts = pair.split("=");
+                    if (parts.length == 2) {
+                        sample.put(parts[0], Double.parseDouble(parts[1]));
+                    }
+                }
+            }
+        }
+        if (process.waitFor() != 0 || !sample.keySet().containsAll(Arrays.asList(METRICS))) {
+            throw new IllegalStateException("the " + configuration + " run failed");
+        }
+        return sample;
+    }
+
+    /**
+     * Body of a child JVM: start a skeleton, make the calls and print the measurements.
+     * @param warm whether the skeleton warms up eagerly
+     * @param calls number of calls
+     * @param launchMillis time the parent launched the JVM
+     * @throws Exception if the skeleton cannot be started or a call fails
+     */
+    private static void child(boolean warm, int calls, long launchMillis) throws Exception {
+        double main = System.currentTimeMillis() - launchMillis;
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                RoundTripBenchmark.freePort());
+        Skeleton<PingPongServerFactory> skeleton =
+                new Skeleton<PingPongServerFactory>(PingPongServerFactory.class, new RealFactory(), address);
+        skeleton.setEagerWarmup(warm);
+        long before = System.nanoTime();
+        skeleton.start();
+        double start = (System.nanoTime() - before) / 1e6;
+
+        PingPongServerFactory stub = Stub.create(PingPongServerFactory.class, address);
+        long[] startedAt = new long[calls];
+        long[] latencies = new long[calls];
+        double launchToFirst = 0;
+        for (int i = 0; i < calls; i++) {
+            startedAt[i] = System.nanoTime();
+            String answer = stub.makePingPongServer().ping(i);
+            latencies[i] = System.nanoTime() - startedAt[i];
+            if (!answer.equals("pong" + i)) {
+                throw new IllegalStateException("Unexpected answer " + answer);
+            }
+            if (i == 0) {
+                launchToFirst = System.currentTimeMillis() - launchMillis;
+            }
+        }
+        skeleton.stop();
+
+        long steady = medianOf(latencies, calls - calls / 4, calls);
+        double toSteady = (startedAt[calls - 1] - startedAt[0]) / 1e6;
+        for (int i = 0; i + WINDOW <= calls; i++) {
+            if (medianOf(latencies, i, i + WINDOW) <= steady * 1.25) {
+                toSteady = (startedAt[i] - startedAt[0]) / 1e6;
+                break;
+            }
+        }
+        System.out.printf(Locale.ROOT, "main=%.1f start=%.3f first=%.3f launchToFirst=%.1f toSteady=%.1f steady=%.1f%n", main,
+                start, latencies[0] / 1e6, launchToFirst, toSteady, steady / 1e3);
+    }
+
+    private static long medianOf(long[] values, int from, int to) {
+        long[] window = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(window);
+        return window[window.length / 2];
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,170 @@
+package rmi;
+
+import bench.RoundTripBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding the envelopes exchanged by stubs and skeletons, without any
+ * network. Each operation writes or reads one <code>RemoteObject</code> through a fresh object
+ * stream, as a stub or a skeleton does for each call, so the stream headers and class descriptors
+ * are part of the cost.
+ *
+ * <p>
+ * The parameters vary the argument of the request, and returned value of the response, between
+ * nothing, a byte array, a string and an object graph of about <code>size</code> bytes. The
+ * exception benchmarks use a <code>FileNotFoundException</code> thrown 20 frames deep, as a server
+ * object would throw it. Java serialization is the only codec of the envelope.
+ *
+ * <p>
+ * Run with <code>make bench-codec</code>, which adds the GC profiler, so that the bytes allocated
+ * per operation are reported as <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"none", "bytes", "string", "graph"})
+    public String payload;
+
+    @Param({"1024"})
+    public int size;
+
+    private RemoteObject request;
+    private RemoteObject response;
+    private RemoteObject exceptionResponse;
+    private byte[] encodedRequest;
+    private byte[] encodedResponse;
+    private byte[] encodedException;
+    private ByteArrayOutputStream buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Object argument;
+        Class<?> type;
+        switch (payload) {
+            case "bytes":
+                byte[] bytes = new byte[size];
+                Arrays.fill(bytes, (byte) 'x');
+                argument = bytes;
+                type = byte[].class;
+                break;
+            case "string":
+                char[] chars = new char[size];
+                Arrays.fill(chars, 'x');
+                argument = new String(chars);
+                type = String.class;
+                break;
+            case "graph":
+                argument = RoundTripBenchmark.graphOf(size);
+                type = List.class;
+                break;
+            default:
+                argument = null;
+                type = null;
+        }
+
+        // the envelopes are filled in as in a traced call
+        if (type == null) {
+            request = new RemoteObject("ping", new Class[0], null, void.class);
+        } else {
+            request = new RemoteObject("echo", new Class[] {type}, new Object[] {argument}, type);
+        }
+        request.setTrace(0x1234567890abcdefL, 0x0fedcba987654321L, true);
+        request.setCallId(42);
+        request.setClientSentAt(System.nanoTime());
+
+        response = new RemoteObject(type == null ? "void" : "success", argument);
+        response.setPhases(1, 2, 3, 4, 5, 6);
+
+        exceptionResponse = new RemoteObject("failed", thrownAt(20));
+        exceptionResponse.setPhases(1, 2, 3, 4, 5, 6);
+
+        buffer = new ByteArrayOutputStream(4 * size + 4096);
+        encodedRequest = encode(request);
+        encodedResponse = encode(response);
+        encodedException = encode(exceptionResponse);
+    }
+
+    @Benchmark
+    public byte[] encodeRequest() throws IOException {
+        return encode(request);
+    }
+
+    @Benchmark
+    public Object decodeRequest() throws IOException, ClassNotFoundException {
+        return decode(encodedRequest);
+    }
+
+    @Benchmark
+    public byte[] encodeResponse() throws IOException {
+        return encode(response);
+    }
+
+    @Benchmark
+    public Object decodeResponse() throws IOException, ClassNotFoundException {
+        return decode(encodedResponse);
+    }
+
+    @Benchmark
+    public byte[] encodeException() throws IOException {
+        return encode(exceptionResponse);
+    }
+
+    @Benchmark
+    public Object decodeException() throws IOException, ClassNotFoundException {
+        return decode(encodedException);
+    }
+
+    /**
+     * Serialize an envelope as it goes on the wire.
+     * @param envelope the envelope
+     * @return the bytes written
+     * @throws IOException never, the stream is in memory
+     */
+    private byte[] encode(RemoteObject envelope) throws IOException {
+        buffer.reset();
+        ObjectOutputStream out = new ObjectOutputStream(buffer);
+        out.writeObject(envelope);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    /**
+     * Create an exception with a stack trace of the given depth below this method.
+     * @param depth number of frames to add
+     * @return the exception
+     */
+    private static Exception thrownAt(int depth) {
+        if (depth > 0) {
+            return thrownAt(depth - 1);
+        }
+        return new FileNotFoundException("/data/missing.txt (No such file or directory)");
+    }
+}
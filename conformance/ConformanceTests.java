@@ -11,6 +11,10 @@ import test.*;
     <li>{@link conformance.rmi.StubTest}</li>
     <li>{@link conformance.rmi.ConnectionTest}</li>
     <li>{@link conformance.rmi.ThreadTest}</li>
+    <li>{@link conformance.rmi.ImpairedNetworkTest}</li>
+    <li>{@link conformance.rmi.BulkheadTest}</li>
+    <li>{@link conformance.rmi.CancellationTest}</li>
+    <li>{@link conformance.rmi.RequestTimeoutTest}</li>
     </ul>
  */
 public class ConformanceTests
@@ -27,7 +31,11 @@ public class ConformanceTests
             new Class[] {conformance.rmi.SkeletonTest.class,
                          conformance.rmi.StubTest.class,
                          conformance.rmi.ConnectionTest.class,
-                         conformance.rmi.ThreadTest.class
+                         conformance.rmi.ThreadTest.class,
+                         conformance.rmi.ImpairedNetworkTest.class,
+                         conformance.rmi.BulkheadTest.class,
+                         conformance.rmi.CancellationTest.class,
+                         conformance.rmi.RequestTimeoutTest.class
                         };
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
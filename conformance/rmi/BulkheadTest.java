@@ -0,0 +1,301 @@
+package conformance.rmi;
+
+import test.*;
+import rmi.*;
+import java.net.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that bulkheads limit the calls to their methods.
+
+    <p>
+    This test starts a skeleton with two service threads for an interface
+    whose two report methods share a bulkhead admitting two calls at a time,
+    run on the bulkhead's own threads. Two report calls are held in the server
+    until the test releases them. The test checks that the held calls run on
+    the bulkhead's threads, that a third call to either report method is
+    refused with <code>OverloadedException</code>, and that a method outside
+    the bulkhead is still served while the bulkhead is full.
+ */
+public class BulkheadTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking bulkheads";
+    /** Prerequisites. */
+    public static final Class[] prerequisites =
+        new Class[] {ConnectionTest.class};
+
+    /** Remote interface with two methods in the same bulkhead. */
+    public interface Reports
+    {
+        /** Produces a report, holding the call until the test releases it.
+
+            @return The name of the thread the call ran on.
+            @throws RMIException If the call cannot be completed.
+         */
+        @Bulkhead(value = "reports", maxConcurrent = 2, threads = 2)
+        String daily() throws RMIException;
+
+        /** Produces a report, holding the call until the test releases it.
+
+            @return The name of the thread the call ran on.
+            @throws RMIException If the call cannot be completed.
+         */
+        @Bulkhead(value = "reports", maxConcurrent = 2, threads = 2)
+        String weekly() throws RMIException;
+
+        /** Returns immediately.
+
+            @throws RMIException If the call cannot be completed.
+         */
+        void ping() throws RMIException;
+    }
+
+    /** Address at which the test skeleton will run. */
+    private InetSocketAddress   address;
+    /** Skeleton object used in the test. */
+    private TestSkeleton        skeleton;
+    /** Stub connecting to the skeleton. */
+    private Reports             stub;
+    /** Opened once per report call running in the server. */
+    private final CountDownLatch    started = new CountDownLatch(2);
+    /** Opened to let the report calls return. */
+    private final CountDownLatch    release = new CountDownLatch(1);
+
+    /** Initializes the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        address = new InetSocketAddress(7000);
+        skeleton = new TestSkeleton();
+        skeleton.setWorkerThreads(2);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+
+        try
+        {
+            stub = Stub.create(Reports.class, address);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("filling the bulkhead");
+
+        ReportThread    daily = new ReportThread(false);
+        ReportThread    weekly = new ReportThread(true);
+
+        daily.start();
+        weekly.start();
+
+        try
+        {
+            if(!started.await(5, TimeUnit.SECONDS))
+                throw new TestFailed("report calls did not reach the server");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task("calling both report methods with the bulkhead full");
+
+        expectRefused(false);
+        expectRefused(true);
+
+        if(skeleton.getRejectedCount() != 2)
+        {
+            throw new TestFailed("skeleton counted " +
+                                 skeleton.getRejectedCount() +
+                                 " rejected calls instead of 2");
+        }
+
+        task("calling a method outside the bulkhead");
+
+        try
+        {
+            stub.ping();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("call outside a full bulkhead failed", t);
+        }
+
+        task("releasing the report calls");
+
+        release.countDown();
+        daily.check();
+        weekly.check();
+
+        task();
+    }
+
+    /** Releases any held calls and stops the skeleton server. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Calls a report method, expecting the bulkhead to refuse the call.
+
+        @param weekly Whether to call <code>weekly</code> rather than
+                      <code>daily</code>.
+        @throws TestFailed If the call is not refused as overloaded.
+     */
+    private void expectRefused(boolean weekly) throws TestFailed
+    {
+        try
+        {
+            if(weekly)
+                stub.weekly();
+            else
+                stub.daily();
+
+            throw new TestFailed("call admitted into a full bulkhead");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(OverloadedException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when calling into a " +
+                                 "full bulkhead", t);
+        }
+    }
+
+    /** Thread making a report call held in the server. */
+    private class ReportThread extends Thread
+    {
+        /** Whether to call <code>weekly</code> rather than
+            <code>daily</code>. */
+        private final boolean       weekly;
+        /** Result of the call. */
+        private volatile String     result;
+        /** Exception thrown by the call. */
+        private volatile Throwable  error;
+
+        ReportThread(boolean weekly)
+        {
+            this.weekly = weekly;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                result = weekly ? stub.weekly() : stub.daily();
+            }
+            catch(Throwable t)
+            {
+                error = t;
+            }
+        }
+
+        /** Waits for the call to return and checks its result.
+
+            @throws TestFailed If the call failed, or did not run on a thread
+                               of the bulkhead.
+         */
+        void check() throws TestFailed
+        {
+            try
+            {
+                join(5000);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+
+            if(isAlive())
+                throw new TestFailed("report call did not return");
+
+            if(error != null)
+                throw new TestFailed("report call failed", error);
+
+            if(!result.startsWith("bulkhead-Reports-reports-"))
+            {
+                throw new TestFailed("report call ran on thread " + result +
+                                     " instead of the bulkhead's threads");
+            }
+        }
+    }
+
+    /** Server object holding report calls until the test releases them. */
+    private class ReportServer implements Reports
+    {
+        @Override
+        public String daily()
+        {
+            return hold();
+        }
+
+        @Override
+        public String weekly()
+        {
+            return hold();
+        }
+
+        @Override
+        public void ping()
+        {
+        }
+
+        /** Holds the call until released.
+
+            @return The name of the current thread.
+         */
+        private String hold()
+        {
+            started.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+
+            return Thread.currentThread().getName();
+        }
+    }
+
+    /** Test skeleton class that fails the test when an exception is received in
+        the listening thread. */
+    private class TestSkeleton extends Skeleton<Reports>
+    {
+        /** Creates a <code>TestSkeleton</code> at the appropriate address, with
+            a new server object. */
+        TestSkeleton()
+        {
+            super(Reports.class, new ReportServer(), address);
+        }
+
+        /** Fails the test upon an error in the listening thread. */
+        @Override
+        protected boolean listen_error(Exception e)
+        {
+            failure(new TestFailed("exception in listening thread", e));
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package conformance.rmi;
+
+import test.*;
+import rmi.*;
+import java.net.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that stubs cancel the calls their callers give up on.
+
+    <p>
+    This test starts a skeleton with two service threads, and makes calls
+    which hold their thread until it is interrupted. The first caller is
+    interrupted while waiting for the response, and the second call times out.
+    In both cases the stub must send the cancellation, the skeleton must
+    interrupt the call and list no call in progress afterwards. Since one
+    service thread is needed to hold a call and the other to read the
+    cancellation, the second cancellation only arrives if the first call freed
+    its thread.
+ */
+public class CancellationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking cancellation of calls";
+    /** Prerequisites. */
+    public static final Class[] prerequisites =
+        new Class[] {ConnectionTest.class};
+
+    /** Remote interface with calls held until they are interrupted. */
+    public interface Holder
+    {
+        /** Holds the call until its thread is interrupted.
+
+            @throws RMIException If the call cannot be completed.
+         */
+        void hold() throws RMIException;
+
+        /** Holds the call until its thread is interrupted, past the deadline
+            of the call.
+
+            @throws RMIException If the call cannot be completed.
+         */
+        @Timeout(300)
+        void holdPastDeadline() throws RMIException;
+    }
+
+    /** Address at which the test skeleton will run. */
+    private InetSocketAddress   address;
+    /** Skeleton object used in the test. */
+    private TestSkeleton        skeleton;
+    /** Stub connecting to the skeleton. */
+    private Holder              stub;
+    /** Opened when a held call starts, replaced for each call. */
+    private volatile CountDownLatch started;
+    /** Opened when a held call is interrupted, replaced for each call. */
+    private volatile CountDownLatch interrupted;
+
+    /** Initializes the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        address = new InetSocketAddress(7000);
+        skeleton = new TestSkeleton();
+        skeleton.setWorkerThreads(2);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+
+        try
+        {
+            stub = Stub.create(Holder.class, address);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("interrupting a caller waiting for the response");
+
+        expectCancelled(false);
+
+        task("letting a call time out");
+
+        expectCancelled(true);
+
+        task();
+    }
+
+    /** Stops the skeleton server. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Makes a held call, gives up on it and checks that the skeleton
+        interrupts it.
+
+        @param timeout Whether the call times out, rather than its caller
+                       being interrupted.
+        @throws TestFailed If the caller does not return, the call is not
+                           interrupted, or the skeleton still lists it.
+     */
+    private void expectCancelled(final boolean timeout) throws TestFailed
+    {
+        started = new CountDownLatch(1);
+        interrupted = new CountDownLatch(1);
+
+        final Throwable[]   error = new Throwable[1];
+        Thread              caller = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if(timeout)
+                        stub.holdPastDeadline();
+                    else
+                        stub.hold();
+                }
+                catch(Throwable t)
+                {
+                    error[0] = t;
+                }
+            }
+        };
+
+        caller.start();
+
+        try
+        {
+            if(!started.await(5, TimeUnit.SECONDS))
+                throw new TestFailed("call did not reach the server");
+
+            if(!timeout)
+                caller.interrupt();
+
+            caller.join(5000);
+
+            if(caller.isAlive())
+                throw new TestFailed("caller did not return");
+
+            if(!(error[0] instanceof RMIException))
+            {
+                throw new TestFailed("abandoned call did not fail with " +
+                                     "RMIException", error[0]);
+            }
+
+            if(!interrupted.await(5, TimeUnit.SECONDS))
+                throw new TestFailed("skeleton did not interrupt the call");
+
+            // The call is removed from the list once its response is
+            // written.
+            long    deadline = System.currentTimeMillis() + 5000;
+
+            while(!skeleton.getInFlightCalls().isEmpty())
+            {
+                if(System.currentTimeMillis() > deadline)
+                {
+                    throw new TestFailed("skeleton still lists the " +
+                                         "cancelled call");
+                }
+
+                Thread.sleep(10);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Server object holding calls until they are interrupted. */
+    private class HolderServer implements Holder
+    {
+        @Override
+        public void hold()
+        {
+            started.countDown();
+
+            try
+            {
+                Thread.sleep(30000);
+            }
+            catch(InterruptedException e)
+            {
+                interrupted.countDown();
+            }
+        }
+
+        @Override
+        public void holdPastDeadline()
+        {
+            hold();
+        }
+    }
+
+    /** Test skeleton class that fails the test when an exception is received in
+        the listening thread. */
+    private class TestSkeleton extends Skeleton<Holder>
+    {
+        /** Creates a <code>TestSkeleton</code> at the appropriate address, with
+            a new server object. */
+        TestSkeleton()
+        {
+            super(Holder.class, new HolderServer(), address);
+        }
+
+        /** Fails the test upon an error in the listening thread. */
+        @Override
+        protected boolean listen_error(Exception e)
+        {
+            failure(new TestFailed("exception in listening thread", e));
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package conformance.rmi;
+
+import test.*;
+import rmi.*;
+import java.net.*;
+import java.io.FileNotFoundException;
+
+/** Tests calls between stub and skeleton over an impaired network.
+
+    <p>
+    This test starts a skeleton and a <code>NetworkProxy</code> in front of it,
+    and calls the skeleton through a stub created for the proxy's address. The
+    test checks that calls complete, and take at least as long as the network
+    delay, when every chunk of data is delayed; that they complete when data
+    arrives a few bytes at a time over a slow link; and that a connection reset
+    by the network is reported to the caller as an <code>RMIException</code>
+    without affecting later calls.
+ */
+public class ImpairedNetworkTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking calls between stub and skeleton over an impaired network";
+    /** Prerequisites. */
+    public static final Class[] prerequisites =
+        new Class[] {ConnectionTest.class};
+
+    /** One-way delay added by the proxy, in milliseconds. */
+    private static final int    delay = 50;
+
+    /** Address at which the test skeleton will run. */
+    private InetSocketAddress   address;
+    /** Skeleton object used in the test. */
+    private TestSkeleton        skeleton;
+    /** Proxy between the stub and the skeleton. */
+    private NetworkProxy        proxy;
+    /** Stub connecting to the skeleton through the proxy. */
+    private TestInterface       stub;
+
+    /** Initializes the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        address = new InetSocketAddress(7000);
+        skeleton = new TestSkeleton();
+        proxy = new NetworkProxy(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 7000));
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+
+        try
+        {
+            proxy.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start proxy", t);
+        }
+
+        try
+        {
+            stub = Stub.create(TestInterface.class, proxy.getAddress());
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+    }
+
+    /** Performs the test. */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("calling through a proxy delaying each chunk by " + delay +
+             " milliseconds");
+
+        proxy.setDelay(NetworkProxy.fixed(delay));
+
+        long    start = System.currentTimeMillis();
+
+        testStub();
+
+        // The request and the response are each delayed at least once.
+        long    elapsed = System.currentTimeMillis() - start;
+
+        if(elapsed < 2 * delay)
+        {
+            throw new TestFailed("call completed in " + elapsed + " ms " +
+                                 "through a proxy adding " + delay +
+                                 " ms each way");
+        }
+
+        task("calling through a proxy writing 7 bytes at a time at 16 " +
+             "kilobytes per second");
+
+        proxy.setDelay(NetworkProxy.fixed(0));
+        proxy.setSegmentSize(7);
+        proxy.setBandwidth(16 * 1024);
+
+        testStub();
+
+        task("calling through a proxy resetting every connection");
+
+        proxy.setSegmentSize(0);
+        proxy.setBandwidth(0);
+        proxy.setResetProbability(1);
+
+        try
+        {
+            stub.method(false);
+            throw new TestFailed("call succeeded over a reset connection");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when calling over a " +
+                                 "reset connection", t);
+        }
+
+        if(proxy.getResets() == 0)
+            throw new TestFailed("proxy did not reset the connection");
+
+        task("calling after a connection has been reset");
+
+        proxy.setResetProbability(0);
+
+        testStub();
+
+        task();
+    }
+
+    /** Stops the proxy and the skeleton server. */
+    @Override
+    protected void clean()
+    {
+        proxy.stop();
+        proxy = null;
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Gets a regular result and an exception from the server through the
+        stub.
+
+        @throws TestFailed If either call fails.
+     */
+    private void testStub() throws TestFailed
+    {
+        try
+        {
+            if(stub.method(false) != null)
+                throw new TestFailed("incorrect result from stub");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when using stub", t);
+        }
+
+        try
+        {
+            stub.method(true);
+            throw new TestFailed("exception expected but not received from " +
+                                 "stub");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(FileNotFoundException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception when using stub", t);
+        }
+    }
+
+    /** Test skeleton class that fails the test when an exception is received in
+        the listening thread. Errors in service threads are expected when the
+        proxy resets connections, and are ignored. */
+    private class TestSkeleton extends Skeleton<TestInterface>
+    {
+        /** Creates a <code>TestSkeleton</code> at the appropriate address, with
+            a new server object. */
+        TestSkeleton()
+        {
+            super(TestInterface.class, new TestServer(), address);
+        }
+
+        /** Fails the test upon an error in the listening thread. */
+        @Override
+        protected boolean listen_error(Exception e)
+        {
+            failure(new TestFailed("exception in listening thread", e));
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package conformance.rmi;
+
+import test.*;
+import rmi.*;
+import java.io.*;
+import java.net.*;
+
+/** Checks that skeletons close connections whose request stalls.
+
+    <p>
+    This test starts a skeleton with a single service thread and a short
+    request timeout. A client connects, sends the start of a request and then
+    stalls. The test checks that the skeleton closes the connection once the
+    timeout has passed, and that the service thread is free to serve a call
+    afterwards. It also checks that a skeleton gives clients 30 seconds by
+    default.
+ */
+public class RequestTimeoutTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the request timeout";
+    /** Prerequisites. */
+    public static final Class[] prerequisites =
+        new Class[] {ConnectionTest.class};
+
+    /** Request timeout of the test skeleton, in milliseconds. */
+    private static final int    timeout = 300;
+
+    /** Address at which the test skeleton will run. */
+    private InetSocketAddress   address;
+    /** Skeleton object used in the test. */
+    private TestSkeleton        skeleton;
+
+    /** Initializes the test. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        address = new InetSocketAddress(7000);
+        skeleton = new TestSkeleton();
+
+        if(skeleton.getRequestTimeout() != 30000)
+        {
+            throw new TestFailed("default request timeout is " +
+                                 skeleton.getRequestTimeout() + " ms");
+        }
+
+        skeleton.setWorkerThreads(1);
+        skeleton.setRequestTimeout(timeout);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("stalling in the middle of a request");
+
+        long        elapsed;
+
+        try(Socket socket = new Socket())
+        {
+            socket.connect(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 7000));
+            socket.setSoTimeout(5000);
+
+            // The serialization stream header, and the tag of an object
+            // which never follows.
+            OutputStream    out = socket.getOutputStream();
+
+            out.write(new byte[] {(byte)0xac, (byte)0xed, 0x00, 0x05, 0x73});
+            out.flush();
+
+            long            start = System.currentTimeMillis();
+            InputStream     in = socket.getInputStream();
+
+            try
+            {
+                while(in.read() != -1)
+                    ;
+            }
+            catch(SocketTimeoutException e)
+            {
+                throw new TestFailed("skeleton did not close a stalled " +
+                                     "connection");
+            }
+            catch(SocketException e)
+            {
+                // A reset also closes the connection.
+            }
+
+            elapsed = System.currentTimeMillis() - start;
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to talk to skeleton", e);
+        }
+
+        if(elapsed < timeout / 2)
+        {
+            throw new TestFailed("skeleton closed the connection after " +
+                                 elapsed + " ms, before the request timeout");
+        }
+
+        task("calling once the stalled connection is closed");
+
+        try
+        {
+            TestInterface   stub = Stub.create(TestInterface.class, address);
+
+            if(stub.method(false) != null)
+                throw new TestFailed("incorrect result from stub");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("call after a stalled connection failed", t);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton server. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Test skeleton class that fails the test when an exception is received in
+        the listening thread. */
+    private class TestSkeleton extends Skeleton<TestInterface>
+    {
+        /** Creates a <code>TestSkeleton</code> at the appropriate address, with
+            a new server object. */
+        TestSkeleton()
+        {
+            super(TestInterface.class, new TestServer(), address);
+        }
+
+        /** Fails the test upon an error in the listening thread. */
+        @Override
+        protected boolean listen_error(Exception e)
+        {
+            failure(new TestFailed("exception in listening thread", e));
+
+            return false;
+        }
+    }
+}
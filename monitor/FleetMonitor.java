@@ -0,0 +1,225 @@
+package monitor;
+
+import rmi.HistogramSnapshot;
+import rmi.MethodSnapshot;
+import rmi.SkeletonSnapshot;
+import rmi.SkeletonStats;
+import rmi.Stub;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line monitor polling the <code>SkeletonStats</code> of many skeletons and printing a
+ * fleet view: one line per skeleton, then the statistics of each method summed over the fleet.
+ *
+ * <p>
+ * Usage: <code>java monitor.FleetMonitor [-i seconds] [-n polls] host:port ...</code>, where each
+ * address is that given to <code>Skeleton.exportStats</code>. The monitor polls every
+ * <code>-i</code> seconds (default 5), <code>-n</code> times (default forever). Call rates are
+ * computed between consecutive polls of the same skeleton.
+ */
+public class FleetMonitor {
+    private static final double MS = 1e6;
+
+    private final List<InetSocketAddress> addresses;
+    private final List<SkeletonStats> stubs = new ArrayList<SkeletonStats>();
+    private final ExecutorService pollers;
+    // previous snapshot of each skeleton, to compute rates
+    private final Map<InetSocketAddress, SkeletonSnapshot> previous = new HashMap<InetSocketAddress, SkeletonSnapshot>();
+
+    /**
+     * Creates a monitor.
+     * @param addresses addresses of the stats skeletons
+     */
+    public FleetMonitor(List<InetSocketAddress> addresses) {
+        this.addresses = addresses;
+        for (InetSocketAddress address : addresses) {
+            stubs.add(Stub.create(SkeletonStats.class, address));
+        }
+        this.pollers = Executors.newFixedThreadPool(Math.min(addresses.size(), 16));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long intervalMillis = 5000;
+        long polls = Long.MAX_VALUE;
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-i") && i + 1 < args.length) {
+                intervalMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                polls = Long.parseLong(args[++i]);
+            } else {
+                int colon = args[i].lastIndexOf(':');
+                if (colon < 0) {
+                    usage();
+                    return;
+                }
+                addresses.add(new InetSocketAddress(args[i].substring(0, colon),
+                        Integer.parseInt(args[i].substring(colon + 1))));
+            }
+        }
+        if (addresses.isEmpty()) {
+            usage();
+            return;
+        }
+
+        FleetMonitor monitor = new FleetMonitor(addresses);
+        try {
+            for (long poll = 0; poll < polls; poll++) {
+                if (poll > 0) {
+                    Thread.sleep(intervalMillis);
+                }
+                monitor.print(monitor.poll());
+            }
+        } finally {
+            monitor.pollers.shutdownNow();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: java monitor.FleetMonitor [-i seconds] [-n polls] host:port ...");
+    }
+
+    /**
+     * Poll every skeleton concurrently.
+     * @return the snapshots in the order of the addresses, null for skeletons that did not answer
+     * @throws InterruptedException if interrupted while waiting for the polls
+     */
+    public List<SkeletonSnapshot> poll() throws InterruptedException {
+        List<Future<SkeletonSnapshot>> futures = new ArrayList<Future<SkeletonSnapshot>>();
+        for (final SkeletonStats stub : stubs) {
+            futures.add(pollers.submit(new Callable<SkeletonSnapshot>() {
+                @Override
+                public SkeletonSnapshot call() throws Exception {
+                    return stub.getSnapshot();
+                }
+            }));
+        }
+        List<SkeletonSnapshot> snapshots = new ArrayList<SkeletonSnapshot>();
+        for (Future<SkeletonSnapshot> future : futures) {
+            try {
+                snapshots.add(future.get());
+            } catch (ExecutionException e) {
+                snapshots.add(null);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Print the fleet view of one poll.
+     * @param snapshots snapshots returned by <code>poll</code>
+     */
+    public void print(List<SkeletonSnapshot> snapshots) {
+        int up = 0;
+        for (SkeletonSnapshot snapshot : snapshots) {
+            if (snapshot != null && snapshot.isRunning()) {
+                up++;
+            }
+        }
+        System.out.printf("%n%tT  %d skeletons, %d up%n", System.currentTimeMillis(), snapshots.size(), up);
+        System.out.printf("%-24s %-28s %6s %9s %6s %8s %8s %9s %6s %8s %8s%n", "STATS ADDRESS", "INTERFACE",
+                "CONNS", "THREADS", "QUEUE", "SHED", "REJECTED", "CALLS/S", "ERR%", "P50 MS", "P99 MS");
+
+        Map<String, long[]> fleetCounts = new TreeMap<String, long[]>();
+        Map<String, Long> fleetP99 = new HashMap<String, Long>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            InetSocketAddress address = addresses.get(i);
+            SkeletonSnapshot snapshot = snapshots.get(i);
+            String name = address.getHostString() + ":" + address.getPort();
+            if (snapshot == null) {
+                System.out.printf("%-24s %s%n", name, "unreachable");
+                continue;
+            }
+
+            long calls = 0;
+            long errors = 0;
+            long p50 = 0;
+            long p99 = 0;
+            for (MethodSnapshot method : snapshot.getMethods().values()) {
+                HistogramSnapshot latency = method.getLatency();
+                calls += method.getCalls();
+                errors += method.getErrors();
+                p50 = Math.max(p50, latency.getP50());
+                p99 = Math.max(p99, latency.getP99());
+
+                long[] counts = fleetCounts.get(method.getMethod());
+                if (counts == null) {
+                    counts = new long[6];
+                    fleetCounts.put(method.getMethod(), counts);
+                }
+                counts[0] += method.getCalls();
+                counts[1] += method.getErrors();
+                counts[2] += method.getRejected();
+                counts[3] += method.getSampledCalls();
+                counts[4] += method.getCpuNanos();
+                counts[5] += method.getAllocatedBytes();
+                Long worst = fleetP99.get(method.getMethod());
+                fleetP99.put(method.getMethod(), worst == null ? latency.getP99() : Math.max(worst, latency.getP99()));
+            }
+
+            System.out.printf("%-24s %-28s %6d %4d/%-4s %6d %8d %8d %9s %6.2f %8.2f %8.2f%n", name,
+                    shorten(snapshot.getRemoteInterface(), 28) + (snapshot.isRunning() ? "" : " (stopped)"),
+                    snapshot.getOpenConnections(), snapshot.getActiveThreads(),
+                    snapshot.getWorkerThreads() == 0 ? "-" : String.valueOf(snapshot.getWorkerThreads()),
+                    snapshot.getQueueDepth(), snapshot.getShedCount(), snapshot.getRejectedCount(),
+                    rate(previous.get(address), snapshot, calls),
+                    calls == 0 ? 0.0 : 100.0 * errors / calls, p50 / MS, p99 / MS);
+            previous.put(address, snapshot);
+        }
+
+        if (fleetCounts.isEmpty()) {
+            return;
+        }
+        System.out.printf("%n%-40s %10s %8s %8s %6s %12s %11s %11s%n", "METHOD (FLEET)", "CALLS", "ERRORS",
+                "REJECTED", "ERR%", "WORST P99 MS", "CPU/CALL MS", "ALLOC/CALL");
+        for (Map.Entry<String, long[]> entry : fleetCounts.entrySet()) {
+            long[] counts = entry.getValue();
+            // costs are averaged over the sampled calls only
+            System.out.printf("%-40s %10d %8d %8d %6.2f %12.2f %11s %11s%n", shorten(entry.getKey(), 40), counts[0],
+                    counts[1], counts[2], counts[0] == 0 ? 0.0 : 100.0 * counts[1] / counts[0],
+                    fleetP99.get(entry.getKey()) / MS,
+                    counts[3] == 0 ? "-" : String.format("%.3f", counts[4] / MS / counts[3]),
+                    counts[3] == 0 ? "-" : String.valueOf(counts[5] / counts[3]));
+        }
+    }
+
+    /**
+     * Compute the call rate of a skeleton between two polls.
+     * @param before previous snapshot, null on the first poll
+     * @param after current snapshot
+     * @param calls total calls in the current snapshot
+     * @return the rate, or "-" if it cannot be computed
+     */
+    private static String rate(SkeletonSnapshot before, SkeletonSnapshot after, long calls) {
+        if (before == null || after.getTakenAt() <= before.getTakenAt()) {
+            return "-";
+        }
+        long callsBefore = 0;
+        for (MethodSnapshot method : before.getMethods().values()) {
+            callsBefore += method.getCalls();
+        }
+        return String.format("%.1f", (calls - callsBefore) * 1000.0 / (after.getTakenAt() - before.getTakenAt()));
+    }
+
+    /**
+     * Shorten a name to fit a column, keeping its end.
+     * @param name the name
+     * @param width width of the column
+     * @return the name, or its last characters preceded by an ellipsis
+     */
+    private static String shorten(String name, int width) {
+        return name.length() <= width ? name : "..." + name.substring(name.length() - width + 3);
+    }
+}
@@ -2,26 +2,175 @@ package pingpong.pingpongclient;
 
 import pingpong.pingpongserver.PingPongServer;
 import pingpong.pingpongserver.PingPongServerFactory;
+import pingpong.pingpongserver.PingPongTest;
 
+import rmi.HistogramSnapshot;
+import rmi.LatencyHistogram;
 import rmi.RMIException;
+import rmi.Skeleton;
 import rmi.Stub;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Open-loop load generator for a <code>PingPongServerFactory</code> skeleton.
+ *
+ * <p>
+ * Usage: <code>java pingpong.pingpongclient.PingPongClient [-r rate] [-c levels] [-d seconds]
+ * [-w seconds] [-s stubs] [-h] [host port]</code>. Without an address, a <code>PingPongTest</code>
+ * skeleton is started on the loopback interface and used as the target.
+ *
+ * <p>
+ * The client first runs the four rounds of the original ping test, and stops if any fails. It
+ * then sweeps the concurrency levels given by <code>-c</code> (default 1,2,4,8,16,32,64), for
+ * <code>-d</code> seconds each (default 10), after a warm-up of <code>-w</code> seconds (default
+ * 2) at the first level. At each level, that many threads each issue <code>-r</code> calls per
+ * second (default 100) on a fixed schedule, spread over <code>-s</code> stubs (default one per
+ * thread). A call is a <code>makePingPongServer</code> round trip followed by a local
+ * <code>ping</code> on the returned server, which checks the answer.
+ *
+ * <p>
+ * The schedule does not wait for slow calls: a thread which falls behind issues its next call at
+ * once, and the latency of every call is measured from the time it was scheduled to be sent, not
+ * from the time it was actually sent. This corrects for coordinated omission - a stalled skeleton
+ * delays every call that should have been sent during the stall, not just the one in progress.
+ * The service time, from actual send to response, is reported alongside for comparison.
+ *
+ * <p>
+ * Each level prints its offered and achieved rates and the percentiles of both latencies;
+ * <code>-h</code> adds the full percentile distribution. The saturation knee is the last level
+ * which achieved 90% of its offered rate with a corrected p99 less than four times the lowest p99
+ * of the sweep.
+ */
 public class PingPongClient {
     // Magic number. Test 4 times as the handout specified
     private static final int TEST_ROUND = 4;
+    private static final double MS = 1e6;
+    private static final double[] DISTRIBUTION = {50, 75, 90, 95, 99, 99.9, 99.99, 100};
+
+    private final PingPongServerFactory[] stubs;
+    private final double ratePerThread;
+
+    /** Results of one level of the sweep. */
+    private static class Step {
+        final int concurrency;
+        final double offered;
+        final double achieved;
+        final long errors;
+        final HistogramSnapshot corrected;
+        final HistogramSnapshot service;
+
+        Step(int concurrency, double offered, double achieved, long errors, HistogramSnapshot corrected,
+             HistogramSnapshot service) {
+            this.concurrency = concurrency;
+            this.offered = offered;
+            this.achieved = achieved;
+            this.errors = errors;
+            this.corrected = corrected;
+            this.service = service;
+        }
+    }
+
+    /**
+     * Creates a load generator.
+     * @param address address of the skeleton
+     * @param stubCount number of stubs to spread the calls over
+     * @param ratePerThread calls per second issued by each thread
+     */
+    public PingPongClient(InetSocketAddress address, int stubCount, double ratePerThread) {
+        this.stubs = new PingPongServerFactory[stubCount];
+        for (int i = 0; i < stubCount; i++) {
+            stubs[i] = Stub.create(PingPongServerFactory.class, address);
+        }
+        this.ratePerThread = ratePerThread;
+    }
 
     // pass in the skeleton address and port number as command line arguments
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        double rate = 100;
+        int[] levels = {1, 2, 4, 8, 16, 32, 64};
+        long stepMillis = 10000;
+        long warmupMillis = 2000;
+        int stubCount = 0;
+        boolean distribution = false;
+        List<String> positional = new ArrayList<String>();
 
-        String skeletonHostname = args[0];
-        int skeletonPort = Integer.valueOf(args[1]);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-r") && i + 1 < args.length) {
+                rate = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-c") && i + 1 < args.length) {
+                String[] parts = args[++i].split(",");
+                levels = new int[parts.length];
+                for (int j = 0; j < parts.length; j++) {
+                    levels[j] = Integer.parseInt(parts[j].trim());
+                }
+            } else if (args[i].equals("-d") && i + 1 < args.length) {
+                stepMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("-w") && i + 1 < args.length) {
+                warmupMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("-s") && i + 1 < args.length) {
+                stubCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-h")) {
+                distribution = true;
+            } else if (args[i].startsWith("-")) {
+                usage();
+                return;
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.size() != 0 && positional.size() != 2) {
+            usage();
+            return;
+        }
 
-        // use create(Class<T> c, InetSocketAddress address) method to create proxy
-        InetSocketAddress skeletonSocket = new InetSocketAddress(skeletonHostname, skeletonPort);
-        PingPongServerFactory pFactory = Stub.create(PingPongServerFactory.class, skeletonSocket);
+        // without an address, serve the built-in target from this process
+        Skeleton<PingPongServerFactory> skeleton = null;
+        InetSocketAddress skeletonSocket;
+        if (positional.isEmpty()) {
+            skeletonSocket = new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort());
+            skeleton = PingPongTest.start(skeletonSocket);
+        } else {
+            String skeletonHostname = positional.get(0);
+            int skeletonPort = Integer.valueOf(positional.get(1));
+            skeletonSocket = new InetSocketAddress(skeletonHostname, skeletonPort);
+        }
 
+        int maxLevel = 0;
+        for (int level : levels) {
+            maxLevel = Math.max(maxLevel, level);
+        }
+        PingPongClient client = new PingPongClient(skeletonSocket, stubCount > 0 ? stubCount : maxLevel, rate);
+        try {
+            if (client.check() == 0) {
+                client.sweep(levels, stepMillis, warmupMillis, distribution);
+            }
+        } finally {
+            if (skeleton != null) {
+                skeleton.stop();
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: java pingpong.pingpongclient.PingPongClient [-r rate] [-c levels] "
+                + "[-d seconds] [-w seconds] [-s stubs] [-h] [host port]");
+    }
+
+    /**
+     * Run the ping test of the handout.
+     * @return the number of failed rounds
+     */
+    public int check() {
+        PingPongServerFactory pFactory = stubs[0];
         PingPongServer pServer = null;
         try {
             pServer = pFactory.makePingPongServer();
@@ -45,6 +194,149 @@ public class PingPongClient {
         }
 
         System.out.println(TEST_ROUND + " Tests completed, " + fail + " Tests Failed.");
+        return fail;
+    }
 
+    /**
+     * Run every level of the sweep and report the saturation knee.
+     * @param levels concurrency levels, in increasing order
+     * @param stepMillis duration of each level
+     * @param warmupMillis duration of the warm-up, whose results are discarded
+     * @param distribution whether to print the percentile distribution of each level
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public void sweep(int[] levels, long stepMillis, long warmupMillis, boolean distribution)
+            throws InterruptedException {
+        if (warmupMillis > 0) {
+            run(levels[0], warmupMillis);
+        }
+        System.out.printf("%n%6s %10s %10s %7s %10s %10s %10s %10s %10s%n", "THREADS", "OFFERED/S", "ACHIEVED/S",
+                "ERRORS", "P50 MS", "P99 MS", "P999 MS", "MAX MS", "SVC P99 MS");
+        List<Step> steps = new ArrayList<Step>();
+        for (int level : levels) {
+            Step step = run(level, stepMillis);
+            steps.add(step);
+            System.out.printf("%6d %10.1f %10.1f %7d %10.3f %10.3f %10.3f %10.3f %10.3f%n", level, step.offered,
+                    step.achieved, step.errors, step.corrected.getP50() / MS, step.corrected.getP99() / MS,
+                    step.corrected.getP999() / MS, step.corrected.getMax() / MS, step.service.getP99() / MS);
+            if (distribution) {
+                printDistribution(step.corrected);
+            }
+        }
+
+        Step knee = kneeOf(steps);
+        if (knee == null) {
+            System.out.println("\nno level kept up with its offered rate");
+        } else if (knee == steps.get(steps.size() - 1)) {
+            System.out.printf("%nno saturation up to %d threads (%.1f calls/s)%n", knee.concurrency, knee.achieved);
+        } else {
+            System.out.printf("%nsaturation knee at %d threads (%.1f calls/s, p99 %.3f ms)%n", knee.concurrency,
+                    knee.achieved, knee.corrected.getP99() / MS);
+        }
+    }
+
+    /**
+     * Find the last level which kept up with its offered rate at a reasonable latency.
+     * @param steps results of the sweep
+     * @return the knee, or null if no level kept up
+     */
+    private static Step kneeOf(List<Step> steps) {
+        long bestP99 = Long.MAX_VALUE;
+        for (Step step : steps) {
+            bestP99 = Math.min(bestP99, step.corrected.getP99());
+        }
+        Step knee = null;
+        for (Step step : steps) {
+            if (step.achieved < 0.9 * step.offered || step.corrected.getP99() > 4 * bestP99) {
+                break;
+            }
+            knee = step;
+        }
+        return knee;
+    }
+
+    private static void printDistribution(HistogramSnapshot histogram) {
+        StringBuilder line = new StringBuilder("       ");
+        for (double percentile : DISTRIBUTION) {
+            line.append(String.format(" p%s=%.3fms", percentile == Math.rint(percentile)
+                    ? String.valueOf((long) percentile) : String.valueOf(percentile),
+                    histogram.getValueAtPercentile(percentile) / MS));
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * Run one level of the sweep.
+     * @param concurrency number of threads issuing calls
+     * @param durationMillis duration of the level
+     * @return the results
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private Step run(int concurrency, long durationMillis) throws InterruptedException {
+        final LatencyHistogram corrected = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        final LongAdder completed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final long intervalNanos = (long) (1e9 / ratePerThread);
+        final long start = System.nanoTime();
+        final long end = start + durationMillis * 1000000L;
+
+        Thread[] threads = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            final PingPongServerFactory stub = stubs[i % stubs.length];
+            // spread the first calls over one interval, so that the threads do not send in bursts
+            final long first = start + ThreadLocalRandom.current().nextLong(intervalNanos);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int round = 0;
+                    for (long scheduled = first; scheduled < end; scheduled += intervalNanos) {
+                        long now = System.nanoTime();
+                        if (now >= end) {
+                            // calls a saturated skeleton never got to show as a lower achieved rate
+                            break;
+                        }
+                        if (scheduled > now) {
+                            LockSupport.parkNanos(scheduled - now);
+                        }
+                        long sent = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = stub.makePingPongServer().ping(round).equals("pong" + round);
+                        } catch (RMIException e) {
+                            ok = false;
+                        }
+                        long done = System.nanoTime();
+                        round++;
+                        corrected.record(done - scheduled);
+                        service.record(done - sent);
+                        completed.increment();
+                        if (!ok) {
+                            errors.increment();
+                        }
+                    }
+                }
+            }, "load-" + concurrency + "-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // calls scheduled before the end may complete after it, the rate is over the actual time
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Step(concurrency, concurrency * ratePerThread, completed.sum() / seconds, errors.sum(),
+                corrected.snapshot(), service.snapshot());
+    }
+
+    /**
+     * Find a port nobody listens on, for the built-in target.
+     * @return the port
+     * @throws IOException if no port can be bound
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
     }
 }
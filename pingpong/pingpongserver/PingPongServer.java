@@ -1,6 +1,12 @@
 package pingpong.pingpongserver;
 
-public class PingPongServer {
+import java.io.Serializable;
+
+/**
+ * Server object returned by <code>PingPongServerFactory</code>. It is returned by value, so it
+ * must be serializable.
+ */
+public class PingPongServer implements Serializable {
 
     /**
      * Remote method ping
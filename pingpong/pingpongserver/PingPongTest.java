@@ -12,7 +12,6 @@ public class PingPongTest {
      * @param args command line argument
      */
     public static void main(String[] args) {
-        PingPongServerFactory factory = new RealFactory();
         Skeleton<PingPongServerFactory> skeleton = null;
 
 
@@ -20,9 +19,7 @@ public class PingPongTest {
             // take the localHost's hostname and create the skeleton at port 80
             InetSocketAddress inet = new InetSocketAddress(InetAddress.getLocalHost().getHostName(), 80);
 
-            skeleton = new Skeleton<PingPongServerFactory>(PingPongServerFactory.class, factory, inet);
-            // start the skeleton and wait for requests
-            skeleton.start();
+            skeleton = start(inet);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -33,4 +30,18 @@ public class PingPongTest {
             }
         }
     }
+
+    /**
+     * Start a skeleton serving a <code>RealFactory</code> and wait for requests.
+     * @param address address the skeleton listens on
+     * @return the running skeleton
+     * @throws RMIException if the skeleton cannot be started
+     */
+    public static Skeleton<PingPongServerFactory> start(InetSocketAddress address) throws RMIException {
+        PingPongServerFactory factory = new RealFactory();
+        Skeleton<PingPongServerFactory> skeleton =
+                new Skeleton<PingPongServerFactory>(PingPongServerFactory.class, factory, address);
+        skeleton.start();
+        return skeleton;
+    }
 }
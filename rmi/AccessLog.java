@@ -0,0 +1,278 @@
+package rmi;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/** Access log of the calls served by skeletons.
+
+    <p>
+    Each call produces one line in logfmt (<code>key=value</code> pairs): the
+    time the response was written, the interface and method, the peer address,
+    the total duration from accept to response, the time spent queued and in
+    the server object, the request and response sizes and the status. Calls
+    taking at least the slow-call threshold also get a summary of their
+    arguments, and calls which failed in the skeleton get the error.
+
+    <p>
+    Service threads never wait for the log. They write their entry into a
+    lock-free ring buffer of preallocated entries (a <code>RingWriter</code>),
+    and a background thread formats and writes the lines. When the ring buffer
+    is full - because the disk is slower than the call rate - entries are
+    dropped and counted rather than blocking the service threads.
+
+    <p>
+    A log is installed with <code>Skeleton.setAccessLog</code>, and may be
+    shared by several skeletons.
+ */
+public class AccessLog {
+    /** Longest summary of a single argument. */
+    private static final int MAX_ARGUMENT_LENGTH = 64;
+
+    /** Preallocated slot of the ring buffer. */
+    private static class Entry extends RingWriter.Slot {
+        long timeMillis;
+        String remoteInterface;
+        String method;
+        Object peer;
+        long totalNanos;
+        long queuedNanos;
+        long serviceNanos;
+        long bytesIn;
+        long bytesOut;
+        String status;
+        String arguments;
+        String error;
+
+        @Override
+        void clear() {
+            peer = null;
+            arguments = null;
+            error = null;
+        }
+    }
+
+    /** Formats the entries as lines, on the writer thread. */
+    private class Lines implements RingWriter.Sink<Entry> {
+        private final StringBuilder line = new StringBuilder(256);
+
+        @Override
+        public Entry newSlot() {
+            return new Entry();
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void take(Entry entry) {
+            line.setLength(0);
+            format(entry, line);
+        }
+
+        @Override
+        public void write() throws IOException {
+            writer.write(line.toString());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private final Writer writer;
+    private final RingWriter<Entry> ring;
+    private final long slowCallNanos;
+
+    /**
+     * Creates a log and starts its writer thread.
+     * @param out stream receiving the lines in UTF-8, closed with the log
+     * @param capacity number of entries the ring buffer holds, rounded up to a power of two
+     * @param slowCallMillis duration from which calls are logged with their arguments, or 0 to never
+     *                       log arguments
+     * @throws NullPointerException if the stream is null
+     * @throws IllegalArgumentException if the capacity is not positive or the threshold negative
+     */
+    public AccessLog(OutputStream out, int capacity, long slowCallMillis) {
+        if (out == null) {
+            throw new NullPointerException("The log stream shouldn't be null");
+        }
+        if (capacity <= 0 || capacity > (1 << 30) || slowCallMillis < 0) {
+            throw new IllegalArgumentException("Invalid access log settings");
+        }
+        this.slowCallNanos = slowCallMillis == 0 ? Long.MAX_VALUE : slowCallMillis * 1000000L;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        this.ring = new RingWriter<Entry>(new Lines(), capacity, "access-log-writer");
+    }
+
+    /**
+     * Creates a log appending to a file, with room for 8192 entries.
+     * @param path path of the file
+     * @param slowCallMillis duration from which calls are logged with their arguments, or 0 to never
+     *                       log arguments
+     * @return the log
+     * @throws IOException if the file cannot be opened
+     */
+    public static AccessLog toFile(String path, long slowCallMillis) throws IOException {
+        return new AccessLog(new FileOutputStream(path, true), 8192, slowCallMillis);
+    }
+
+    /**
+     * Log a call. Never blocks: if the buffer is full the entry is dropped.
+     * @param remoteInterface interface served by the skeleton
+     * @param method name of the method, null if the request could not be read
+     * @param peer address of the caller
+     * @param totalNanos time from accept to response
+     * @param queuedNanos time spent waiting for a thread
+     * @param serviceNanos time spent in the server object
+     * @param bytesIn size of the request
+     * @param bytesOut size of the response
+     * @param status status of the response, null if the call failed in the skeleton
+     * @param args arguments of the call, summarized if the call was slow
+     * @param error exception which failed the call in the skeleton, or null
+     */
+    void record(String remoteInterface, String method, Object peer, long totalNanos, long queuedNanos,
+                long serviceNanos, long bytesIn, long bytesOut, String status, Object[] args, Throwable error) {
+        Entry entry = ring.claim();
+        if (entry == null) {
+            return;
+        }
+        boolean filled = false;
+        try {
+            entry.timeMillis = System.currentTimeMillis();
+            entry.remoteInterface = remoteInterface;
+            entry.method = method;
+            entry.peer = peer;
+            entry.totalNanos = totalNanos;
+            entry.queuedNanos = queuedNanos;
+            entry.serviceNanos = serviceNanos;
+            entry.bytesIn = bytesIn;
+            entry.bytesOut = bytesOut;
+            entry.status = status;
+            // arguments may be changed by the server object later, so summarize them now
+            entry.arguments = totalNanos >= slowCallNanos ? summarize(args) : null;
+            entry.error = error == null ? null : error.toString();
+            filled = true;
+        } catch (RuntimeException e) {
+            // an exception with a broken toString must not fail the call; the entry is dropped
+        } finally {
+            ring.publish(entry, filled);
+        }
+    }
+
+    /**
+     * Getter of the number of entries dropped because the buffer was full.
+     * @return the number of dropped entries
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Getter of the number of lines written.
+     * @return the number of written lines
+     */
+    public long getWritten() {
+        return ring.getWritten();
+    }
+
+    /**
+     * Stop accepting entries, write those already buffered and close the stream.
+     * @throws IOException if the stream cannot be closed
+     */
+    public void close() throws IOException {
+        ring.close();
+        writer.close();
+    }
+
+    /**
+     * Format an entry as one line.
+     * @param entry the entry
+     * @param line receives the line, including its newline
+     */
+    private static void format(Entry entry, StringBuilder line) {
+        line.append("time=").append(Instant.ofEpochMilli(entry.timeMillis))
+            .append(" interface=").append(entry.remoteInterface)
+            .append(" method=").append(entry.method == null ? "-" : entry.method)
+            .append(" peer=").append(entry.peer)
+            .append(" duration_us=").append(entry.totalNanos / 1000)
+            .append(" queued_us=").append(entry.queuedNanos / 1000)
+            .append(" service_us=").append(entry.serviceNanos / 1000)
+            .append(" bytes_in=").append(entry.bytesIn)
+            .append(" bytes_out=").append(entry.bytesOut)
+            .append(" status=").append(entry.status == null ? "error" : entry.status);
+        if (entry.error != null) {
+            line.append(" error=");
+            quote(entry.error, line);
+        }
+        if (entry.arguments != null) {
+            line.append(" args=");
+            quote(entry.arguments, line);
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Append a value in double quotes, escaping quotes, backslashes and line breaks.
+     */
+    private static void quote(String value, StringBuilder line) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Summarize the arguments of a call: arrays by their type and length, other values by their
+     * string form, truncated.
+     * @param args the arguments, may be null
+     * @return the summary
+     */
+    static String summarize(Object[] args) {
+        if (args == null) {
+            return "()";
+        }
+        StringBuilder summary = new StringBuilder("(");
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            Object arg = args[i];
+            String text;
+            if (arg == null) {
+                text = "null";
+            } else if (arg.getClass().isArray()) {
+                text = arg.getClass().getComponentType().getSimpleName() + "[" + Array.getLength(arg) + "]";
+            } else {
+                try {
+                    text = String.valueOf(arg);
+                } catch (RuntimeException e) {
+                    text = arg.getClass().getSimpleName();
+                }
+            }
+            if (text.length() > MAX_ARGUMENT_LENGTH) {
+                text = text.substring(0, MAX_ARGUMENT_LENGTH - 3) + "...";
+            }
+            summary.append(text);
+        }
+        return summary.append(')').toString();
+    }
+}
@@ -0,0 +1,114 @@
+package rmi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** CoDel-style admission controller for the skeleton's request queue.
+
+    <p>
+    The controller is given the queueing delay (sojourn time) of every
+    connection as a worker takes it off the queue. It tracks the minimum delay
+    seen during each interval. A minimum above the target means that the queue
+    never drained during the whole interval - a standing queue rather than a
+    burst - and the skeleton is considered overloaded for the next interval.
+    While overloaded, requests which have waited more than twice the target are
+    shed: the skeleton answers them with an "overloaded" response without
+    calling the server object. Requests that waited less are still served, so
+    the latency of admitted work stays close to the target.
+
+    <p>
+    This is the variant of CoDel used by RPC servers with thread pools; unlike
+    the original packet-queue algorithm it does not need to schedule drops,
+    because a shed request is answered immediately and frees its worker.
+ */
+class AdmissionController {
+    private volatile long targetNanos;
+    private volatile long intervalNanos;
+
+    // guarded by this
+    private boolean started;
+    private long intervalEnd;
+    private long minDelay;
+    private boolean overloaded;
+
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * Creates an admission controller.
+     * @param targetMillis acceptable standing queueing delay
+     * @param intervalMillis length of the interval over which the minimum delay is taken
+     */
+    AdmissionController(long targetMillis, long intervalMillis) {
+        configure(targetMillis, intervalMillis);
+    }
+
+    /**
+     * Change the target and interval.
+     * @param targetMillis acceptable standing queueing delay
+     * @param intervalMillis length of the interval over which the minimum delay is taken
+     * @throws IllegalArgumentException if either value is not positive
+     */
+    void configure(long targetMillis, long intervalMillis) {
+        if (targetMillis <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Target and interval must be positive");
+        }
+        this.targetNanos = targetMillis * 1000000L;
+        this.intervalNanos = intervalMillis * 1000000L;
+    }
+
+    long getTargetMillis() {
+        return targetNanos / 1000000L;
+    }
+
+    long getIntervalMillis() {
+        return intervalNanos / 1000000L;
+    }
+
+    /**
+     * Decide whether a request taken off the queue now should be shed.
+     * @param delayNanos time the request spent in the queue
+     * @return <code>true</code> if the request should be answered as overloaded
+     */
+    boolean shouldShed(long delayNanos) {
+        return shouldShed(System.nanoTime(), delayNanos);
+    }
+
+    /**
+     * Decide whether a request should be shed, given the current time.
+     * @param now current time in <code>System.nanoTime</code> units
+     * @param delayNanos time the request spent in the queue
+     * @return <code>true</code> if the request should be answered as overloaded
+     */
+    synchronized boolean shouldShed(long now, long delayNanos) {
+        if (!started || now - intervalEnd > 0) {
+            // a new interval starts, judge the one that just ended
+            overloaded = started && minDelay > targetNanos;
+            started = true;
+            minDelay = delayNanos;
+            intervalEnd = now + intervalNanos;
+        } else if (delayNanos < minDelay) {
+            minDelay = delayNanos;
+        }
+
+        if (overloaded && delayNanos > 2 * targetNanos) {
+            shed.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Getter of whether the last complete interval had a standing queue.
+     * @return <code>true</code> if requests are currently being shed
+     */
+    synchronized boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * Getter of the number of requests shed so far.
+     * @return the number of shed requests
+     */
+    long getShedCount() {
+        return shed.sum();
+    }
+}
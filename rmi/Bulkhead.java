@@ -0,0 +1,49 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Places a remote method in a bulkhead, limiting the skeleton resources its
+    calls may take.
+
+    <p>
+    Methods carrying the same bulkhead name share one bulkhead. At most
+    <code>maxConcurrent</code> calls to the methods of a bulkhead are admitted
+    at a time; further calls are rejected immediately, and the stub throws
+    <code>OverloadedException</code>. When <code>threads</code> is positive,
+    the calls of the bulkhead run on a separate pool of that many threads, so
+    that they give back the skeleton's shared service thread as soon as the
+    request has been read. A slow method then cannot occupy every service
+    thread and starve the other methods of the interface.
+
+    <p>
+    The limits may also be set, or overridden, with
+    <code>Skeleton.setBulkhead</code>. All annotations naming the same bulkhead
+    should carry the same limits.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Bulkhead {
+    /**
+     * Name of the bulkhead. Defaults to the name of the method.
+     * @return the bulkhead name
+     */
+    String value() default "";
+
+    /**
+     * Maximum number of calls admitted at a time, including calls waiting for a thread of the
+     * bulkhead's pool. Defaults to the number of threads.
+     * @return the concurrency limit
+     */
+    int maxConcurrent() default 0;
+
+    /**
+     * Number of threads of the bulkhead's own pool, or 0 to run calls on the shared service threads.
+     * @return the pool size
+     */
+    int threads() default 0;
+}
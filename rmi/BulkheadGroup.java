@@ -0,0 +1,117 @@
+package rmi;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime state of a bulkhead in a running skeleton: the permits limiting concurrent calls, and the
+ * bulkhead's own thread pool if it has one.
+ */
+class BulkheadGroup {
+    private final String name;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final ThreadPoolExecutor pool;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a bulkhead.
+     * @param name name of the bulkhead, used for thread names
+     * @param maxConcurrent maximum number of calls admitted at a time, or 0 for the number of threads
+     * @param threads size of the bulkhead's own pool, or 0 to run on the caller's thread
+     * @throws IllegalArgumentException if neither limit is positive
+     */
+    BulkheadGroup(final String name, int maxConcurrent, int threads) {
+        if (maxConcurrent <= 0) {
+            maxConcurrent = threads;
+        }
+        if (maxConcurrent <= 0 || threads < 0) {
+            throw new IllegalArgumentException("Bulkhead " + name + " needs a positive limit");
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+
+        if (threads > 0) {
+            ThreadFactory factory = new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "bulkhead-" + name + "-" + count.incrementAndGet());
+                }
+            };
+            // admission is bounded by the permits, so the queue never holds more than maxConcurrent
+            this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), factory);
+            this.pool.allowCoreThreadTimeOut(true);
+        } else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Try to admit a call. Every successful call must be followed by <code>exit</code>.
+     * @return <code>true</code> if the call is admitted
+     */
+    boolean tryEnter() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Release the permit of an admitted call.
+     */
+    void exit() {
+        permits.release();
+    }
+
+    /**
+     * Getter of the bulkhead's own pool.
+     * @return the pool, or null if calls run on the shared service threads
+     */
+    ThreadPoolExecutor getPool() {
+        return pool;
+    }
+
+    /**
+     * Stop the pool, letting admitted calls finish.
+     */
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Getter of the number of calls currently admitted.
+     * @return calls running or waiting for a pool thread
+     */
+    int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * Getter of the number of calls rejected because the bulkhead was full.
+     * @return the number of rejected calls
+     */
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,104 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Call read back from a <code>TrafficCapture</code>.
+
+    <p>
+    The call is kept as recorded: names rather than classes, and the arguments
+    as serialized bytes, so that a recording can be read without the classes of
+    the remote interface. <code>resolve</code> and <code>decodeArguments</code>
+    turn it into a method and arguments which can be called on a stub.
+ */
+public class CapturedCall {
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> type : new Class<?>[] {boolean.class, byte.class, char.class, short.class, int.class,
+                long.class, float.class, double.class}) {
+            PRIMITIVES.put(type.getName(), type);
+        }
+    }
+
+    private final String remoteInterface;
+    private final String methodName;
+    private final String[] parameterTypes;
+    private final long gapMicros;
+    private final byte[] arguments;
+
+    CapturedCall(String remoteInterface, String methodName, String[] parameterTypes, long gapMicros,
+                 byte[] arguments) {
+        this.remoteInterface = remoteInterface;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+        this.gapMicros = gapMicros;
+        this.arguments = arguments;
+    }
+
+    public String getRemoteInterface() {
+        return remoteInterface;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String[] getParameterTypes() {
+        return parameterTypes.clone();
+    }
+
+    /**
+     * Getter of the time between the arrival of the previous recorded call and this one.
+     * @return the gap in microseconds, 0 for the first call of a session
+     */
+    public long getGapMicros() {
+        return gapMicros;
+    }
+
+    /**
+     * Getter of the size of the serialized arguments.
+     * @return the size in bytes
+     */
+    public int getArgumentBytes() {
+        return arguments.length;
+    }
+
+    /**
+     * Find the method of the call in its remote interface.
+     * @param loader class loader of the interface and parameter types
+     * @return the method
+     * @throws ClassNotFoundException if the interface or a parameter type cannot be loaded
+     * @throws NoSuchMethodException if the interface no longer has the method
+     */
+    public Method resolve(ClassLoader loader) throws ClassNotFoundException, NoSuchMethodException {
+        Class<?>[] types = new Class<?>[parameterTypes.length];
+        for (int i = 0; i < types.length; i++) {
+            Class<?> primitive = PRIMITIVES.get(parameterTypes[i]);
+            types[i] = primitive != null ? primitive : Class.forName(parameterTypes[i], false, loader);
+        }
+        return Class.forName(remoteInterface, false, loader).getMethod(methodName, types);
+    }
+
+    /**
+     * Deserialize the arguments of the call. Each call gives new copies.
+     * @return the arguments
+     * @throws IOException if the arguments cannot be read
+     * @throws ClassNotFoundException if the class of an argument cannot be loaded
+     */
+    public Object[] decodeArguments() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(arguments))) {
+            return (Object[]) in.readObject();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return remoteInterface + "." + methodName + "(" + String.join(", ", parameterTypes) + ") +"
+                + gapMicros + "us " + arguments.length + "B";
+    }
+}
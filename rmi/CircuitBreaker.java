@@ -0,0 +1,410 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Per-address circuit breaker for the stub invocation path.
+
+    <p>
+    Every stub that talks to the same skeleton address shares one breaker. The
+    breaker keeps a sliding window over the outcomes of the most recent calls.
+    A call counts against the window when it fails at the transport level (the
+    skeleton could not be reached, or the connection broke before a response
+    arrived) or, if a slow call threshold is set, when it takes longer than the
+    threshold. Exceptions thrown by the remote method itself are successful
+    calls as far as the breaker is concerned.
+
+    <p>
+    Slow calls are not tracked by default: a skeleton with one legitimately slow
+    method next to healthy fast ones would otherwise be cut off from every stub
+    calling its address. Per-method deadlines belong to <code>@Timeout</code>;
+    a slow call threshold only makes sense for an address whose methods all
+    share the same latency expectations.
+
+    <p>
+    The breaker is <em>closed</em> while the window looks healthy. When the
+    failure rate or the slow call rate crosses its threshold, the breaker
+    <em>opens</em> and calls fail immediately with <code>RMIException</code>
+    instead of paying for a connection attempt. After the open period has
+    elapsed, the breaker becomes <em>half-open</em> and lets a small number of
+    probe calls through. If all probes succeed the breaker closes again,
+    otherwise it re-opens for another open period.
+
+    <p>
+    State transitions are reported to any registered <code>Listener</code>.
+    Listeners are called on the thread that caused the transition, after the
+    breaker's lock has been released.
+ */
+public class CircuitBreaker {
+    /** States of a circuit breaker. */
+    public enum State {
+        /** Calls flow normally and outcomes are recorded in the window. */
+        CLOSED,
+        /** Calls are rejected without contacting the skeleton. */
+        OPEN,
+        /** A limited number of probe calls are let through. */
+        HALF_OPEN
+    }
+
+    /** Receives state transitions of circuit breakers. */
+    public interface Listener {
+        /**
+         * Called after a breaker has changed state.
+         * @param breaker the breaker which changed state
+         * @param from previous state
+         * @param to new state
+         */
+        void stateChanged(CircuitBreaker breaker, State from, State to);
+    }
+
+    /** Outcome flags stored in the sliding window. */
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    /**
+     * Breakers of all skeleton addresses this JVM has called.
+     */
+    private static final ConcurrentMap<InetSocketAddress, CircuitBreaker> breakers =
+            new ConcurrentHashMap<InetSocketAddress, CircuitBreaker>();
+    /**
+     * Listeners notified of transitions of every breaker in the registry.
+     */
+    private static final List<Listener> globalListeners = new CopyOnWriteArrayList<Listener>();
+
+    private final InetSocketAddress address;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    // sliding window, guarded by this
+    private final byte[] window;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+
+    // state machine, guarded by this
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    /**
+     * Creates a breaker with default settings: a window of the last 20 calls, evaluated once at
+     * least 10 calls have been recorded, opening at a 50% failure rate. Slow calls are not
+     * tracked. The breaker stays open for 5 seconds and then lets 3 probe calls through.
+     * @param address skeleton address guarded by the breaker
+     */
+    public CircuitBreaker(InetSocketAddress address) {
+        this(address, 20, 10, 0.5, 0, 1.0, 5000, 3);
+    }
+
+    /**
+     * Creates a breaker.
+     * @param address skeleton address guarded by the breaker
+     * @param windowSize number of most recent calls kept in the sliding window
+     * @param minimumCalls number of calls which must be recorded before the rates are evaluated
+     * @param failureRateThreshold fraction of failed calls in the window which opens the breaker
+     * @param slowCallMillis calls taking at least this long are counted as slow, 0 not to count
+     *                       slow calls
+     * @param slowCallRateThreshold fraction of slow calls in the window which opens the breaker
+     * @param openMillis time the breaker stays open before probing the skeleton
+     * @param halfOpenProbes number of successful probes needed to close the breaker
+     * @throws NullPointerException if the address is null
+     * @throws IllegalArgumentException if any of the sizes or durations is not positive, except for
+     *                                  a slow call threshold of 0
+     */
+    public CircuitBreaker(InetSocketAddress address, int windowSize, int minimumCalls,
+                          double failureRateThreshold, long slowCallMillis,
+                          double slowCallRateThreshold, long openMillis, int halfOpenProbes) {
+        if (address == null) {
+            throw new NullPointerException("The address shouldn't be null");
+        }
+        if (windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize
+                || slowCallMillis < 0 || openMillis <= 0 || halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("Circuit breaker sizes and durations must be positive");
+        }
+        this.address = address;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = openMillis * 1000000L;
+        this.halfOpenProbes = halfOpenProbes;
+        this.window = new byte[windowSize];
+    }
+
+    /**
+     * Returns the breaker shared by all stubs calling the given address, creating a breaker with
+     * default settings if there is none yet.
+     * @param address skeleton address
+     * @return the breaker for the address
+     */
+    public static CircuitBreaker forAddress(InetSocketAddress address) {
+        CircuitBreaker breaker = breakers.get(address);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(address);
+            breaker = breakers.putIfAbsent(address, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Installs a breaker with custom settings for its address, replacing any existing one.
+     * Stubs pick up the new breaker on their next call.
+     * @param breaker the breaker to install
+     */
+    public static void install(CircuitBreaker breaker) {
+        breakers.put(breaker.address, breaker);
+    }
+
+    /**
+     * Registers a listener which is notified of the transitions of every breaker.
+     * @param listener the listener
+     */
+    public static void addGlobalListener(Listener listener) {
+        globalListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with <code>addGlobalListener</code>.
+     * @param listener the listener
+     */
+    public static void removeGlobalListener(Listener listener) {
+        globalListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener which is notified of the transitions of this breaker.
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with <code>addListener</code>.
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Getter of the guarded address.
+     * @return the skeleton address
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the current state. An open breaker whose open period has elapsed is reported as open
+     * until the next call turns it half-open.
+     * @return the state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the fraction of failed calls in the current window.
+     * @return failure rate between 0 and 1, or 0 if no call has been recorded
+     */
+    public synchronized double getFailureRate() {
+        return recorded == 0 ? 0.0 : (double) failures / recorded;
+    }
+
+    /**
+     * Returns the fraction of slow calls in the current window.
+     * @return slow call rate between 0 and 1, or 0 if no call has been recorded
+     */
+    public synchronized double getSlowCallRate() {
+        return recorded == 0 ? 0.0 : (double) slowCalls / recorded;
+    }
+
+    /**
+     * Asks for permission to make a call. Must be followed by exactly one call to
+     * <code>onSuccess</code>, <code>onFailure</code> or <code>release</code> with the returned
+     * value.
+     * @return <code>true</code> if the call is a half-open probe
+     * @throws RMIException if the breaker is open, or half-open with all probes in flight
+     */
+    boolean acquire() throws RMIException {
+        State from = null;
+        boolean probe;
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                from = moveTo(State.HALF_OPEN);
+            }
+            if (state == State.OPEN) {
+                throw new RMIException("Circuit breaker for " + address + " is open");
+            }
+            probe = state == State.HALF_OPEN;
+            if (probe) {
+                if (probesInFlight >= halfOpenProbes) {
+                    throw new RMIException("Circuit breaker for " + address + " is probing");
+                }
+                probesInFlight++;
+            }
+        }
+        notifyListeners(from, State.HALF_OPEN);
+        return probe;
+    }
+
+    /**
+     * Records a call which reached the skeleton and received a response.
+     * @param probe value returned by <code>acquire</code>
+     * @param nanos duration of the call
+     */
+    void onSuccess(boolean probe, long nanos) {
+        record(probe, slowness(nanos));
+    }
+
+    /**
+     * Records a call which failed at the transport level.
+     * @param probe value returned by <code>acquire</code>
+     * @param nanos duration of the call
+     */
+    void onFailure(boolean probe, long nanos) {
+        record(probe, (byte) (FAILED | slowness(nanos)));
+    }
+
+    /**
+     * Records a call which ended without telling anything about the skeleton, such as one whose
+     * caller was interrupted. A half-open probe gives its place back to the next call.
+     * @param probe value returned by <code>acquire</code>
+     */
+    void release(boolean probe) {
+        if (!probe) {
+            return;
+        }
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                probesInFlight--;
+            }
+        }
+    }
+
+    /**
+     * Classify a call by its duration.
+     * @param nanos duration of the call
+     * @return SLOW if slow calls are tracked and the call reached the threshold, 0 otherwise
+     */
+    private byte slowness(long nanos) {
+        return slowCallNanos > 0 && nanos >= slowCallNanos ? SLOW : 0;
+    }
+
+    /**
+     * Record the outcome in the window, or in the probe counters, and move the state machine.
+     * @param probe whether the call was a half-open probe
+     * @param outcome outcome flags
+     */
+    private void record(boolean probe, byte outcome) {
+        State from = null;
+        State to;
+        synchronized (this) {
+            if (probe) {
+                if (state == State.HALF_OPEN) {
+                    probesInFlight--;
+                    if (outcome != 0) {
+                        from = moveTo(State.OPEN);
+                    } else if (++probeSuccesses >= halfOpenProbes) {
+                        from = moveTo(State.CLOSED);
+                    }
+                }
+            } else if (state == State.CLOSED) {
+                // calls permitted before the breaker opened are dropped when they complete
+                if (recorded == windowSize) {
+                    forget(window[next]);
+                } else {
+                    recorded++;
+                }
+                window[next] = outcome;
+                next = (next + 1) % windowSize;
+                if ((outcome & FAILED) != 0) {
+                    failures++;
+                }
+                if ((outcome & SLOW) != 0) {
+                    slowCalls++;
+                }
+                if (recorded >= minimumCalls
+                        && ((double) failures / recorded >= failureRateThreshold
+                            || (double) slowCalls / recorded >= slowCallRateThreshold)) {
+                    from = moveTo(State.OPEN);
+                }
+            }
+            to = state;
+        }
+        notifyListeners(from, to);
+    }
+
+    /**
+     * Remove an outcome leaving the window from the counters.
+     * @param outcome outcome flags
+     */
+    private void forget(byte outcome) {
+        if ((outcome & FAILED) != 0) {
+            failures--;
+        }
+        if ((outcome & SLOW) != 0) {
+            slowCalls--;
+        }
+    }
+
+    /**
+     * Change state and reset the bookkeeping of the new state. Caller must hold the lock.
+     * @param to new state
+     * @return previous state
+     */
+    private State moveTo(State to) {
+        State from = state;
+        state = to;
+        if (to == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (to == State.HALF_OPEN) {
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        } else {
+            next = 0;
+            recorded = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+        return from;
+    }
+
+    /**
+     * Notify the listeners if a transition happened.
+     * @param from previous state, or null if there was no transition
+     * @param to new state
+     */
+    private void notifyListeners(State from, State to) {
+        if (from == null) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.stateChanged(this, from, to);
+        }
+        for (Listener listener : globalListeners) {
+            listener.stateChanged(this, from, to);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker " + address + " " + getState();
+    }
+}
@@ -0,0 +1,141 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Client-side statistics of one remote method of a stub at one point in time.
+
+    <p>
+    The phase histograms have one value per attempt which got that far: an
+    attempt that failed to connect contributes to none of them, and a call which
+    was retried contributes several values. The total latency has one value
+    per completed call, successful or not, and includes retries and backoff.
+    Failures are counted per attempt, by cause. All times are in nanoseconds.
+
+    <p>
+    The network, queue and execute histograms split each attempt which ran on
+    the skeleton according to the timestamps carried by the response. The
+    skeleton's own timestamps are only compared with each other, and the
+    stub's with each other, so the clocks of the two hosts need not agree.
+    Network time is everything outside the skeleton, serialization by the stub
+    included.
+ */
+public class ClientMethodSnapshot implements Serializable {
+    private final String method;
+    private final long calls;
+    private final long[] failures;
+    private final HistogramSnapshot connect;
+    private final HistogramSnapshot encode;
+    private final HistogramSnapshot firstByte;
+    private final HistogramSnapshot decode;
+    private final HistogramSnapshot total;
+    private final HistogramSnapshot network;
+    private final HistogramSnapshot queue;
+    private final HistogramSnapshot execute;
+
+    /**
+     * Creates a snapshot.
+     * @param method name of the method with its parameter types
+     * @param calls number of completed calls
+     * @param failures number of failed attempts, indexed by FailureCause ordinal
+     * @param connect connect times
+     * @param encode request encoding and sending times
+     * @param firstByte times from the end of the request to the first response byte
+     * @param decode response decoding times
+     * @param total call latencies
+     * @param network times spent outside the skeleton
+     * @param queue times spent waiting in the skeleton's queues
+     * @param execute times spent in the server object
+     */
+    ClientMethodSnapshot(String method, long calls, long[] failures, HistogramSnapshot connect,
+                         HistogramSnapshot encode, HistogramSnapshot firstByte,
+                         HistogramSnapshot decode, HistogramSnapshot total, HistogramSnapshot network,
+                         HistogramSnapshot queue, HistogramSnapshot execute) {
+        this.method = method;
+        this.calls = calls;
+        this.failures = failures;
+        this.connect = connect;
+        this.encode = encode;
+        this.firstByte = firstByte;
+        this.decode = decode;
+        this.total = total;
+        this.network = network;
+        this.queue = queue;
+        this.execute = execute;
+    }
+
+    /**
+     * Getter of the method name, followed by its parameter types.
+     * @return the method name
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * Get the number of attempts which failed for a given cause.
+     * @param cause the cause
+     * @return the number of failed attempts
+     */
+    public long getFailures(FailureCause cause) {
+        return failures[cause.ordinal()];
+    }
+
+    /**
+     * Get the number of failed attempts, whatever the cause.
+     * @return the number of failed attempts
+     */
+    public long getFailures() {
+        long sum = 0;
+        for (long count : failures) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    public HistogramSnapshot getConnect() {
+        return connect;
+    }
+
+    public HistogramSnapshot getEncode() {
+        return encode;
+    }
+
+    public HistogramSnapshot getFirstByte() {
+        return firstByte;
+    }
+
+    public HistogramSnapshot getDecode() {
+        return decode;
+    }
+
+    public HistogramSnapshot getTotal() {
+        return total;
+    }
+
+    public HistogramSnapshot getNetwork() {
+        return network;
+    }
+
+    public HistogramSnapshot getQueue() {
+        return queue;
+    }
+
+    public HistogramSnapshot getExecute() {
+        return execute;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s calls=%d failures=%d p50=%.3fms p99=%.3fms "
+                + "(connect %.3fms, encode %.3fms, first byte %.3fms, decode %.3fms; "
+                + "network %.3fms, queue %.3fms, execute %.3fms at p50)",
+                method, calls, getFailures(), total.getP50() / 1e6, total.getP99() / 1e6,
+                connect.getP50() / 1e6, encode.getP50() / 1e6, firstByte.getP50() / 1e6,
+                decode.getP50() / 1e6, network.getP50() / 1e6, queue.getP50() / 1e6,
+                execute.getP50() / 1e6);
+    }
+}
@@ -0,0 +1,184 @@
+package rmi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client-side instrumentation of one remote method of a stub. Each attempt to call the method is
+ * broken into the time to connect, to encode and send the request, to receive the first byte of the
+ * response and to decode it. The total latency of the call, including retries, is kept separately.
+ */
+class ClientMethodStats {
+    /**
+     * Statistics that record nothing, used while instrumentation is disabled.
+     */
+    static final ClientMethodStats DISCARD = new ClientMethodStats("", false);
+
+    private final String name;
+    private final boolean enabled;
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram encode = new LatencyHistogram();
+    private final LatencyHistogram firstByte = new LatencyHistogram();
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram network = new LatencyHistogram();
+    private final LatencyHistogram queue = new LatencyHistogram();
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder[] failures = new LongAdder[FailureCause.values().length];
+
+    /**
+     * Creates the statistics of a method.
+     * @param name name under which the method is reported
+     */
+    ClientMethodStats(String name) {
+        this(name, true);
+    }
+
+    /**
+     * Creates the statistics of a method.
+     * @param name name under which the method is reported
+     * @param enabled whether values are recorded at all
+     */
+    private ClientMethodStats(String name, boolean enabled) {
+        this.name = name;
+        this.enabled = enabled;
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record the time taken to establish a connection.
+     * @param nanos connect time
+     */
+    void recordConnect(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        connect.record(nanos);
+    }
+
+    /**
+     * Record the phases of an attempt which received a response.
+     * @param encodeNanos time to encode and send the request
+     * @param firstByteNanos time from the end of the request to the first byte of the response
+     * @param decodeNanos time from the first byte to the decoded response
+     */
+    void recordExchange(long encodeNanos, long firstByteNanos, long decodeNanos) {
+        if (!enabled) {
+            return;
+        }
+        encode.record(encodeNanos);
+        firstByte.record(firstByteNanos);
+        decode.record(decodeNanos);
+    }
+
+    /**
+     * Record where the time of an attempt went, as computed from the phase timestamps of the
+     * response.
+     * @param networkNanos time spent outside the skeleton
+     * @param queueNanos time from the skeleton accepting the connection to taking the call off its
+     *                   last queue
+     * @param executeNanos time spent in the server object
+     */
+    void recordPhases(long networkNanos, long queueNanos, long executeNanos) {
+        if (!enabled) {
+            return;
+        }
+        network.record(networkNanos);
+        queue.record(queueNanos);
+        execute.record(executeNanos);
+    }
+
+    /**
+     * Record a complete call.
+     * @param nanos total latency, including retries
+     */
+    void recordCall(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        calls.increment();
+        total.record(nanos);
+    }
+
+    /**
+     * Record a failed attempt.
+     * @param cause why it failed
+     */
+    void recordFailure(FailureCause cause) {
+        if (!enabled) {
+            return;
+        }
+        failures[cause.ordinal()].increment();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Getter of the latency of a phase of the attempts.
+     * @param phase one of <code>connect</code>, <code>encode</code>, <code>first_byte</code> and
+     *              <code>decode</code>, as measured by the stub, or <code>network</code>,
+     *              <code>queue</code> and <code>execute</code>, as computed from the phase
+     *              timestamps of the response
+     * @return the histogram
+     * @throws IllegalArgumentException if there is no such phase
+     */
+    LatencyHistogram getPhase(String phase) {
+        switch (phase) {
+            case "connect":
+                return connect;
+            case "encode":
+                return encode;
+            case "first_byte":
+                return firstByte;
+            case "decode":
+                return decode;
+            case "network":
+                return network;
+            case "queue":
+                return queue;
+            case "execute":
+                return execute;
+            default:
+                throw new IllegalArgumentException("No phase " + phase);
+        }
+    }
+
+    /**
+     * Getter of the latency of whole calls, including retries.
+     * @return the histogram
+     */
+    LatencyHistogram getTotal() {
+        return total;
+    }
+
+    long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * Getter of the number of failed attempts with a cause.
+     * @param cause the cause
+     * @return the number of failures
+     */
+    long getFailures(FailureCause cause) {
+        return failures[cause.ordinal()].sum();
+    }
+
+    /**
+     * Take a copy of the statistics.
+     * @return the snapshot
+     */
+    ClientMethodSnapshot snapshot() {
+        long[] failureCounts = new long[failures.length];
+        for (int i = 0; i < failures.length; i++) {
+            failureCounts[i] = failures[i].sum();
+        }
+        return new ClientMethodSnapshot(name, calls.sum(), failureCounts, connect.snapshot(),
+                encode.snapshot(), firstByte.snapshot(), decode.snapshot(), total.snapshot(),
+                network.snapshot(), queue.snapshot(), execute.snapshot());
+    }
+}
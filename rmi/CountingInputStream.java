@@ -0,0 +1,80 @@
+package rmi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream counting the bytes read through it. It can also note the arrival time of the first
+ * byte read after a given point. Not thread safe; each connection is read by one thread at a time.
+ */
+class CountingInputStream extends FilterInputStream {
+    private long count;
+    private boolean armed;
+    private long firstByteAt;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            arrived(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            arrived(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    /**
+     * Account for bytes which have been read.
+     * @param n number of bytes
+     */
+    private void arrived(int n) {
+        count += n;
+        if (armed) {
+            firstByteAt = System.nanoTime();
+            armed = false;
+        }
+    }
+
+    /**
+     * Start watching for the next byte to arrive.
+     */
+    void awaitFirstByte() {
+        armed = true;
+        firstByteAt = 0;
+    }
+
+    /**
+     * Getter of the arrival time of the first byte read since <code>awaitFirstByte</code>.
+     * @return the time in <code>System.nanoTime</code> units, or 0 if nothing has arrived
+     */
+    long getFirstByteAt() {
+        return firstByteAt;
+    }
+
+    /**
+     * Getter of the number of bytes read so far.
+     * @return the byte count
+     */
+    long getCount() {
+        return count;
+    }
+}
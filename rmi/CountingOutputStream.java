@@ -0,0 +1,38 @@
+package rmi;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream counting the bytes written through it. Not thread safe; each connection is written
+ * by one thread at a time.
+ */
+class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write the array one byte at a time
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Getter of the number of bytes written so far.
+     * @return the byte count
+     */
+    long getCount() {
+        return count;
+    }
+}
@@ -2,8 +2,11 @@ package rmi;
 
 import rmi.RMIException;
 import rmi.RemoteObject;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -11,6 +14,11 @@ import java.lang.reflect.Proxy;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
 
@@ -33,17 +41,40 @@ import java.net.Socket;
  * @param <T> type of the interface we are going to implement
  */
 class DynamicHandler<T> implements InvocationHandler, Serializable {
+    /** Time allowed for delivering a cancellation. */
+    private static final int CANCEL_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Thread delivering cancellations, so that an interrupted caller returns at once.
+     */
+    private static final ExecutorService canceller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "stub-canceller");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private Class<T> interfaceClass;
     private InetSocketAddress address;
     private InetAddress ipAddress;
     private int port;
+    private transient StubMetrics metrics;
+    private transient StubRuntime runtime;
+    // interceptors are local to the process, a deserialized stub has none
+    private transient InterceptorChain interceptors;
 
     DynamicHandler(InetSocketAddress address, Class<T> interfaceClass) {
+        this(address, interfaceClass, InterceptorChain.EMPTY);
+    }
+
+    DynamicHandler(InetSocketAddress address, Class<T> interfaceClass, InterceptorChain interceptors) {
         this.address = address;
         this.interfaceClass = interfaceClass;
         this.ipAddress = this.address.getAddress();
         this.port = this.address.getPort();
+        this.interceptors = interceptors;
     }
 
     /**
@@ -84,54 +115,419 @@ class DynamicHandler<T> implements InvocationHandler, Serializable {
         } else if (methodName == "toString" && method.equals(toStringMethod)) {
             return this.interfaceClass.getCanonicalName() + ", " + this.address.toString();
         } else {
+            return invokeRemote(method, new RemoteObject(methodName, paraTypes, args, returnType));
+        }
+    }
 
-            ObjectOutputStream out;
-            ObjectInputStream in;
-            Socket socket;
-            Object result;
+    /**
+     * Send the request to the skeleton and interpret the response. Transport failures, and requests
+     * shed by an overloaded skeleton, are retried as permitted by the <code>Retry</code> annotation
+     * of the method, within the deadline set by its <code>Timeout</code> annotation and the global
+     * <code>RetryBudget</code>. The request carries the trace context of the calling thread, and
+     * the call is exported as a client span if the trace is sampled. The interceptors of the stub
+     * are run around the call; a call they reject is counted as a failure and never sent.
+     * @param method the remote method
+     * @param request the packed method invocation
+     * @return the value returned by the remote method
+     * @throws Throwable the exception thrown by the remote method, or RMIException
+     */
+    private Object invokeRemote(Method method, RemoteObject request) throws Throwable {
+        StubRuntime runtime = runtime();
+        ClientMethodStats stats = runtime.isInstrumentationEnabled()
+                ? metrics().forMethod(method) : ClientMethodStats.DISCARD;
+        RemoteCallEvent event = new RemoteCallEvent();
+        event.begin();
 
-            try {
+        // join the trace of the call being served by this thread, or start one
+        TraceContext trace = TraceContext.current();
+        if (trace == null) {
+            trace = Tracing.startTrace();
+        }
+        long spanId = 0;
+        long spanStart = 0;
+        if (trace != null) {
+            if (trace.isSampled()) {
+                spanId = Tracing.newId();
+                spanStart = System.currentTimeMillis();
+                request.setTrace(trace.getTraceId(), spanId, true);
+            } else {
+                request.setTrace(trace.getTraceId(), trace.getSpanId(), false);
+            }
+        }
 
-                // open a single connection per method call
-                socket = new Socket();
-                socket.connect(this.address, this.port);
+        InterceptorChain chain = interceptors == null ? InterceptorChain.EMPTY : interceptors;
+        long callStart = System.nanoTime();
+        Object result = null;
+        Throwable thrown = null;
+        boolean admitted = false;
+        runtime.callStarted();
+        try {
+            if (!chain.isEmpty()) {
+                try {
+                    chain.before(method, request.getArgs());
+                } catch (Exception e) {
+                    // the chain has already shown the rejection to the interceptors before the
+                    // rejecting one
+                    stats.recordFailure(FailureCause.REJECTED);
+                    event.outcome = FailureCause.REJECTED.name();
+                    throw translate(e, method.getExceptionTypes());
+                }
+            }
+            admitted = true;
+            result = invokeRemote(method, request, stats, event);
+            event.outcome = "SUCCESS";
+            return result;
+        } catch (Throwable t) {
+            thrown = t;
+            throw t;
+        } finally {
+            runtime.callEnded();
+            long callNanos = System.nanoTime() - callStart;
+            stats.recordCall(callNanos);
+            if (admitted && !chain.isEmpty()) {
+                chain.after(method, request.getArgs(), result, thrown, callNanos);
+            }
+            if (spanId != 0) {
+                Tracing.export(new Span(trace.getTraceId(), spanId, trace.getSpanId(), Span.Kind.CLIENT,
+                        this.interfaceClass.getName() + "." + MethodStats.nameOf(method),
+                        this.address.toString(), spanStart, callNanos, event.outcome));
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.remoteInterface = this.interfaceClass.getName();
+                event.method = MethodStats.nameOf(method);
+                event.remoteAddress = this.address.toString();
+                event.commit();
+            }
+        }
+    }
 
-                // out.flush() before instantiate in to avoid deadlock
-                out = new ObjectOutputStream(socket.getOutputStream());
-                out.flush();
-                in = new ObjectInputStream(socket.getInputStream());
+    /**
+     * Make the attempts of a remote call, recording their phases and failures.
+     * @param method the remote method
+     * @param request the packed method invocation
+     * @param stats client-side statistics of the method
+     * @param event flight recorder event of the call, receiving sizes, attempts and outcome
+     * @return the value returned by the remote method
+     * @throws Throwable the exception thrown by the remote method, or RMIException
+     */
+    private Object invokeRemote(Method method, RemoteObject request, ClientMethodStats stats,
+                                RemoteCallEvent event) throws Throwable {
+        Class<?> [] exceptionTypes = method.getExceptionTypes();
+        Retry retry = method.getAnnotation(Retry.class);
+        boolean idempotent = method.isAnnotationPresent(Idempotent.class);
+        long timeout = timeoutMillis(method);
+        long deadline = System.nanoTime() + timeout * 1000000L;
 
-                // pack the essential data for method invocation into a RemoteObject object and send it
-                RemoteObject request = new RemoteObject(methodName, paraTypes, args, returnType);
-                out.writeObject(request);
-                out.flush();
+        RetryBudget budget = RetryBudget.global();
+        budget.onRequest();
 
-                // unpack the returning response and extract the statusString and returnValue
-                RemoteObject response = (RemoteObject) in.readObject();
-                String statusString = response.getResponseStatus();
-                Object returnValue = response.getReturnValue();
+        RemoteObject response = null;
+        for (int attempt = 1; response == null; attempt++) {
+            event.attempts = attempt;
+            CircuitBreaker breaker = breaker();
+            boolean probe;
+            try {
+                probe = breaker.acquire();
+            } catch (RMIException e) {
+                stats.recordFailure(FailureCause.CIRCUIT_OPEN);
+                event.outcome = FailureCause.CIRCUIT_OPEN.name();
+                throw e;
+            }
+            long start = System.nanoTime();
 
-                // check the statusString and execute corresponding error handling or value returning
-                if (statusString.equals("failed")) {
-                    throw (Exception) returnValue;
+            // open a single connection per method call
+            Socket socket = new Socket();
+            boolean sent = false;
+            boolean answered = false;
+            boolean recorded = false;
+            // each attempt can be cancelled on its own
+            request.setCallId(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE));
+            try {
+                if (timeout > 0) {
+                    socket.connect(this.address, remainingMillis(deadline));
                 } else {
-                    in.close();
-                    out.close();
-                    socket.close();
+                    socket.connect(this.address, this.port);
+                }
+                stats.recordConnect(System.nanoTime() - start);
+                // from here on the skeleton may receive the request
+                sent = true;
+                response = exchange(socket, request, stats, event, timeout > 0 ? deadline : 0);
+                // an overloaded skeleton is alive, so shed calls do not count against the breaker
+                answered = true;
+                recorded = true;
+                breaker.onSuccess(probe, System.nanoTime() - start);
+                if (response.getResponseStatus().equals("overloaded")) {
+                    // the skeleton shed the request without running it, so it is safe to repeat
+                    sent = false;
+                    throw new OverloadedException("Skeleton at " + this.address + " is overloaded: "
+                            + response.getReturnValue());
+                }
+
+            } catch (Exception e) {
+                response = null;
+                FailureCause cause = causeOf(e, sent);
+                stats.recordFailure(cause);
+                event.outcome = cause.name();
+                // an interrupted caller tells nothing about the skeleton
+                if (!answered && cause != FailureCause.CANCELLED) {
+                    recorded = true;
+                    breaker.onFailure(probe, System.nanoTime() - start);
                 }
-                return returnValue;
+                if (sent && !answered && e instanceof InterruptedIOException) {
+                    // nobody waits for the result any more, free the skeleton from computing it
+                    cancel(request.getCallId());
+                }
+                boolean retryable = retry != null && attempt < retry.maxAttempts() && (!sent || idempotent)
+                        && cause != FailureCause.CANCELLED;
+                if (!retryable || !backoff(retry, attempt, timeout > 0 ? deadline : 0, budget)) {
+                    throw translate(e, exceptionTypes);
+                }
+            } finally {
+                if (!recorded) {
+                    // cancelled, or an Error: give a half-open probe's place back
+                    breaker.release(probe);
+                }
+                socket.close();
+            }
+        }
 
+        // check the statusString and execute corresponding error handling or value returning
+        String statusString = response.getResponseStatus();
+        Object returnValue = response.getReturnValue();
+        if (statusString.equals("failed")) {
+            stats.recordFailure(FailureCause.REMOTE);
+            event.outcome = FailureCause.REMOTE.name();
+            try {
+                throw (Exception) returnValue;
             } catch (Exception e) {
-                // check if the exception is results from the method's exception or not
-                for (Class ex : exceptionTypes) {
-                    if (ex.equals(e.getClass())) {
-                        throw e;
+                throw translate(e, exceptionTypes);
+            }
+        }
+        if (statusString.equals("cancelled")) {
+            // cancelled on the skeleton, by an administrator or a cancellation of an earlier attempt
+            stats.recordFailure(FailureCause.CANCELLED);
+            event.outcome = FailureCause.CANCELLED.name();
+            throw new RMIException("Call cancelled by the skeleton at " + this.address + ": " + returnValue);
+        }
+        return returnValue;
+    }
+
+    /**
+     * Send the request over a connected socket and wait for the response.
+     *
+     * <p>
+     * The request is written before the skeleton's stream header is read, so that the encode time
+     * does not include waiting for a service thread to pick up the connection. That wait is part of
+     * the time to the first byte of the response, along with the time the skeleton takes to run
+     * the call.
+     * @param socket the connected socket
+     * @param request the packed method invocation
+     * @param stats statistics receiving the encode, first byte and decode times
+     * @param event flight recorder event receiving the request and response sizes
+     * @param deadline deadline of the call in <code>System.nanoTime</code> units, or 0 for none
+     * @return the response of the skeleton
+     * @throws Exception if the connection breaks or times out
+     */
+    private RemoteObject exchange(Socket socket, RemoteObject request, ClientMethodStats stats,
+                                  RemoteCallEvent event, long deadline) throws Exception {
+        long start = System.nanoTime();
+
+        // pack the essential data for method invocation into a RemoteObject object and send it
+        CountingOutputStream countingOut = new CountingOutputStream(socket.getOutputStream());
+        ObjectOutputStream out = new ObjectOutputStream(countingOut);
+        request.setClientSentAt(start);
+        out.writeObject(request);
+        out.flush();
+        long sentAt = System.nanoTime();
+        event.requestBytes = countingOut.getCount();
+
+        CountingInputStream counting = new CountingInputStream(new InterruptibleInputStream(socket, deadline));
+        ObjectInputStream in = new ObjectInputStream(counting);
+
+        // unpack the returning response
+        counting.awaitFirstByte();
+        RemoteObject response = (RemoteObject) in.readObject();
+        long end = System.nanoTime();
+        long firstByteAt = counting.getFirstByteAt() == 0 ? end : counting.getFirstByteAt();
+        stats.recordExchange(sentAt - start, firstByteAt - sentAt, end - firstByteAt);
+        if (response.getInvokeStartedAt() != 0 && response.getClientSentAt() == start) {
+            // each difference is taken on a single host's clock
+            long server = response.getServerSentAt() - response.getServerReceivedAt();
+            stats.recordPhases(end - start - server, response.getDequeuedAt() - response.getServerReceivedAt(),
+                    response.getInvokeEndedAt() - response.getInvokeStartedAt());
+        }
+        event.responseBytes = counting.getCount();
+        return response;
+    }
+
+    /**
+     * Ask the skeleton, in the background, to stop running a call whose result will not be read.
+     * Delivery is best effort: a cancellation which cannot be delivered is dropped.
+     * @param callId identifier of the abandoned call
+     */
+    private void cancel(final long callId) {
+        final InetSocketAddress address = this.address;
+        canceller.execute(new Runnable() {
+            @Override
+            public void run() {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(address, CANCEL_TIMEOUT_MILLIS);
+                    socket.setSoTimeout(CANCEL_TIMEOUT_MILLIS);
+                    ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                    out.writeObject(new RemoteObject(callId));
+                    out.flush();
+                    new ObjectInputStream(socket.getInputStream()).readObject();
+                } catch (Exception e) {
+                    // the call runs to completion, as it would have without cancellation
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // nothing left to release
                     }
                 }
-                // if not, then we confirm that there's something wrong with the remote method
-                // call procedure, we throw RMIException
-                throw new RMIException(e);
             }
+        });
+    }
+
+    /**
+     * Classify the failure of an attempt.
+     * @param e the exception which ended the attempt
+     * @param sent whether the connection had been established
+     * @return the cause
+     */
+    private static FailureCause causeOf(Exception e, boolean sent) {
+        if (e instanceof OverloadedException) {
+            return FailureCause.OVERLOADED;
+        } else if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return FailureCause.CANCELLED;
+        } else if (e instanceof SocketTimeoutException) {
+            return FailureCause.TIMEOUT;
+        } else if (!sent) {
+            return FailureCause.CONNECT;
+        } else if (e instanceof IOException && !(e instanceof ObjectStreamException)) {
+            return FailureCause.IO;
+        }
+        return FailureCause.PROTOCOL;
+    }
+
+    /**
+     * Sleep before the next attempt, using exponential backoff with full jitter.
+     * @param retry retry settings of the method
+     * @param attempt number of the attempt which just failed
+     * @param deadline deadline of the call in <code>System.nanoTime</code> units, or 0 if none
+     * @param budget the retry budget
+     * @return <code>true</code> if another attempt should be made
+     * @throws RMIException if the calling thread is interrupted while sleeping
+     */
+    private boolean backoff(Retry retry, int attempt, long deadline, RetryBudget budget) throws RMIException {
+        long ceiling = retry.initialBackoffMillis() << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > retry.maxBackoffMillis()) {
+            ceiling = retry.maxBackoffMillis();
+        }
+        long sleep = ThreadLocalRandom.current().nextLong(ceiling + 1);
+
+        // no point in sleeping if the next attempt could not finish in time
+        if (deadline != 0 && System.nanoTime() + sleep * 1000000L >= deadline) {
+            return false;
+        }
+        if (!budget.tryRetry()) {
+            return false;
+        }
+        try {
+            Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted while waiting to retry", e);
+        }
+        return true;
+    }
+
+    /**
+     * Get the timeout of calls to a method from its Timeout annotation or that of its interface, or
+     * else the default timeout of the address, which can be set through JMX.
+     * @param method the remote method
+     * @return timeout in milliseconds, or 0 if calls have no deadline
+     */
+    private long timeoutMillis(Method method) {
+        Timeout timeout = method.getAnnotation(Timeout.class);
+        if (timeout == null) {
+            timeout = this.interfaceClass.getAnnotation(Timeout.class);
+        }
+        return timeout == null ? runtime().getDefaultTimeoutMillis() : timeout.value();
+    }
+
+    /**
+     * Get the time left until the deadline, for use as a socket timeout.
+     * @param deadline deadline in <code>System.nanoTime</code> units
+     * @return remaining milliseconds, at least 1
+     * @throws SocketTimeoutException if the deadline has passed
+     */
+    private int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = (deadline - System.nanoTime()) / 1000000L;
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Call deadline exceeded");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Check if the exception results from the method's exception or not. If it does, it is thrown
+     * to the caller as it is, and so is an OverloadedException, which every remote method may
+     * throw. If not, then something went wrong with the remote method call procedure and it is
+     * wrapped in an RMIException.
+     * @param e the exception
+     * @param exceptionTypes exceptions declared by the remote method
+     * @return the exception to throw to the caller
+     */
+    private Exception translate(Exception e, Class<?> [] exceptionTypes) {
+        if (e instanceof OverloadedException) {
+            return e;
+        }
+        for (Class ex : exceptionTypes) {
+            if (ex.equals(e.getClass())) {
+                return e;
+            }
+        }
+        return new RMIException(e);
+    }
+
+    /**
+     * Getter of the circuit breaker guarding the skeleton address. The breaker is looked up on
+     * every call so that a breaker installed after the stub was created takes effect.
+     * @return the circuit breaker
+     */
+    private CircuitBreaker breaker() {
+        return CircuitBreaker.forAddress(this.address);
+    }
+
+    /**
+     * Getter of the client-side metrics shared by all stubs equal to this one. They are looked up
+     * once per handler, and again after deserialization.
+     * @return the metrics
+     */
+    StubMetrics metrics() {
+        StubMetrics metrics = this.metrics;
+        if (metrics == null) {
+            metrics = StubMetrics.forStub(this.interfaceClass, this.address);
+            this.metrics = metrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * Getter of the runtime settings shared by all stubs calling the same address, looked up like
+     * the metrics.
+     * @return the runtime
+     */
+    private StubRuntime runtime() {
+        StubRuntime runtime = this.runtime;
+        if (runtime == null || runtime.isReleased()) {
+            runtime = StubRuntime.forAddress(this.address);
+            this.runtime = runtime;
         }
+        return runtime;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package rmi;
+
+/** Causes of failed remote calls, as counted by the client-side metrics of
+    stubs.
+ */
+public enum FailureCause {
+    /** The circuit breaker of the skeleton address was open. */
+    CIRCUIT_OPEN,
+    /** The connection to the skeleton could not be established. */
+    CONNECT,
+    /** The deadline of the call passed while connecting or waiting. */
+    TIMEOUT,
+    /** The connection broke while the request or response was in transit. */
+    IO,
+    /** The response could not be decoded. */
+    PROTOCOL,
+    /** The skeleton shed the call or a bulkhead rejected it. */
+    OVERLOADED,
+    /** The remote method threw an exception. */
+    REMOTE,
+    /** The calling thread was interrupted while waiting for the response. */
+    CANCELLED,
+    /** An interceptor of the stub rejected the call before it was sent. */
+    REJECTED
+}
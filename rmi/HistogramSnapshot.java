@@ -0,0 +1,138 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Copy of a <code>LatencyHistogram</code> at one point in time.
+
+    <p>
+    Percentiles are reported as the midpoint of the bucket containing them, so
+    they carry the histogram's relative error of about 3%. Snapshots are
+    serializable, so that they can be returned by remote methods.
+ */
+public class HistogramSnapshot implements Serializable {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    /**
+     * Creates a snapshot.
+     * @param counts count of each bucket, owned by the snapshot from now on
+     * @param count total of the counts
+     * @param sum sum of the recorded values
+     * @param max largest recorded value
+     */
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * Getter of the number of recorded values.
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Getter of the sum of the recorded values.
+     * @return the sum
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Getter of the largest recorded value.
+     * @return the maximum, or 0 if nothing has been recorded
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Getter of the mean of the recorded values.
+     * @return the mean, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Get the value below which the given percentage of the recorded values fall.
+     * @param percentile percentage between 0 and 100
+     * @return the value at the percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long low = LatencyHistogram.lowerBoundOf(i);
+                long high = Math.min(LatencyHistogram.upperBoundOf(i), max);
+                return low + (high - low) / 2;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Getter of the median.
+     * @return the 50th percentile
+     */
+    public long getP50() {
+        return getValueAtPercentile(50.0);
+    }
+
+    /**
+     * Getter of the 99th percentile.
+     * @return the 99th percentile
+     */
+    public long getP99() {
+        return getValueAtPercentile(99.0);
+    }
+
+    /**
+     * Getter of the 99.9th percentile.
+     * @return the 99.9th percentile
+     */
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * Getter of the number of buckets, for exporting the histogram.
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    /**
+     * Getter of the count of a bucket.
+     * @param bucket bucket index
+     * @return number of recorded values in the bucket
+     */
+    public long getCountAt(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * Getter of the largest value counted in a bucket.
+     * @param bucket bucket index
+     * @return upper bound of the bucket, inclusive
+     */
+    public long getUpperBoundAt(int bucket) {
+        return LatencyHistogram.upperBoundOf(bucket);
+    }
+}
@@ -0,0 +1,24 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a remote method as idempotent.
+
+    <p>
+    Calling an idempotent method several times has the same effect as calling
+    it once. Stubs only repeat a call whose request may already have reached
+    the skeleton when the method is marked with this annotation. Calls to other
+    methods are retried only when the connection to the skeleton could not be
+    established, in which case the request was certainly never sent.
+
+    @see Retry
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+}
@@ -0,0 +1,82 @@
+package rmi;
+
+/**
+ * A call a skeleton has read and not yet answered, registered so that it can be listed and
+ * cancelled. A call is queued until a thread starts running it; cancelling a queued call makes it
+ * skip the server object, cancelling a running call interrupts its thread.
+ */
+class InFlightCall {
+    private final long id;
+    private final String method;
+    private final String peer;
+    private final long startMillis;
+    private final long startNanos;
+
+    // guarded by this
+    private Thread thread;
+    private boolean cancelled;
+
+    /**
+     * Creates a queued call.
+     * @param id identifier of the call
+     * @param method name of the remote method
+     * @param peer address of the caller
+     */
+    InFlightCall(long id, String method, String peer) {
+        this.id = id;
+        this.method = method;
+        this.peer = peer;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Mark the call as running on the current thread.
+     * @return <code>false</code> if the call has been cancelled and must not run
+     */
+    synchronized boolean begin() {
+        if (cancelled) {
+            return false;
+        }
+        thread = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Mark the call as finished, and clear an interrupt of the current thread made by a
+     * cancellation which came too late to be noticed.
+     */
+    void end() {
+        synchronized (this) {
+            thread = null;
+        }
+        Thread.interrupted();
+    }
+
+    /**
+     * Cancel the call, interrupting its thread if it is running.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Take a snapshot of the call.
+     * @return the snapshot
+     */
+    synchronized InFlightCallSnapshot snapshot() {
+        return new InFlightCallSnapshot(id, method, peer, startMillis, (System.nanoTime() - startNanos) / 1000000L,
+                thread == null ? null : thread.getName(), cancelled);
+    }
+}
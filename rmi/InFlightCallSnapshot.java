@@ -0,0 +1,79 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** State of a call in progress in a skeleton, as returned by
+    <code>Skeleton.getInFlightCalls</code>.
+ */
+public class InFlightCallSnapshot implements Serializable {
+    private final long id;
+    private final String method;
+    private final String peer;
+    private final long startMillis;
+    private final long elapsedMillis;
+    private final String thread;
+    private final boolean cancelled;
+
+    /**
+     * Creates a snapshot.
+     * @param id identifier of the call, as given to <code>Skeleton.cancel</code>
+     * @param method name of the remote method
+     * @param peer address of the caller
+     * @param startMillis time the request was read
+     * @param elapsedMillis time since the request was read
+     * @param thread name of the thread running the call, null while it is queued
+     * @param cancelled whether the call has been cancelled
+     */
+    InFlightCallSnapshot(long id, String method, String peer, long startMillis, long elapsedMillis,
+                         String thread, boolean cancelled) {
+        this.id = id;
+        this.method = method;
+        this.peer = peer;
+        this.startMillis = startMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.thread = thread;
+        this.cancelled = cancelled;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    /**
+     * Getter of whether a thread is running the call.
+     * @return <code>false</code> while the call waits in a queue
+     */
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + id + " " + method + " from " + peer + " for " + elapsedMillis + " ms "
+                + (thread == null ? "queued" : "on " + thread) + (cancelled ? " (cancelled)" : "");
+    }
+}
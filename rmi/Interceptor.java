@@ -0,0 +1,51 @@
+package rmi;
+
+import java.lang.reflect.Method;
+
+/** Observer of the remote calls made by a stub or served by a skeleton.
+
+    <p>
+    Interceptors are installed in an ordered chain when the stub or skeleton is
+    created; see <code>Stub.create(Class, InetSocketAddress, Interceptor...)</code>
+    and <code>Skeleton(Class, Object, InetSocketAddress, Interceptor...)</code>.
+    For every call, <code>before</code> is called on each interceptor in order,
+    then the call is made, then <code>after</code> is called in reverse order -
+    so that an interceptor sees the calls of the interceptors following it
+    nested within its own.
+
+    <p>
+    <code>before</code> may reject the call by throwing an exception. The call
+    is then not made, and the <code>after</code> methods of the interceptors
+    preceding the rejecting one are called with that exception. On a stub the
+    exception is thrown to the caller, wrapped in <code>RMIException</code>
+    unless the method declares it, and the call is counted as a
+    <code>REJECTED</code> failure; on a skeleton it is returned to the stub as
+    if thrown by the server object. <code>after</code> must not throw; any
+    exception it throws is ignored.
+
+    <p>
+    Interceptors are called on the thread making or serving the call, and may
+    be called by several threads at once. The chain does not allocate, so an
+    interceptor that does not allocate either adds nothing to the garbage
+    produced by a call.
+ */
+public interface Interceptor {
+    /**
+     * Called before the call is made.
+     * @param method the method of the remote interface
+     * @param args arguments of the call, null if the method has none
+     * @throws Exception to reject the call
+     */
+    void before(Method method, Object[] args) throws Exception;
+
+    /**
+     * Called after the call completed or failed.
+     * @param method the method of the remote interface
+     * @param args arguments of the call, null if the method has none
+     * @param result value returned by the call, null if it returned nothing or failed
+     * @param thrown exception thrown by the call, null if it succeeded
+     * @param nanos duration of the call; on a stub the whole remote call, including retries, on a
+     *              skeleton the call to the server object
+     */
+    void after(Method method, Object[] args, Object result, Throwable thrown, long nanos);
+}
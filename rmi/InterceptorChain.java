@@ -0,0 +1,87 @@
+package rmi;
+
+import java.lang.reflect.Method;
+
+/**
+ * Interceptors of a stub or skeleton, fixed when the chain is built. Callers check
+ * <code>isEmpty</code> first, so that a stub or skeleton without interceptors does no work at all.
+ */
+final class InterceptorChain {
+    static final InterceptorChain EMPTY = new InterceptorChain(new Interceptor[0]);
+
+    private final Interceptor[] interceptors;
+
+    private InterceptorChain(Interceptor[] interceptors) {
+        this.interceptors = interceptors;
+    }
+
+    /**
+     * Build a chain.
+     * @param interceptors the interceptors, in the order of their <code>before</code> methods
+     * @return the chain, sharing the empty chain if there are no interceptors
+     * @throws NullPointerException if the array or any interceptor is null
+     */
+    static InterceptorChain of(Interceptor[] interceptors) {
+        if (interceptors == null) {
+            throw new NullPointerException("The interceptors shouldn't be null");
+        }
+        if (interceptors.length == 0) {
+            return EMPTY;
+        }
+        Interceptor[] copy = interceptors.clone();
+        for (Interceptor interceptor : copy) {
+            if (interceptor == null) {
+                throw new NullPointerException("The interceptors shouldn't be null");
+            }
+        }
+        return new InterceptorChain(copy);
+    }
+
+    boolean isEmpty() {
+        return interceptors.length == 0;
+    }
+
+    /**
+     * Run the <code>before</code> methods. If one of them throws, the <code>after</code> methods of
+     * the interceptors before it are run with the exception, which is then rethrown.
+     * @param method the method of the remote interface
+     * @param args arguments of the call
+     * @throws Exception the exception rejecting the call
+     */
+    void before(Method method, Object[] args) throws Exception {
+        for (int i = 0; i < interceptors.length; i++) {
+            try {
+                interceptors[i].before(method, args);
+            } catch (Exception e) {
+                after(i, method, args, null, e, 0);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Run the <code>after</code> methods of all interceptors, in reverse order.
+     * @param method the method of the remote interface
+     * @param args arguments of the call
+     * @param result value returned by the call
+     * @param thrown exception thrown by the call
+     * @param nanos duration of the call
+     */
+    void after(Method method, Object[] args, Object result, Throwable thrown, long nanos) {
+        after(interceptors.length, method, args, result, thrown, nanos);
+    }
+
+    /**
+     * Run the <code>after</code> methods of the first interceptors, in reverse order.
+     * @param count number of interceptors whose <code>before</code> method completed
+     */
+    private void after(int count, Method method, Object[] args, Object result, Throwable thrown, long nanos) {
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                interceptors[i].after(method, args, result, thrown, nanos);
+            } catch (RuntimeException e) {
+                // an observer must not change the outcome of the call
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package rmi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Input stream of a socket whose reads give up when the reading thread is interrupted or a deadline
+ * passes. Socket reads cannot be interrupted, so each read waits for at most a short slice and is
+ * repeated until data arrives; a slice which times out has consumed nothing, so the streams above
+ * never notice. Setting the socket timeout is a system call, so it is only made when the length of
+ * the slice changes, which happens once per stream until the deadline is less than a slice away.
+ */
+class InterruptibleInputStream extends FilterInputStream {
+    /** Longest time a read waits before checking for interruption. */
+    private static final long SLICE_MILLIS = 100;
+
+    private final Socket socket;
+    private final long deadline;
+    /** Socket timeout set last, 0 before the first read. */
+    private int timeout;
+
+    /**
+     * Creates the stream.
+     * @param socket the connected socket
+     * @param deadline deadline of the reads in <code>System.nanoTime</code> units, or 0 for none
+     * @throws IOException if the socket input stream cannot be obtained
+     */
+    InterruptibleInputStream(Socket socket, long deadline) throws IOException {
+        super(socket.getInputStream());
+        this.socket = socket;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            startSlice();
+            try {
+                return in.read();
+            } catch (SocketTimeoutException e) {
+                // the slice ended, check again
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            startSlice();
+            try {
+                return in.read(b, off, len);
+            } catch (SocketTimeoutException e) {
+                // the slice ended, check again
+            }
+        }
+    }
+
+    /**
+     * Check for interruption and the deadline, and set the socket timeout for the next slice.
+     * @throws InterruptedIOException if the thread has been interrupted; its interrupt status is kept
+     * @throws SocketTimeoutException if the deadline has passed
+     * @throws IOException if the socket timeout cannot be set
+     */
+    private void startSlice() throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Call interrupted");
+        }
+        long slice = SLICE_MILLIS;
+        if (deadline != 0) {
+            long remaining = (deadline - System.nanoTime()) / 1000000L;
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Call deadline exceeded");
+            }
+            slice = Math.min(slice, remaining);
+        }
+        if (slice != timeout) {
+            socket.setSoTimeout((int) slice);
+            timeout = (int) slice;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package rmi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Service threads of a skeleton, scheduling work from three queues.
+ *
+ * <p>
+ * The <em>intake</em> queue holds accepted connections whose request has not been read yet. Once a
+ * thread has read a request it dispatches the call to the <em>high</em> or <em>normal</em> lane,
+ * according to the priority of the method. A thread looking for work takes, in order:
+ * <ol>
+ * <li>a normal call which has waited longer than the aging limit, so that normal calls cannot be
+ *     starved by a steady stream of high priority calls,</li>
+ * <li>a high priority call,</li>
+ * <li>a connection from the intake queue, since reading it may reveal another high priority call,</li>
+ * <li>a normal call.</li>
+ * </ol>
+ * At most <code>threads - reserved</code> threads run normal calls at a time. The reserved threads
+ * therefore remain available for intake and high priority calls however long the normal calls take.
+ *
+ * <p>
+ * Dispatching does not always go through a queue: when nothing with a higher precedence is waiting,
+ * the thread that read the request runs the call itself.
+ *
+ * <p>
+ * Threads are started on demand and exit after being idle for a minute.
+ */
+class LaneScheduler {
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /** Work waiting in one of the queues. */
+    private static class Task {
+        final Runnable runnable;
+        final long enqueuedAt;
+
+        Task(Runnable runnable, long enqueuedAt) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final String threadPrefix;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    // guarded by lock
+    private final ArrayDeque<Task> intake = new ArrayDeque<Task>();
+    private final ArrayDeque<Task> high = new ArrayDeque<Task>();
+    private final ArrayDeque<Task> normal = new ArrayDeque<Task>();
+    private int threads;
+    private int reserved;
+    private long agingNanos;
+    private int live;
+    private int idle;
+    private int wakeups;
+    private int normalRunning;
+    private int created;
+    private boolean shutdown;
+
+    /**
+     * Creates a scheduler. No thread is started until work arrives.
+     * @param threadPrefix prefix of the names of the service threads
+     * @param threads maximum number of service threads
+     * @param reserved number of threads which never run normal calls
+     * @param agingMillis time after which a waiting normal call goes before high priority calls
+     */
+    LaneScheduler(String threadPrefix, int threads, int reserved, long agingMillis) {
+        this.threadPrefix = threadPrefix;
+        configure(threads, reserved, agingMillis);
+    }
+
+    /**
+     * Change the thread limits and the aging limit. Surplus threads exit when they finish their
+     * current work.
+     * @param threads maximum number of service threads
+     * @param reserved number of threads which never run normal calls
+     * @param agingMillis time after which a waiting normal call goes before high priority calls
+     * @throws IllegalArgumentException if threads or agingMillis is not positive, or reserved is
+     *                                  negative or not less than threads
+     */
+    void configure(int threads, int reserved, long agingMillis) {
+        if (threads <= 0 || reserved < 0 || reserved >= threads || agingMillis <= 0) {
+            throw new IllegalArgumentException("Invalid service thread limits");
+        }
+        lock.lock();
+        try {
+            this.threads = threads;
+            this.reserved = reserved;
+            this.agingNanos = agingMillis * 1000000L;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue an accepted connection.
+     * @param task task reading the request
+     * @param acceptedAt time the connection was accepted
+     * @throws RejectedExecutionException if the scheduler has been shut down
+     */
+    void execute(Runnable task, long acceptedAt) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            intake.add(new Task(task, acceptedAt));
+            wakeOrStart();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Dispatch a call read by the current service thread. The call runs on the current thread if
+     * nothing with a higher precedence is waiting, otherwise it is queued in its lane.
+     * @param level lane of the call
+     * @param task the call
+     */
+    void dispatch(Priority.Level level, Runnable task) {
+        boolean normalLane = level != Priority.Level.HIGH;
+        lock.lock();
+        try {
+            boolean inline = normalLane
+                    ? high.isEmpty() && normal.isEmpty() && normalRunning < normalLimit()
+                    : high.isEmpty();
+            if (!inline) {
+                (normalLane ? normal : high).add(new Task(task, System.nanoTime()));
+                wakeOrStart();
+                return;
+            }
+            if (normalLane) {
+                normalRunning++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        run(task, normalLane);
+    }
+
+    /**
+     * Stop accepting connections. Queued work is still run, and threads exit once the queues are
+     * empty.
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter of the number of connections and calls waiting for a thread.
+     * @return the total length of the queues
+     */
+    int getQueueDepth() {
+        lock.lock();
+        try {
+            return intake.size() + high.size() + normal.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter of the number of threads currently working.
+     * @return the number of busy service threads
+     */
+    int getActiveThreads() {
+        lock.lock();
+        try {
+            return live - idle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter of the number of live service threads, busy or idle.
+     * @return the number of threads
+     */
+    int getLiveThreads() {
+        lock.lock();
+        try {
+            return live;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Threads allowed to run normal calls. Caller must hold the lock.
+     * @return the limit
+     */
+    private int normalLimit() {
+        return threads - reserved;
+    }
+
+    /**
+     * Hand new work to an idle thread, or start a thread if none is idle. Caller must hold the lock.
+     */
+    private void wakeOrStart() {
+        if (idle > wakeups) {
+            // count the signal, so that further work does not rely on the same idle thread
+            wakeups++;
+            available.signal();
+        } else if (live < threads) {
+            live++;
+            Thread thread = new Thread(new Worker(), threadPrefix + (++created));
+            thread.start();
+        }
+    }
+
+    /**
+     * Run a task, keeping count of running normal calls.
+     * @param task the task
+     * @param normalLane whether the task is a normal call counted in normalRunning
+     */
+    private void run(Runnable task, boolean normalLane) {
+        try {
+            task.run();
+        } finally {
+            if (normalLane) {
+                lock.lock();
+                try {
+                    normalRunning--;
+                    if (!normal.isEmpty()) {
+                        wakeOrStart();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /** Loop of a service thread. */
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            Task task;
+            boolean normalLane = false;
+            while (true) {
+                lock.lock();
+                try {
+                    long idleSince = System.nanoTime();
+                    while (true) {
+                        if (live > threads) {
+                            task = null;
+                            break;
+                        }
+                        long now = System.nanoTime();
+                        boolean normalReady = !normal.isEmpty() && normalRunning < normalLimit();
+                        normalLane = false;
+                        if (normalReady && now - normal.peek().enqueuedAt >= agingNanos) {
+                            task = normal.poll();
+                            normalLane = true;
+                        } else if (!high.isEmpty()) {
+                            task = high.poll();
+                        } else if (!intake.isEmpty()) {
+                            task = intake.poll();
+                        } else if (normalReady) {
+                            task = normal.poll();
+                            normalLane = true;
+                        } else if (shutdown && normal.isEmpty()) {
+                            task = null;
+                            break;
+                        } else if (now - idleSince >= IDLE_NANOS) {
+                            task = null;
+                            break;
+                        } else {
+                            idle++;
+                            try {
+                                available.awaitNanos(IDLE_NANOS - (now - idleSince));
+                            } catch (InterruptedException e) {
+                                // service threads are only stopped through shutdown
+                            } finally {
+                                idle--;
+                                if (wakeups > 0) {
+                                    wakeups--;
+                                }
+                            }
+                            continue;
+                        }
+                        if (normalLane) {
+                            normalRunning++;
+                        }
+                        break;
+                    }
+                    if (task == null) {
+                        live--;
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                boolean completed = false;
+                try {
+                    LaneScheduler.this.run(task.runnable, normalLane);
+                    completed = true;
+                } finally {
+                    if (!completed) {
+                        // the thread dies with the exception, let another one take over its work
+                        lock.lock();
+                        try {
+                            live--;
+                            if (!intake.isEmpty() || !high.isEmpty() || !normal.isEmpty()) {
+                                wakeOrStart();
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
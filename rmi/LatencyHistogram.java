@@ -0,0 +1,123 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Log-bucketed latency histogram in the style of HdrHistogram.
+
+    <p>
+    Values are sorted into buckets whose width grows with the value: each power
+    of two is divided into 32 equal sub-buckets, so any recorded value is known
+    to within about 3% over the whole range of a <code>long</code>, in a fixed
+    array of counters. Recording is lock-free and does not allocate, so it can
+    be done on every call. Reading the histogram takes a
+    <code>HistogramSnapshot</code>; the snapshot of a histogram being recorded
+    concurrently is not atomic, but every value is either in it or not.
+ */
+public class LatencyHistogram {
+    /** log2 of the number of sub-buckets per power of two. */
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Number of buckets needed to cover every non-negative long. */
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     * @param value the value, usually a duration in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Getter of the sum of the recorded values.
+     * @return the sum
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Count the recorded values up to each of the given buckets, without copying the histogram.
+     * @param limits bucket indexes in increasing order
+     * @param cumulative receives, for each limit, the number of values in that bucket and below
+     * @return the total number of recorded values
+     */
+    long countUpTo(int[] limits, long[] cumulative) {
+        long running = 0;
+        int next = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            running += counts.get(i);
+            while (next < limits.length && limits[next] == i) {
+                cumulative[next++] = running;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Take a copy of the histogram.
+     * @return the snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new HistogramSnapshot(copy, total, sum.sum(), max.get());
+    }
+
+    /**
+     * Find the bucket of a value. Values below SUB_BUCKETS have a bucket each; above that, the
+     * bucket is given by the position of the highest set bit and the SUB_BUCKET_BITS bits below it.
+     * @param value non-negative value
+     * @return bucket index
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the smallest value falling into a bucket.
+     * @param bucket bucket index
+     * @return lower bound of the bucket
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << shift;
+    }
+
+    /**
+     * Get the largest value falling into a bucket.
+     * @param bucket bucket index
+     * @return upper bound of the bucket, inclusive
+     */
+    static long upperBoundOf(int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,72 @@
+package rmi;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registration of the MBeans of skeletons and stubs with the platform MBean server. Management is
+ * optional, so failures to register are ignored rather than failing the skeleton or the call.
+ *
+ * <p>
+ * An MBean never replaces another registered under the same name, such as that of a skeleton at
+ * the same address in another class loader: it is registered with an additional
+ * <code>instance</code> key instead. Only the MBeans registered here are ever unregistered.
+ */
+class Management {
+    /** Domain of all the MBeans of this package. */
+    static final String DOMAIN = "rmi";
+
+    /** MBeans registered through this class, by the name they were registered under. */
+    private static final ConcurrentMap<ObjectName, Object> registered =
+            new ConcurrentHashMap<ObjectName, Object>();
+
+    private Management() {
+    }
+
+    /**
+     * Register an MBean, under the given properties if the name is free, and with the first free
+     * <code>instance</code> key from 2 otherwise.
+     * @param properties key properties of the object name, such as <code>type=Skeleton</code>
+     * @param mbean the MBean
+     * @return the name it was registered under, or null if it could not be registered
+     */
+    static ObjectName register(String properties, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (int instance = 1; ; instance++) {
+                ObjectName name = new ObjectName(DOMAIN + ":" + properties
+                        + (instance == 1 ? "" : ",instance=" + instance));
+                try {
+                    server.registerMBean(mbean, name);
+                } catch (InstanceAlreadyExistsException e) {
+                    continue;
+                }
+                registered.put(name, mbean);
+                return name;
+            }
+        } catch (JMException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Unregister an MBean, if it is still the one registered under the name.
+     * @param name name returned by <code>register</code>, may be null
+     * @param mbean the MBean passed to <code>register</code>
+     */
+    static void unregister(ObjectName name, Object mbean) {
+        if (name == null || !registered.remove(name, mbean)) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // already gone
+        }
+    }
+}
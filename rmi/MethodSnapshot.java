@@ -0,0 +1,144 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Statistics of one remote method of a skeleton at one point in time.
+
+    <p>
+    Latencies are measured around the call to the server object, in
+    nanoseconds. Byte counts include the object stream headers of the request
+    and response. Snapshots are serializable, so that they can be returned by
+    remote methods.
+
+    <p>
+    CPU time and allocations are only measured for a sample of the calls, see
+    <code>Skeleton.setCostSampling</code>; the per-call costs are averages
+    over that sample.
+ */
+public class MethodSnapshot implements Serializable {
+    private final String method;
+    private final long calls;
+    private final long errors;
+    private final long rejected;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final HistogramSnapshot latency;
+    private final long sampledCalls;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    /**
+     * Creates a snapshot.
+     * @param method name of the method with its parameter types
+     * @param calls number of calls run
+     * @param errors number of calls which ended with an exception
+     * @param rejected number of calls shed or rejected by a bulkhead
+     * @param bytesIn bytes received in requests
+     * @param bytesOut bytes sent in responses
+     * @param latency latency of the calls run
+     * @param sampledCalls number of calls whose cost was measured
+     * @param cpuNanos CPU time used by the sampled calls
+     * @param allocatedBytes bytes allocated by the sampled calls
+     */
+    MethodSnapshot(String method, long calls, long errors, long rejected, long bytesIn, long bytesOut,
+                   HistogramSnapshot latency, long sampledCalls, long cpuNanos, long allocatedBytes) {
+        this.method = method;
+        this.calls = calls;
+        this.errors = errors;
+        this.rejected = rejected;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.latency = latency;
+        this.sampledCalls = sampledCalls;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Getter of the method name, followed by its parameter types.
+     * @return the method name
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Getter of the fraction of calls run which ended with an exception.
+     * @return error rate between 0 and 1, or 0 if there was no call
+     */
+    public double getErrorRate() {
+        return calls == 0 ? 0.0 : (double) errors / calls;
+    }
+
+    /**
+     * Getter of the latency histogram.
+     * @return the histogram snapshot, in nanoseconds
+     */
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+
+    public long getSampledCalls() {
+        return sampledCalls;
+    }
+
+    /**
+     * Getter of the CPU time used by the sampled calls.
+     * @return the total CPU time in nanoseconds
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Getter of the average CPU time of a call.
+     * @return nanoseconds of CPU per sampled call, or 0 if no call was sampled
+     */
+    public double getCpuNanosPerCall() {
+        return sampledCalls == 0 ? 0.0 : (double) cpuNanos / sampledCalls;
+    }
+
+    /**
+     * Getter of the average allocation of a call.
+     * @return bytes allocated per sampled call, or 0 if no call was sampled
+     */
+    public double getAllocatedBytesPerCall() {
+        return sampledCalls == 0 ? 0.0 : (double) allocatedBytes / sampledCalls;
+    }
+
+    @Override
+    public String toString() {
+        String summary = String.format("%s calls=%d errors=%d rejected=%d p50=%.3fms p99=%.3fms p999=%.3fms",
+                method, calls, errors, rejected, latency.getP50() / 1e6, latency.getP99() / 1e6,
+                latency.getP999() / 1e6);
+        if (sampledCalls == 0) {
+            return summary;
+        }
+        return summary + String.format(" cpu/call=%.3fms alloc/call=%dB", getCpuNanosPerCall() / 1e6,
+                (long) getAllocatedBytesPerCall());
+    }
+}
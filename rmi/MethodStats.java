@@ -0,0 +1,157 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on instrumentation of one remote method in a skeleton. Counters are striped LongAdders and
+ * the latency is kept in a LatencyHistogram, so that recording neither locks nor allocates.
+ */
+class MethodStats {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder sampledCalls = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /**
+     * Creates the statistics of a method.
+     * @param name name under which the method is reported
+     */
+    MethodStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a call which was run.
+     * @param nanos time spent in the server object
+     * @param failed whether the call ended with an exception
+     */
+    void recordCall(long nanos, boolean failed) {
+        latency.record(nanos);
+        recordCall(failed);
+    }
+
+    /**
+     * Count a call which was run, without recording its latency.
+     * @param failed whether the call ended with an exception
+     */
+    void recordCall(boolean failed) {
+        calls.increment();
+        if (failed) {
+            errors.increment();
+        } else {
+            successes.increment();
+        }
+    }
+
+    /**
+     * Record a call rejected by admission control or a bulkhead.
+     */
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Record the size of a request and of its response.
+     * @param in bytes read from the connection
+     * @param out bytes written to the connection
+     */
+    void recordBytes(long in, long out) {
+        bytesIn.add(in);
+        bytesOut.add(out);
+    }
+
+    /**
+     * Record the cost of a call sampled for CPU and allocation accounting.
+     * @param cpu CPU time the server object used
+     * @param allocated bytes the server object allocated
+     */
+    void recordCost(long cpu, long allocated) {
+        sampledCalls.increment();
+        cpuNanos.add(cpu);
+        allocatedBytes.add(allocated);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    long getCalls() {
+        return calls.sum();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Getter of the number of calls which returned normally. It is counted on its own rather than
+     * derived from the calls and errors, which are not read at the same instant, so that it never
+     * goes down.
+     * @return the number of successful calls
+     */
+    long getSuccesses() {
+        return successes.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    long getSampledCalls() {
+        return sampledCalls.sum();
+    }
+
+    long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Take a copy of the statistics.
+     * @return the snapshot
+     */
+    MethodSnapshot snapshot() {
+        return new MethodSnapshot(name, calls.sum(), errors.sum(), rejected.sum(), bytesIn.sum(),
+                bytesOut.sum(), latency.snapshot(), sampledCalls.sum(), cpuNanos.sum(), allocatedBytes.sum());
+    }
+
+    /**
+     * Get the name under which a method is reported: its name followed by its parameter types.
+     * @param method the method
+     * @return the method name
+     */
+    static String nameOf(Method method) {
+        StringBuilder builder = new StringBuilder(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(parameterTypes[i].getSimpleName());
+        }
+        return builder.append(')').toString();
+    }
+}
@@ -0,0 +1,113 @@
+package rmi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** HTTP endpoint serving the metrics of this JVM in the Prometheus text
+    format.
+
+    <p>
+    The endpoint is optional: nothing is served until <code>start</code> is
+    called. It serves <code>/metrics</code> with the statistics of every
+    running skeleton and of every stub used in the JVM, labeled by interface,
+    address, method and outcome. Scrapes are answered one at a time by a
+    single daemon thread, so that they never compete with the service threads
+    for more than one core.
+ */
+public class MetricsServer {
+    /** Content type of the text exposition format. */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final PrometheusRenderer renderer = new PrometheusRenderer();
+
+    private MetricsServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Start an endpoint.
+     * @param address address to listen on
+     * @return the running endpoint
+     * @throws IOException if the address cannot be bound
+     * @throws NullPointerException if the address is null
+     */
+    public static MetricsServer start(InetSocketAddress address) throws IOException {
+        if (address == null) {
+            throw new NullPointerException("The metrics address shouldn't be null");
+        }
+        HttpServer http = HttpServer.create(address, 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final MetricsServer metrics = new MetricsServer(http, executor);
+        http.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                metrics.serve(exchange);
+            }
+        });
+        http.setExecutor(executor);
+        http.start();
+        return metrics;
+    }
+
+    /**
+     * Getter of the address the endpoint listens on.
+     * @return the bound address
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stop the endpoint, waiting up to a second for a scrape in progress.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Answer a scrape.
+     * @param exchange the request
+     * @throws IOException if the response cannot be written
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            synchronized (renderer) {
+                int length = renderer.render();
+                if (exchange.getRequestMethod().equals("HEAD")) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(renderer.getBuffer(), 0, length);
+                body.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package rmi;
+
+/** Thrown by stubs when the skeleton refused a call because it is overloaded.
+
+    <p>
+    The skeleton answers with this condition instead of running the call, so
+    the remote method has certainly not been executed. Callers may back off and
+    try again later, or fail over to another skeleton.
+ */
+public class OverloadedException extends RMIException
+{
+    /** Creates an <code>OverloadedException</code> with the given message
+        string. */
+    public OverloadedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,41 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Sets the scheduling priority of a remote method in the skeleton.
+
+    <p>
+    Methods marked <code>HIGH</code> are meant for the control plane: health
+    checks and other small calls which must not wait behind bulk work. The
+    skeleton runs them ahead of any waiting call of normal priority, and keeps
+    some of its service threads free of normal calls so that a high priority
+    call finds a thread even when every other thread is busy with a slow data
+    call. High priority calls are never shed by admission control. Methods
+    without the annotation have <code>NORMAL</code> priority.
+
+    <p>
+    Normal calls are protected from starvation: a normal call which has waited
+    longer than the skeleton's aging limit is run before high priority calls.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Priority {
+    /** Scheduling lanes of the skeleton. */
+    enum Level {
+        /** Control plane calls. */
+        HIGH,
+        /** Data plane calls, the default. */
+        NORMAL
+    }
+
+    /**
+     * Priority of the method.
+     * @return the lane in which calls to the method are scheduled
+     */
+    Level value();
+}
@@ -0,0 +1,367 @@
+package rmi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Renders the metrics of the running skeletons and of the stubs of this JVM in the Prometheus text
+ * exposition format.
+ *
+ * <p>
+ * The renderer is reused across scrapes: the text is written into a byte buffer which only grows,
+ * histograms are read in place rather than through snapshots, and numbers are written digit by
+ * digit. A scrape therefore allocates little beyond the iterators over the registries, however
+ * often it runs. Latency histograms are exported with a fixed set of bucket bounds; each bound
+ * includes the whole fine-grained bucket containing it, so counts are accurate to about 3% of the
+ * bound.
+ */
+final class PrometheusRenderer {
+    /** Upper bounds of the exported latency buckets, in nanoseconds. */
+    private static final long[] BOUNDS = {100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L,
+            10000000L, 25000000L, 50000000L, 100000000L, 250000000L, 500000000L, 1000000000L,
+            2500000000L, 5000000000L, 10000000000L};
+    /** The same bounds in seconds, as written in the <code>le</code> label. */
+    private static final String[] BOUND_LABELS = {"0.0001", "0.00025", "0.0005", "0.001", "0.0025",
+            "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+    /** Phases of an attempt measured by the stub. */
+    private static final String[] ATTEMPT_PHASES = {"connect", "encode", "first_byte", "decode"};
+    /** Parts of an attempt computed from the phase timestamps of the response. */
+    private static final String[] ATTEMPT_PARTS = {"network", "queue", "execute"};
+    /** Fine-grained bucket containing each bound. */
+    private static final int[] BOUND_BUCKETS = new int[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUND_BUCKETS[i] = LatencyHistogram.bucketOf(BOUNDS[i]);
+        }
+    }
+
+    private final long[] cumulative = new long[BOUNDS.length];
+    private byte[] buffer = new byte[16 * 1024];
+    private int length;
+
+    /**
+     * Render all metrics. The result stays valid until the next call.
+     * @return the number of bytes written to the buffer
+     */
+    synchronized int render() {
+        length = 0;
+
+        header("rmi_server_calls_total", "counter", "Calls served by skeletons, by outcome.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                sample("rmi_server_calls_total", iface, address, stats.getName());
+                label("outcome", "success").close().value(stats.getSuccesses());
+                sample("rmi_server_calls_total", iface, address, stats.getName());
+                label("outcome", "error").close().value(stats.getErrors());
+                sample("rmi_server_calls_total", iface, address, stats.getName());
+                label("outcome", "rejected").close().value(stats.getRejected());
+            }
+        }
+
+        header("rmi_server_call_duration_seconds", "histogram", "Time spent in the server object.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                histogram("rmi_server_call_duration_seconds", stats.getLatency(), iface, address, stats.getName(),
+                        null, null);
+            }
+        }
+
+        header("rmi_server_received_bytes_total", "counter", "Bytes of requests read by skeletons.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                sample("rmi_server_received_bytes_total", iface, address, stats.getName());
+                close().value(stats.getBytesIn());
+            }
+        }
+
+        header("rmi_server_sent_bytes_total", "counter", "Bytes of responses written by skeletons.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                sample("rmi_server_sent_bytes_total", iface, address, stats.getName());
+                close().value(stats.getBytesOut());
+            }
+        }
+
+        header("rmi_server_sampled_calls_total", "counter", "Calls whose CPU time and allocations were measured.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                sample("rmi_server_sampled_calls_total", iface, address, stats.getName());
+                close().value(stats.getSampledCalls());
+            }
+        }
+
+        header("rmi_server_cpu_seconds_total", "counter", "CPU time used by the sampled calls.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                sample("rmi_server_cpu_seconds_total", iface, address, stats.getName());
+                close().seconds(stats.getCpuNanos());
+            }
+        }
+
+        header("rmi_server_allocated_bytes_total", "counter", "Bytes allocated by the sampled calls.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            String iface = skeleton.getRemoteInterface().getName();
+            String address = String.valueOf(skeleton.getAddress());
+            for (MethodStats stats : skeleton.methodStatistics()) {
+                sample("rmi_server_allocated_bytes_total", iface, address, stats.getName());
+                close().value(stats.getAllocatedBytes());
+            }
+        }
+
+        header("rmi_server_open_connections", "gauge", "Connections accepted and not yet answered.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            skeletonSample("rmi_server_open_connections", skeleton).value(skeleton.getOpenConnections());
+        }
+        header("rmi_server_active_threads", "gauge", "Service threads currently busy.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            skeletonSample("rmi_server_active_threads", skeleton).value(skeleton.getActiveThreads());
+        }
+        header("rmi_server_queue_depth", "gauge", "Connections and calls waiting for a service thread.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            skeletonSample("rmi_server_queue_depth", skeleton).value(skeleton.getQueueDepth());
+        }
+        header("rmi_server_shed_total", "counter", "Calls shed by admission control.");
+        for (Skeleton<?> skeleton : Skeleton.runningSkeletons()) {
+            skeletonSample("rmi_server_shed_total", skeleton).value(skeleton.getShedCount());
+        }
+
+        header("rmi_client_calls_total", "counter", "Remote calls completed by stubs, including failed ones.");
+        for (StubMetrics metrics : StubMetrics.all().values()) {
+            for (ClientMethodStats stats : metrics.methods()) {
+                clientSample("rmi_client_calls_total", metrics, stats.getName()).close().value(stats.getCalls());
+            }
+        }
+
+        header("rmi_client_failures_total", "counter", "Failed attempts of remote calls, by cause.");
+        for (StubMetrics metrics : StubMetrics.all().values()) {
+            for (ClientMethodStats stats : metrics.methods()) {
+                for (FailureCause cause : FailureCause.values()) {
+                    clientSample("rmi_client_failures_total", metrics, stats.getName());
+                    label("cause", cause.name()).close().value(stats.getFailures(cause));
+                }
+            }
+        }
+
+        header("rmi_client_call_duration_seconds", "histogram", "Latency of remote calls, including retries.");
+        for (StubMetrics metrics : StubMetrics.all().values()) {
+            for (ClientMethodStats stats : metrics.methods()) {
+                histogram("rmi_client_call_duration_seconds", stats.getTotal(), metrics.getInterfaceName(),
+                        metrics.getAddress(), stats.getName(), null, null);
+            }
+        }
+
+        header("rmi_client_attempt_phase_seconds", "histogram",
+                "Time of each phase of the attempts of remote calls, as measured by stubs.");
+        for (StubMetrics metrics : StubMetrics.all().values()) {
+            for (ClientMethodStats stats : metrics.methods()) {
+                for (String phase : ATTEMPT_PHASES) {
+                    histogram("rmi_client_attempt_phase_seconds", stats.getPhase(phase),
+                            metrics.getInterfaceName(), metrics.getAddress(), stats.getName(), "phase", phase);
+                }
+            }
+        }
+
+        header("rmi_client_attempt_breakdown_seconds", "histogram",
+                "Time of attempts spent in the network, queued and executing, from the skeleton's timestamps.");
+        for (StubMetrics metrics : StubMetrics.all().values()) {
+            for (ClientMethodStats stats : metrics.methods()) {
+                for (String part : ATTEMPT_PARTS) {
+                    histogram("rmi_client_attempt_breakdown_seconds", stats.getPhase(part),
+                            metrics.getInterfaceName(), metrics.getAddress(), stats.getName(), "part", part);
+                }
+            }
+        }
+
+        header("rmi_client_in_flight_calls", "gauge", "Remote calls in progress, by skeleton address.");
+        for (StubRuntime runtime : StubRuntime.all()) {
+            append("rmi_client_in_flight_calls{");
+            label("address", runtime.getAddress()).close().value(runtime.getInFlightCalls());
+        }
+        return length;
+    }
+
+    /**
+     * Getter of the buffer holding the rendered text.
+     * @return the buffer, valid up to the length returned by <code>render</code>
+     */
+    synchronized byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Write a histogram: its cumulative buckets, sum and count, with an optional extra label.
+     */
+    private void histogram(String name, LatencyHistogram histogram, String iface, String address, String method,
+                           String key, String value) {
+        long sum = histogram.getSum();
+        long count = histogram.countUpTo(BOUND_BUCKETS, cumulative);
+        for (int i = 0; i < BOUNDS.length; i++) {
+            histogramSample(name, "_bucket", iface, address, method, key, value);
+            label("le", BOUND_LABELS[i]).close().value(cumulative[i]);
+        }
+        histogramSample(name, "_bucket", iface, address, method, key, value);
+        label("le", "+Inf").close().value(count);
+        histogramSample(name, "_sum", iface, address, method, key, value);
+        close().seconds(sum);
+        histogramSample(name, "_count", iface, address, method, key, value);
+        close().value(count);
+    }
+
+    /**
+     * Start a sample of a histogram, leaving the label set open.
+     */
+    private PrometheusRenderer histogramSample(String name, String suffix, String iface, String address,
+                                               String method, String key, String value) {
+        sample(name, suffix, iface, address, method);
+        return key == null ? this : label(key, value);
+    }
+
+    private void header(String name, String type, String help) {
+        append("# HELP ").append(name).append(" ").append(help).append("\n");
+        append("# TYPE ").append(name).append(" ").append(type).append("\n");
+    }
+
+    /**
+     * Start a sample labeled by interface, address and method, leaving the label set open.
+     */
+    private PrometheusRenderer sample(String name, String iface, String address, String method) {
+        return sample(name, "", iface, address, method);
+    }
+
+    private PrometheusRenderer sample(String name, String suffix, String iface, String address,
+                                            String method) {
+        append(name).append(suffix).append("{");
+        return label("interface", iface).label("address", address).label("method", method);
+    }
+
+    /**
+     * Start a sample of a client method, leaving the label set open.
+     */
+    private PrometheusRenderer clientSample(String name, StubMetrics metrics, String method) {
+        return sample(name, metrics.getInterfaceName(), metrics.getAddress(), method);
+    }
+
+    /**
+     * Write a complete sample labeled by the interface and address of a skeleton, but for its value.
+     */
+    private PrometheusRenderer skeletonSample(String name, Skeleton<?> skeleton) {
+        append(name).append("{");
+        label("interface", skeleton.getRemoteInterface().getName());
+        return label("address", String.valueOf(skeleton.getAddress())).close();
+    }
+
+    /**
+     * Write a label, escaping its value.
+     */
+    private PrometheusRenderer label(String key, String value) {
+        if (buffer[length - 1] != '{') {
+            append(",");
+        }
+        append(key).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                appendByte('\\');
+                appendChar(c);
+            } else if (c == '\n') {
+                append("\\n");
+            } else {
+                appendChar(c);
+            }
+        }
+        return append("\"");
+    }
+
+    private PrometheusRenderer close() {
+        return append("} ");
+    }
+
+    /**
+     * Write an integer value and end the line.
+     */
+    private void value(long value) {
+        if (value < 0) {
+            appendByte('-');
+            value = -value;
+        }
+        appendDigits(value);
+        appendByte('\n');
+    }
+
+    /**
+     * Write a duration in nanoseconds as seconds and end the line.
+     */
+    private void seconds(long nanos) {
+        appendDigits(nanos / 1000000000L);
+        appendByte('.');
+        long fraction = nanos % 1000000000L;
+        for (long unit = 100000000L; unit > 0; unit /= 10) {
+            appendByte((char) ('0' + fraction / unit % 10));
+        }
+        appendByte('\n');
+    }
+
+    private void appendDigits(long value) {
+        if (value >= 10) {
+            appendDigits(value / 10);
+        }
+        appendByte((char) ('0' + value % 10));
+    }
+
+    private PrometheusRenderer append(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            appendChar(text.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Append a character in UTF-8. Surrogate pairs are written as their replacement, since metric
+     * names and labels of Java identifiers and addresses never contain them.
+     */
+    private void appendChar(char c) {
+        if (c < 0x80) {
+            appendByte(c);
+        } else if (c < 0x800) {
+            appendByte((char) (0xc0 | (c >> 6)));
+            appendByte((char) (0x80 | (c & 0x3f)));
+        } else if (Character.isSurrogate(c)) {
+            appendByte('?');
+        } else {
+            appendByte((char) (0xe0 | (c >> 12)));
+            appendByte((char) (0x80 | ((c >> 6) & 0x3f)));
+            appendByte((char) (0x80 | (c & 0x3f)));
+        }
+    }
+
+    private void appendByte(char b) {
+        if (length == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    /**
+     * Render into a string, for tests and debugging.
+     * @return the rendered text
+     */
+    synchronized String renderToString() {
+        // render first, it may replace the buffer
+        int rendered = render();
+        return new String(buffer, 0, rendered, StandardCharsets.UTF_8);
+    }
+}
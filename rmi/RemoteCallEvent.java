@@ -0,0 +1,46 @@
+package rmi;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for a remote call made through a stub, from the call on the proxy to the
+ * return or exception, including retries. By default only calls taking 20 ms or more are recorded;
+ * the threshold can be changed in the recording settings under the event name.
+ */
+@Name("rmi.RemoteCall")
+@Label("Remote Call")
+@Category({"RMI", "Stub"})
+@Description("Remote method call made through an RMI stub")
+@StackTrace(false)
+@Threshold("20 ms")
+class RemoteCallEvent extends jdk.jfr.Event {
+    @Label("Interface")
+    String remoteInterface;
+
+    @Label("Method")
+    String method;
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Outcome")
+    @Description("SUCCESS, REMOTE if the remote method threw, or the cause of the last failed attempt")
+    String outcome;
+}
@@ -0,0 +1,49 @@
+package rmi;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a call served by a skeleton, from the moment a service thread picks up
+ * the connection to the moment the response has been written. The time the connection spent
+ * waiting before that is reported as the queue wait. By default only calls taking 20 ms or more
+ * are recorded; the threshold can be changed in the recording settings under the event name.
+ */
+@Name("rmi.RemoteDispatch")
+@Label("Remote Dispatch")
+@Category({"RMI", "Skeleton"})
+@Description("Remote method call served by an RMI skeleton")
+@StackTrace(false)
+@Threshold("20 ms")
+class RemoteDispatchEvent extends jdk.jfr.Event {
+    @Label("Interface")
+    String remoteInterface;
+
+    @Label("Method")
+    String method;
+
+    @Label("Peer Address")
+    String peerAddress;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueWait;
+
+    @Label("Outcome")
+    @Description("Status of the response: success, void, failed, overloaded, or error")
+    String outcome;
+}
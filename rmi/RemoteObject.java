@@ -28,6 +28,42 @@ class RemoteObject implements Serializable {
      * The returnType of the remote method.
      */
     private Class returnType;
+    /**
+     * Trace of the call, 0 if the call is not traced.
+     */
+    private long traceId;
+    /**
+     * Span of the caller, parent of the span of the call.
+     */
+    private long spanId;
+    /**
+     * Whether the trace is sampled.
+     */
+    private boolean sampled;
+    /**
+     * Identifier of the call, chosen by the stub for each attempt.
+     */
+    private long callId;
+    /**
+     * Whether this request cancels the call with the given identifier, rather than making a call.
+     */
+    private boolean cancel;
+    /**
+     * Time the stub started sending the request, on the stub's <code>System.nanoTime</code> clock.
+     * The skeleton returns it unchanged in the response.
+     */
+    private long clientSentAt;
+    /**
+     * Phases of the call in the skeleton, on the skeleton's <code>System.nanoTime</code> clock:
+     * connection accepted, call taken off the last queue, server object called and returned, and
+     * response written. Only differences between them are meaningful to the stub; the invoke
+     * times are 0 if the server object was not called.
+     */
+    private long serverReceivedAt;
+    private long dequeuedAt;
+    private long invokeStartedAt;
+    private long invokeEndedAt;
+    private long serverSentAt;
 
 
     /**
@@ -54,6 +90,15 @@ class RemoteObject implements Serializable {
         this.returnType = returnType;
     }
 
+    /**
+     * Used when stub cancels a call it is no longer waiting for.
+     * @param callId identifier of the call to cancel
+     */
+    RemoteObject(long callId) {
+        this.callId = callId;
+        this.cancel = true;
+    }
+
     /**
      * Used when skeleton construct the response.
      * @param responseStatus response state, whether is "success" or "failed"
@@ -122,5 +167,88 @@ class RemoteObject implements Serializable {
         this.returnType = returnType;
     }
 
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public long getCallId() {
+        return callId;
+    }
+
+    public void setCallId(long callId) {
+        this.callId = callId;
+    }
+
+    public boolean isCancel() {
+        return cancel;
+    }
+
+    public long getClientSentAt() {
+        return clientSentAt;
+    }
+
+    public void setClientSentAt(long clientSentAt) {
+        this.clientSentAt = clientSentAt;
+    }
+
+    public long getServerReceivedAt() {
+        return serverReceivedAt;
+    }
+
+    public long getDequeuedAt() {
+        return dequeuedAt;
+    }
+
+    public long getInvokeStartedAt() {
+        return invokeStartedAt;
+    }
+
+    public long getInvokeEndedAt() {
+        return invokeEndedAt;
+    }
+
+    public long getServerSentAt() {
+        return serverSentAt;
+    }
+
+    /**
+     * Stamp the response with the phases of the call in the skeleton.
+     * @param clientSentAt send time copied from the request
+     * @param receivedAt time the connection was accepted
+     * @param dequeuedAt time the call was taken off its last queue
+     * @param invokeStartedAt time the server object was called, 0 if it was not
+     * @param invokeEndedAt time the server object returned, 0 if it was not called
+     * @param sentAt time the response started to be written
+     */
+    void setPhases(long clientSentAt, long receivedAt, long dequeuedAt, long invokeStartedAt,
+                   long invokeEndedAt, long sentAt) {
+        this.clientSentAt = clientSentAt;
+        this.serverReceivedAt = receivedAt;
+        this.dequeuedAt = dequeuedAt;
+        this.invokeStartedAt = invokeStartedAt;
+        this.invokeEndedAt = invokeEndedAt;
+        this.serverSentAt = sentAt;
+    }
+
+    /**
+     * Attach the trace context of the caller to the request.
+     * @param traceId trace of the call
+     * @param spanId span of the caller
+     * @param sampled whether the trace is sampled
+     */
+    public void setTrace(long traceId, long spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
 
 }
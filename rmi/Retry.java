@@ -0,0 +1,46 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Asks stubs to retry a remote method after transient transport failures.
+
+    <p>
+    A failed attempt is retried after an exponentially growing delay with full
+    jitter: before attempt <code>n + 1</code> the stub sleeps for a random time
+    between zero and <code>min(maxBackoffMillis, initialBackoffMillis *
+    2^(n - 1))</code>. Retries stop when the attempts are exhausted, when the
+    next attempt could not start before the call's deadline (see
+    <code>Timeout</code>), or when the process-wide <code>RetryBudget</code>
+    refuses the retry. Exceptions thrown by the remote method itself are never
+    retried.
+
+    <p>
+    Unless the method is also marked <code>Idempotent</code>, a failure is only
+    retried if the request was never sent to the skeleton.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Retry {
+    /**
+     * Maximum number of attempts, including the first one.
+     * @return the number of attempts
+     */
+    int maxAttempts() default 3;
+
+    /**
+     * Upper bound of the delay before the first retry.
+     * @return the delay in milliseconds
+     */
+    long initialBackoffMillis() default 50;
+
+    /**
+     * Upper bound of the delay before any retry.
+     * @return the delay in milliseconds
+     */
+    long maxBackoffMillis() default 2000;
+}
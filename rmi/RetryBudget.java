@@ -0,0 +1,142 @@
+package rmi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Process-wide budget limiting the retries issued by stubs.
+
+    <p>
+    Without a budget, every caller retrying independently multiplies the load
+    on a skeleton which is already failing. The budget is a token bucket: each
+    first attempt of a call deposits <code>ratio</code> tokens, and the bucket
+    is additionally refilled with <code>minRetriesPerSecond</code> tokens per
+    second so that retries remain possible at low call rates. Each retry
+    withdraws one token, and a retry is refused when the bucket is empty. The
+    bucket never holds more than <code>maxBalance</code> tokens.
+
+    <p>
+    With the default ratio of 0.2, retries can add at most 20% to the request
+    rate seen by the skeletons, however many callers are retrying.
+
+    <p>
+    First attempts only count themselves, without taking a lock, since every
+    remote call makes one. Their deposits are added when a retry asks for a
+    token, which gives the same balance as adding them one by one because no
+    token is withdrawn in between.
+ */
+public class RetryBudget {
+    /**
+     * The budget used by all stubs.
+     */
+    private static volatile RetryBudget global = new RetryBudget(0.2, 10, 100);
+
+    private final double ratio;
+    private final double minRetriesPerSecond;
+    private final double maxBalance;
+    private final LongAdder requests = new LongAdder();
+
+    // guarded by this
+    private long depositedRequests;
+    private double balance;
+    private long refilledAt;
+    private long retries;
+    private long denied;
+
+    /**
+     * Creates a budget. The bucket starts full.
+     * @param ratio tokens deposited by each first attempt
+     * @param minRetriesPerSecond tokens deposited per second regardless of traffic
+     * @param maxBalance capacity of the bucket
+     * @throws IllegalArgumentException if any argument is negative, or the capacity is zero
+     */
+    public RetryBudget(double ratio, double minRetriesPerSecond, double maxBalance) {
+        if (ratio < 0 || minRetriesPerSecond < 0 || maxBalance <= 0) {
+            throw new IllegalArgumentException("Retry budget parameters must not be negative");
+        }
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = maxBalance;
+        this.balance = maxBalance;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Getter of the budget used by all stubs.
+     * @return the global budget
+     */
+    public static RetryBudget global() {
+        return global;
+    }
+
+    /**
+     * Replaces the budget used by all stubs.
+     * @param budget the new global budget
+     * @throws NullPointerException if the budget is null
+     */
+    public static void setGlobal(RetryBudget budget) {
+        if (budget == null) {
+            throw new NullPointerException("The budget shouldn't be null");
+        }
+        global = budget;
+    }
+
+    /**
+     * Count a first attempt, whose share is deposited by the next refill.
+     */
+    void onRequest() {
+        requests.increment();
+    }
+
+    /**
+     * Withdraw a token for a retry.
+     * @return <code>true</code> if the retry may proceed
+     */
+    synchronized boolean tryRetry() {
+        refill();
+        if (balance >= 1.0) {
+            balance -= 1.0;
+            retries++;
+            return true;
+        }
+        denied++;
+        return false;
+    }
+
+    /**
+     * Add the shares of the first attempts counted and of the time elapsed since the last refill.
+     * Caller must hold the lock.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        // the sum never goes back, although it may miss increments still in progress
+        long total = requests.sum();
+        balance = Math.min(maxBalance, balance + (total - depositedRequests) * ratio
+                + (now - refilledAt) / 1e9 * minRetriesPerSecond);
+        depositedRequests = total;
+        refilledAt = now;
+    }
+
+    /**
+     * Getter of the number of retries the budget has permitted.
+     * @return the number of retries
+     */
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * Getter of the number of retries the budget has refused.
+     * @return the number of refused retries
+     */
+    public synchronized long getDenied() {
+        return denied;
+    }
+
+    /**
+     * Getter of the tokens currently available.
+     * @return the balance
+     */
+    public synchronized double getBalance() {
+        refill();
+        return balance;
+    }
+}
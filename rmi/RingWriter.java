@@ -0,0 +1,288 @@
+package rmi;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring buffer of preallocated slots, drained in order by a background writer thread.
+ *
+ * <p>
+ * Service threads record into the buffer without waiting: <code>claim</code> reserves the next slot
+ * with a compare-and-set on the tail, the caller fills the slot, and <code>publish</code> hands it to
+ * the writer thread. When the buffer is full the entry is dropped and counted instead. Every claimed
+ * slot must be published, from a <code>finally</code> block, even if filling it failed: the writer
+ * thread takes the slots in order and waits for each one. The writer
+ * thread takes each published slot through its <code>Sink</code>, releases the slot, then writes,
+ * and flushes whenever the buffer runs empty. An entry the sink fails to take or write is counted
+ * as dropped, and the writer thread carries on with the next one.
+ *
+ * @param <E> type of the slots
+ */
+class RingWriter<E extends RingWriter.Slot> {
+    /** Time the writer thread sleeps when the buffer is empty. */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Preallocated slot of the ring buffer. */
+    static class Slot {
+        /** Sequence number of the entry in the slot once published, -1 before the first. */
+        volatile long published = -1;
+        /** Sequence number of the entry being filled, owned by the claiming thread. */
+        long claimed;
+        /** Whether the claiming thread filled the slot, read by the writer thread once published. */
+        boolean filled;
+        /** Whether the claiming thread gave the slot up and counted its entry as dropped. */
+        boolean abandoned;
+
+        /**
+         * Drop the references held by the slot once its entry has been taken, so that they do not
+         * outlive the entry. Called on the writer thread, whether or not the take succeeded.
+         */
+        void clear() {
+        }
+    }
+
+    /**
+     * Output of a ring writer. All methods but <code>newSlot</code> are called on the writer thread.
+     * @param <E> type of the slots
+     */
+    interface Sink<E> {
+        /**
+         * Create an empty slot.
+         * @return the slot
+         */
+        E newSlot();
+
+        /**
+         * Write what goes before the first entry.
+         * @throws IOException if it cannot be written, in which case the writer stops accepting
+         *                     entries
+         */
+        void open() throws IOException;
+
+        /**
+         * Copy what will be written out of a published slot, before the slot is released.
+         * @param slot the slot
+         */
+        void take(E slot);
+
+        /**
+         * Write the entry taken last.
+         * @throws IOException if it cannot be written
+         */
+        void write() throws IOException;
+
+        /**
+         * Flush what has been written.
+         * @throws IOException if it cannot be flushed
+         */
+        void flush() throws IOException;
+    }
+
+    private final Object[] slots;
+    private final int mask;
+    /** Next sequence number to be claimed by a service thread. */
+    private final AtomicLong tail = new AtomicLong();
+    /** Next sequence number to be written by the writer thread. */
+    private volatile long head;
+
+    private final Sink<E> sink;
+    private final Thread writerThread;
+    private final LongAdder dropped = new LongAdder();
+    private volatile long written;
+    private volatile boolean closed;
+
+    /**
+     * Creates a ring writer and starts its writer thread.
+     * @param sink output of the entries
+     * @param capacity number of entries the buffer holds, rounded up to a power of two
+     * @param threadName name of the writer thread
+     * @throws IllegalArgumentException if the capacity is not positive or above 2^30
+     */
+    RingWriter(Sink<E> sink, int capacity, String threadName) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = sink.newSlot();
+        }
+        this.mask = size - 1;
+        this.sink = sink;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, threadName);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Reserve the next slot. Never blocks: if the buffer is full or closed the entry is counted as
+     * dropped. A claimed slot must be filled and then passed to <code>publish</code>, whether or not
+     * filling it succeeded.
+     * @return the slot, or null if the buffer is full or closed
+     */
+    E claim() {
+        if (closed) {
+            return null;
+        }
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= slots.length) {
+                dropped.increment();
+                return null;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        @SuppressWarnings("unchecked")
+        E slot = (E) slots[(int) sequence & mask];
+        slot.claimed = sequence;
+        if (closed) {
+            // the writer thread may have seen the buffer empty and stopped before this claim: count
+            // the entry here, and publish the slot so that a writer thread still draining skips it
+            slot.abandoned = true;
+            slot.filled = false;
+            slot.published = sequence;
+            dropped.increment();
+            return null;
+        }
+        slot.abandoned = false;
+        return slot;
+    }
+
+    /**
+     * Hand a claimed slot to the writer thread. Must be called for every slot returned by
+     * <code>claim</code>, even if filling it failed.
+     * @param slot slot returned by <code>claim</code>
+     * @param filled whether the slot was filled, otherwise its entry is counted as dropped
+     */
+    void publish(E slot, boolean filled) {
+        slot.filled = filled;
+        slot.published = slot.claimed;
+    }
+
+    /**
+     * Count an entry dropped before it reached the buffer.
+     */
+    void drop() {
+        dropped.increment();
+    }
+
+    /**
+     * Getter of the number of entries dropped.
+     * @return the number of dropped entries
+     */
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Getter of the number of entries written.
+     * @return the number of written entries
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * Tell whether the writer has stopped accepting entries.
+     * @return <code>true</code> once closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop accepting entries and wait until those already published are written. The caller then
+     * closes the stream of its sink.
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loop of the writer thread: open the sink, then write published entries in order, flushing
+     * whenever the buffer runs empty.
+     */
+    private void drain() {
+        boolean dirty = false;
+        try {
+            sink.open();
+            dirty = true;
+        } catch (IOException | RuntimeException e) {
+            // the entries cannot be read back without what goes before them
+            closed = true;
+        }
+        while (true) {
+            long sequence = head;
+            @SuppressWarnings("unchecked")
+            E slot = (E) slots[(int) sequence & mask];
+            if (slot.published != sequence) {
+                if (dirty) {
+                    flush();
+                    dirty = false;
+                }
+                if (closed && tail.get() == sequence) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            if (!slot.filled) {
+                if (!slot.abandoned) {
+                    dropped.increment();
+                }
+                slot.clear();
+                head = sequence + 1;
+                continue;
+            }
+
+            boolean taken = false;
+            try {
+                sink.take(slot);
+                taken = true;
+            } catch (RuntimeException e) {
+                // a broken entry must not stop the writer thread
+                dropped.increment();
+            } finally {
+                // release the slot before the possibly slow write
+                slot.clear();
+                head = sequence + 1;
+            }
+            if (!taken) {
+                continue;
+            }
+            try {
+                sink.write();
+                written++;
+                dirty = true;
+            } catch (IOException | RuntimeException e) {
+                dropped.increment();
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            sink.flush();
+        } catch (IOException | RuntimeException e) {
+            // the entries are lost, later writes may succeed
+        }
+    }
+}
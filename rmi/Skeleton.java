@@ -1,12 +1,32 @@
 package rmi;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
 
 /** RMI skeleton
 
@@ -29,6 +49,68 @@ import java.net.*;
     The skeleton's response to these exceptions can be customized by deriving
     a class from <code>Skeleton</code> and overriding <code>listen_error</code>
     or <code>service_error</code>.
+
+    <p>
+    By default every accepted connection is served by a thread of its own, as
+    many as there are connections; idle threads are kept for a minute and
+    reused. <code>setWorkerThreads</code> bounds the number of service threads
+    instead, and connections beyond the bound wait in a queue. A bounded pool
+    caps the threads of the process, but a connection holds its thread from
+    the moment it is taken off the queue, including while the client sends its
+    request (see <code>setRequestTimeout</code>): as many slow or idle clients
+    as there are threads stop the skeleton from serving anyone else, and a
+    server object which calls back into its own skeleton can deadlock once
+    every thread waits for such a nested call.
+
+    <p>
+    An admission controller watches how long connections wait in the queue,
+    and when a standing queue builds up it sheds requests with an "overloaded"
+    response instead of running them. Stubs report shed calls by throwing
+    <code>OverloadedException</code>. Without a bound on the threads,
+    connections never wait long enough to be shed.
+
+    <p>
+    Methods may be placed in bulkheads, either with the <code>Bulkhead</code>
+    annotation on the remote interface or with <code>setBulkhead</code>. A
+    bulkhead limits how many calls to its methods run at the same time, and may
+    run them on its own threads; calls beyond the limit are rejected in the
+    same way as shed calls.
+
+    <p>
+    Methods marked with the <code>Priority</code> annotation as high priority
+    are run ahead of normal calls, and when the service threads are bounded a
+    few of them are reserved for high priority calls, so that control calls
+    such as health checks are not blocked behind bulk work.
+
+    <p>
+    Every remote method is instrumented: the skeleton counts calls, errors,
+    rejections and bytes transferred, and keeps a latency histogram of the
+    calls to the server object. <code>getMethodStats</code> returns a snapshot.
+
+    <p>
+    The trace context carried by a request is made current while the server
+    object runs, so that remote calls it makes through stubs join the same
+    trace; see <code>TraceContext</code> and <code>Tracing</code>.
+
+    <p>
+    Cross-cutting concerns such as authorization or logging can be added
+    without subclassing by installing <code>Interceptor</code>s when the
+    skeleton is created.
+
+    <p>
+    A skeleton can report on itself remotely: <code>exportStats</code> serves
+    the <code>SkeletonStats</code> interface, giving snapshots of connections,
+    threads, queue depth and per-method statistics to any stub. A running
+    skeleton is also registered as a <code>SkeletonMXBean</code>, through which
+    its thread pools, admission control and instrumentation can be changed.
+
+    <p>
+    Calls can be recorded in an <code>AccessLog</code>, which is written by a
+    background thread so that a slow disk never holds up the service threads.
+    Failures to answer a connection are reported to <code>service_error</code>
+    and the access log rather than printed. A sample of the requests, with their
+    arguments and arrival times, can likewise be recorded in a
+    <code>TrafficCapture</code> to be replayed later.
 */
 public class Skeleton<T>
 {
@@ -43,6 +125,57 @@ public class Skeleton<T>
     private String hostName;
     private Class<?> IClass;
 
+    // skeletons of this JVM which are running, for exporters
+    private static final Set<Skeleton<?>> running = ConcurrentHashMap.newKeySet();
+
+    // service threads and the admission control of their queue; 0 threads means no bound, a
+    // thread per connection
+    private static final int DEFAULT_WORKER_THREADS = 0;
+    private static final int DEFAULT_RESERVED_THREADS = 2;
+    private static final long DEFAULT_AGING_MILLIS = 100;
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+    private int reservedThreads = -1;
+    private long agingMillis = DEFAULT_AGING_MILLIS;
+    private LaneScheduler scheduler;
+    private final AdmissionController admission = new AdmissionController(5, 100);
+
+    // always-on instrumentation, by method
+    private final Map<Method, MethodStats> methodStats;
+    // methods of the remote interface resolved once, by name, so that requests need no reflection
+    private final Map<String, Dispatch[]> dispatch;
+    // whether start prepares the request path before accepting connections
+    private volatile boolean eagerWarmup = true;
+
+    // bulkhead limits set through setBulkhead, by bulkhead name: {maxConcurrent, threads}
+    private final Map<String, int[]> bulkheadSettings = new HashMap<String, int[]>();
+    // bulkheads of the running skeleton, by method
+    private volatile Map<Method, BulkheadGroup> bulkheads = new HashMap<Method, BulkheadGroup>();
+    // run around every call to the server object
+    private InterceptorChain interceptors = InterceptorChain.EMPTY;
+
+    // connections accepted and not yet answered, and accepted in total
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder acceptedConnections = new LongAdder();
+    // companion skeleton serving SkeletonStats, once exported
+    private Skeleton<SkeletonStats> statsSkeleton;
+    // rejections counted by bulkheads replaced while running
+    private final LongAdder retiredRejections = new LongAdder();
+    // whether latencies and sizes are recorded, and the MBean of the running skeleton
+    private volatile boolean instrumentationEnabled = true;
+    // fraction of the calls whose CPU time and allocations are measured
+    private volatile double costSampling = 0.01;
+    private ObjectName mbeanName;
+    private Control control;
+    // access log of the calls, if any
+    private volatile AccessLog accessLog;
+    // capture of a sample of the requests, if any
+    private volatile TrafficCapture trafficCapture;
+    // time allowed to a client for sending its request, 0 for no limit
+    private volatile int requestTimeoutMillis = 30000;
+    // calls read and not yet answered, by call id; calls from clients which do not send an id
+    // get a negative one
+    private final Map<Long, InFlightCall> inFlight = new ConcurrentHashMap<Long, InFlightCall>();
+    private final AtomicLong localCallIds = new AtomicLong();
 
     /** Creates a <code>Skeleton</code> with no initial server address. The
         address will be determined by the system when <code>start</code> is
@@ -71,6 +204,8 @@ public class Skeleton<T>
         validate(c, server);
         this.server = server;
         this.IClass = c;
+        this.methodStats = createMethodStats(c);
+        this.dispatch = createDispatch(methodStats);
     }
 
 
@@ -98,12 +233,42 @@ public class Skeleton<T>
         this.socketAddress = address;
         this.server = server;
         this.IClass = c;
+        this.methodStats = createMethodStats(c);
+        this.dispatch = createDispatch(methodStats);
         if (address != null) {
             this.port = address.getPort();
             this.hostName = address.getHostName();
         }
     }
 
+    /** Creates a <code>Skeleton</code> with the given initial server address
+        and interceptors.
+
+        <p>
+        The interceptors are run around every call to the server object, in
+        the given order; see <code>Interceptor</code>.
+
+        @param c An object representing the class of the interface for which the
+                 skeleton server is to handle method call requests.
+        @param server An object implementing said interface. Requests for method
+                      calls are forwarded by the skeleton to this object.
+        @param address The address at which the skeleton is to run. If
+                       <code>null</code>, the address will be chosen by the
+                       system when <code>start</code> is called.
+        @param interceptors The interceptors of the skeleton.
+        @throws Error If <code>c</code> does not represent a remote interface -
+                      an interface whose methods are all marked as throwing
+                      <code>RMIException</code>.
+        @throws NullPointerException If any of <code>c</code>,
+                                     <code>server</code>, the interceptors or
+                                     one of them is <code>null</code>.
+     */
+    public Skeleton(Class<T> c, T server, InetSocketAddress address, Interceptor... interceptors)
+        throws Error, NullPointerException {
+        this(c, server, address);
+        this.interceptors = InterceptorChain.of(interceptors);
+    }
+
     /**
      * Getter of the address of the socket.
      * @return inetsocketaddress
@@ -148,6 +313,171 @@ public class Skeleton<T>
         }
     }
 
+    /**
+     * Create the statistics of every method of the remote interface.
+     * @param c Class of the interface
+     * @return the statistics by method
+     */
+    private static Map<Method, MethodStats> createMethodStats(Class<?> c) {
+        Map<Method, MethodStats> stats = new HashMap<Method, MethodStats>();
+        for (Method method : c.getMethods()) {
+            stats.put(method, new MethodStats(MethodStats.nameOf(method)));
+        }
+        return stats;
+    }
+
+    /**
+     * Method of the remote interface with everything a request needs to find and run it.
+     */
+    private static class Dispatch {
+        final Method method;
+        final Class<?>[] parameterTypes;
+        final MethodStats stats;
+        final Priority.Level level;
+
+        Dispatch(Method method, MethodStats stats) {
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes();
+            this.stats = stats;
+            Priority priority = method.getAnnotation(Priority.class);
+            this.level = priority == null ? Priority.Level.NORMAL : priority.value();
+        }
+    }
+
+    /**
+     * Resolve the methods of the remote interface, grouped by name.
+     * @param methodStats statistics of every method
+     * @return the dispatch entries by method name
+     */
+    private static Map<String, Dispatch[]> createDispatch(Map<Method, MethodStats> methodStats) {
+        Map<String, Dispatch[]> dispatch = new HashMap<String, Dispatch[]>();
+        for (Map.Entry<Method, MethodStats> entry : methodStats.entrySet()) {
+            Dispatch[] overloads = dispatch.get(entry.getKey().getName());
+            overloads = overloads == null ? new Dispatch[1] : Arrays.copyOf(overloads, overloads.length + 1);
+            overloads[overloads.length - 1] = new Dispatch(entry.getKey(), entry.getValue());
+            dispatch.put(entry.getKey().getName(), overloads);
+        }
+        return dispatch;
+    }
+
+    /**
+     * Find the method named by a request.
+     * @param name name of the method
+     * @param parameterTypes parameter types of the method, null for none
+     * @return the dispatch entry of the method
+     * @throws NoSuchMethodException if the remote interface has no such method
+     */
+    private Dispatch dispatchOf(String name, Class<?>[] parameterTypes) throws NoSuchMethodException {
+        Dispatch[] overloads = dispatch.get(name);
+        if (overloads != null) {
+            if (parameterTypes == null) {
+                parameterTypes = new Class<?>[0];
+            }
+            for (Dispatch candidate : overloads) {
+                if (Arrays.equals(candidate.parameterTypes, parameterTypes)) {
+                    return candidate;
+                }
+            }
+        }
+        throw new NoSuchMethodException(IClass.getName() + "." + name + Arrays.toString(parameterTypes));
+    }
+
+    /**
+     * Choose whether <code>start</code> warms up the skeleton before accepting connections: it
+     * computes the serialization descriptors of the argument, result and exception classes of every
+     * remote method, and of the classes they reach through their fields, runs a request and a
+     * response of every method through the codec, and loads the flight recorder event classes. The
+     * first calls after a restart then do not pay for this class loading and reflection. The default
+     * is on.
+     * @param enabled whether to warm up
+     */
+    public void setEagerWarmup(boolean enabled) {
+        this.eagerWarmup = enabled;
+    }
+
+    /**
+     * Tell whether <code>start</code> warms up the skeleton before accepting connections.
+     * @return <code>true</code> if warmup is enabled
+     */
+    public boolean isEagerWarmup() {
+        return eagerWarmup;
+    }
+
+    /**
+     * Prepare the request path of every remote method, as described in <code>setEagerWarmup</code>.
+     * Failures only mean that the first calls will be slower, so they are ignored.
+     */
+    private void warmUp() {
+        // the first flight recorder event loads the recorder's classes, a large part of a cold call
+        new RemoteDispatchEvent();
+        Set<Class<?>> visited = new HashSet<Class<?>>();
+        for (Dispatch[] overloads : dispatch.values()) {
+            for (Dispatch entry : overloads) {
+                for (Class<?> type : entry.parameterTypes) {
+                    describe(type, visited);
+                }
+                describe(entry.method.getReturnType(), visited);
+                for (Class<?> type : entry.method.getExceptionTypes()) {
+                    describe(type, visited);
+                }
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ObjectOutputStream encoder = new ObjectOutputStream(bytes);
+                    encoder.writeObject(new RemoteObject(entry.method.getName(), entry.parameterTypes,
+                            new Object[entry.parameterTypes.length], entry.method.getReturnType()));
+                    encoder.writeObject(new RemoteObject("success", null));
+                    encoder.close();
+                    ObjectInputStream decoder = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+                    decoder.readObject();
+                    decoder.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    // the real calls will fail the same way and report it
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the serialization descriptor of a class and of the classes of its serializable
+     * fields, without initializing them.
+     * @param type the class
+     * @param visited classes already described
+     */
+    private static void describe(Class<?> type, Set<Class<?>> visited) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive() || !visited.add(type)) {
+            return;
+        }
+        ObjectStreamClass descriptor = ObjectStreamClass.lookup(type);
+        if (descriptor == null) {
+            // not serializable, values of this type are of serializable subclasses or null
+            return;
+        }
+        for (ObjectStreamField field : descriptor.getFields()) {
+            if (field.getType() != null) {
+                describe(field.getType(), visited);
+            }
+        }
+        if (type.getSuperclass() != null) {
+            describe(type.getSuperclass(), visited);
+        }
+    }
+
+    /**
+     * Take a snapshot of the statistics of every remote method. Statistics are kept across restarts
+     * of the skeleton.
+     * @return the snapshots, by method name followed by parameter types
+     */
+    public Map<String, MethodSnapshot> getMethodStats() {
+        Map<String, MethodSnapshot> snapshots = new TreeMap<String, MethodSnapshot>();
+        for (MethodStats stats : methodStats.values()) {
+            snapshots.put(stats.getName(), stats.snapshot());
+        }
+        return snapshots;
+    }
+
     /** Called when the listening thread exits.
 
         <p>
@@ -201,6 +531,365 @@ public class Skeleton<T>
     {
     }
 
+    /**
+     * Bound the number of service threads, or remove the bound. By default there is none and every
+     * connection gets a thread; see the class description for what a bound costs. The change
+     * applies immediately if the skeleton is running.
+     * @param threads maximum number of connections served concurrently, or 0 for no bound
+     * @throws IllegalArgumentException if threads is negative
+     */
+    public synchronized void setWorkerThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("The number of worker threads shouldn't be negative");
+        }
+        this.workerThreads = threads;
+        if (scheduler != null) {
+            scheduler.configure(threadLimit(), reservedThreads(), agingMillis);
+        }
+    }
+
+    /**
+     * Getter of the bound on the number of service threads.
+     * @return maximum number of connections served concurrently, or 0 if there is no bound
+     */
+    public synchronized int getWorkerThreads() {
+        return this.workerThreads;
+    }
+
+    /**
+     * Configure the priority lanes. The reserved threads only run high priority calls and read
+     * requests, never normal calls. A normal call which has waited longer than the aging limit is
+     * run before waiting high priority calls, so that normal calls cannot starve. By default,
+     * a quarter of the service threads, but no more than 2, are reserved, and the aging limit is
+     * 100 ms. Lanes only matter once the service threads are bounded with
+     * <code>setWorkerThreads</code>: without a bound no call waits for a thread. The change
+     * applies immediately if the skeleton is running.
+     * @param reserved number of reserved threads, less than the number of service threads
+     * @param agingMillis maximum time a normal call waits behind high priority calls
+     * @throws IllegalArgumentException if reserved is negative or agingMillis is not positive
+     */
+    public synchronized void setPriorityLanes(int reserved, long agingMillis) {
+        if (reserved < 0 || agingMillis <= 0) {
+            throw new IllegalArgumentException("Invalid priority lane settings");
+        }
+        this.reservedThreads = reserved;
+        this.agingMillis = agingMillis;
+        if (scheduler != null) {
+            scheduler.configure(threadLimit(), reservedThreads(), agingMillis);
+        }
+    }
+
+    /**
+     * Get the thread limit of the scheduler.
+     * @return the bound on the service threads, or Integer.MAX_VALUE if there is none
+     */
+    private int threadLimit() {
+        return workerThreads == 0 ? Integer.MAX_VALUE : workerThreads;
+    }
+
+    /**
+     * Get the number of reserved threads for the current number of service threads.
+     * @return the number of threads which never run normal calls
+     */
+    private int reservedThreads() {
+        if (workerThreads == 0) {
+            // without a bound, a high priority call never waits for a thread
+            return 0;
+        }
+        int reserved = reservedThreads >= 0 ? reservedThreads
+                : Math.min(DEFAULT_RESERVED_THREADS, workerThreads / 4);
+        return Math.min(reserved, workerThreads - 1);
+    }
+
+    /**
+     * Configure the admission control of the service queue. When normal calls have waited longer
+     * than the target for a whole interval, calls waiting more than twice the target are shed.
+     * The defaults are a target of 5 ms and an interval of 100 ms.
+     * @param targetMillis acceptable standing queueing delay
+     * @param intervalMillis interval over which the minimum queueing delay is measured
+     * @throws IllegalArgumentException if either value is not positive
+     */
+    public void setAdmissionControl(long targetMillis, long intervalMillis) {
+        admission.configure(targetMillis, intervalMillis);
+    }
+
+    /**
+     * Getter of the number of requests shed by admission control.
+     * @return the number of requests answered as overloaded
+     */
+    public long getShedCount() {
+        return admission.getShedCount();
+    }
+
+    /**
+     * Set the limits of a bulkhead, overriding those given by <code>Bulkhead</code> annotations.
+     * Methods without an annotation belong to the bulkhead named after the method, so the limits
+     * of a single method can be set using its name. The change applies immediately if the skeleton
+     * is running; calls already admitted finish under the old limits.
+     * @param name name of the bulkhead
+     * @param maxConcurrent maximum number of calls admitted at a time, or 0 for the number of threads
+     * @param threads number of threads of the bulkhead's own pool, or 0 to use the service threads
+     * @throws IllegalArgumentException if neither limit is positive
+     */
+    public synchronized void setBulkhead(String name, int maxConcurrent, int threads) {
+        if (name == null) {
+            throw new NullPointerException("The bulkhead name shouldn't be null");
+        }
+        if ((maxConcurrent <= 0 && threads <= 0) || threads < 0) {
+            throw new IllegalArgumentException("Bulkhead " + name + " needs a positive limit");
+        }
+        bulkheadSettings.put(name, new int[] {maxConcurrent, threads});
+        if (scheduler != null && isRunning()) {
+            Map<Method, BulkheadGroup> previous = bulkheads;
+            bulkheads = createBulkheads();
+            retireBulkheads(previous);
+        }
+    }
+
+    /**
+     * Shut down replaced bulkheads, keeping their rejection counts.
+     * @param groups the bulkheads no longer in use, by method
+     */
+    private void retireBulkheads(Map<Method, BulkheadGroup> groups) {
+        for (BulkheadGroup group : new HashSet<BulkheadGroup>(groups.values())) {
+            retiredRejections.add(group.getRejectedCount());
+            group.shutdown();
+        }
+    }
+
+    /**
+     * Getter of the number of calls rejected because their bulkhead was full.
+     * @return the number of rejected calls
+     */
+    public long getRejectedCount() {
+        long rejected = retiredRejections.sum();
+        for (BulkheadGroup group : new HashSet<BulkheadGroup>(bulkheads.values())) {
+            rejected += group.getRejectedCount();
+        }
+        return rejected;
+    }
+
+    /**
+     * Getter of the number of accepted connections waiting for a service thread.
+     * @return the queue depth, or 0 if the skeleton is not running
+     */
+    public synchronized int getQueueDepth() {
+        return scheduler == null ? 0 : scheduler.getQueueDepth();
+    }
+
+    /**
+     * Turn the recording of per-method latencies and sizes on or off. Calls, errors and rejections
+     * are always counted.
+     * @param enabled whether latencies and sizes are recorded
+     */
+    public void setInstrumentationEnabled(boolean enabled) {
+        this.instrumentationEnabled = enabled;
+    }
+
+    /**
+     * Tell whether per-method latencies and sizes are recorded.
+     * @return <code>true</code> if instrumentation is enabled
+     */
+    public boolean isInstrumentationEnabled() {
+        return instrumentationEnabled;
+    }
+
+    /**
+     * Set the fraction of the calls whose CPU time and allocated bytes are measured around the
+     * call to the server object. The costs are reported per method by <code>getMethodStats</code>.
+     * Measuring costs about a microsecond per call, so by default 1% of the calls are sampled.
+     * Nothing is measured while instrumentation is disabled.
+     * @param rate fraction between 0, to measure nothing, and 1, to measure every call
+     * @throws IllegalArgumentException if the rate is outside [0, 1]
+     */
+    public void setCostSampling(double rate) {
+        if (!(rate >= 0.0 && rate <= 1.0)) {
+            throw new IllegalArgumentException("Sampling rate must be between 0 and 1");
+        }
+        this.costSampling = rate;
+    }
+
+    /**
+     * Getter of the fraction of the calls whose CPU time and allocated bytes are measured.
+     * @return the sampling rate, between 0 and 1
+     */
+    public double getCostSampling() {
+        return costSampling;
+    }
+
+    /**
+     * Set the time a client is given to send its request once connected. A connection which has not
+     * delivered a complete request by then is closed, freeing its service thread. The default is 30
+     * seconds.
+     * @param millis the timeout, or 0 to wait forever
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    public void setRequestTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The request timeout shouldn't be negative");
+        }
+        this.requestTimeoutMillis = millis;
+    }
+
+    /**
+     * Getter of the time a client is given to send its request once connected.
+     * @return the timeout in milliseconds, or 0 if clients are waited for forever
+     */
+    public int getRequestTimeout() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * Install an access log, replacing the current one. The skeleton does not close replaced logs.
+     * @param log the log, or null to stop logging calls
+     */
+    public void setAccessLog(AccessLog log) {
+        this.accessLog = log;
+    }
+
+    /**
+     * Getter of the access log.
+     * @return the log, or null if calls are not logged
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * Install a traffic capture, replacing the current one. Requests are captured once they have
+     * been read and their method found, before admission control, so that shed and rejected calls
+     * are part of the recorded mix. The skeleton does not close replaced captures.
+     * @param capture the capture, or null to stop capturing requests
+     */
+    public void setTrafficCapture(TrafficCapture capture) {
+        this.trafficCapture = capture;
+    }
+
+    /**
+     * Getter of the traffic capture.
+     * @return the capture, or null if requests are not captured
+     */
+    public TrafficCapture getTrafficCapture() {
+        return trafficCapture;
+    }
+
+    /**
+     * Getter of the number of connections accepted and not yet answered.
+     * @return the number of open connections
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * List the calls which have been read and not yet answered, whether queued or running.
+     * @return snapshots of the calls in progress
+     */
+    public List<InFlightCallSnapshot> getInFlightCalls() {
+        List<InFlightCallSnapshot> calls = new ArrayList<InFlightCallSnapshot>();
+        for (InFlightCall call : inFlight.values()) {
+            calls.add(call.snapshot());
+        }
+        return calls;
+    }
+
+    /**
+     * Cancel a call in progress. A queued call is answered without running; the thread of a
+     * running call is interrupted, and the call ends as soon as the server object notices. Stubs
+     * cancel their calls themselves when the calling thread is interrupted or the call times out.
+     * @param id identifier of the call, from <code>getInFlightCalls</code>
+     * @return <code>false</code> if no such call is in progress
+     */
+    public boolean cancel(long id) {
+        InFlightCall call = inFlight.get(id);
+        if (call == null) {
+            return false;
+        }
+        call.cancel();
+        return true;
+    }
+
+    /**
+     * Getter of the number of service threads currently busy.
+     * @return the number of active threads, or 0 if the skeleton is not running
+     */
+    public synchronized int getActiveThreads() {
+        return scheduler == null ? 0 : scheduler.getActiveThreads();
+    }
+
+    /**
+     * Getter of whether the skeleton is accepting connections.
+     * @return <code>true</code> if the skeleton has been started and not stopped since
+     */
+    public synchronized boolean isRunning() {
+        return listenThread != null && listenThread.isAlive();
+    }
+
+    /**
+     * Getter of the skeletons of this JVM which are running.
+     * @return a live view of the running skeletons
+     */
+    static Collection<Skeleton<?>> runningSkeletons() {
+        return running;
+    }
+
+    /**
+     * Getter of the interface served by the skeleton.
+     * @return the remote interface
+     */
+    Class<?> getRemoteInterface() {
+        return this.IClass;
+    }
+
+    /**
+     * Getter of the statistics of every remote method, without taking snapshots.
+     * @return the statistics
+     */
+    Collection<MethodStats> methodStatistics() {
+        return methodStats.values();
+    }
+
+    /**
+     * Take a snapshot of the state of the skeleton, as returned by <code>SkeletonStats</code>.
+     * @return the snapshot
+     */
+    public SkeletonSnapshot getSnapshot() {
+        InetSocketAddress address = getAddress();
+        return new SkeletonSnapshot(this.IClass.getName(), address == null ? null : address.toString(),
+                isRunning(), getOpenConnections(), acceptedConnections.sum(), getActiveThreads(),
+                getWorkerThreads(), getQueueDepth(), getShedCount(), getRejectedCount(), getMethodStats());
+    }
+
+    /**
+     * Serve the <code>SkeletonStats</code> interface of this skeleton at the given address. The
+     * stats skeleton is started immediately, is stopped with this skeleton and restarted with it.
+     * Stubs for it are created with <code>Stub.create(SkeletonStats.class, ...)</code>.
+     * @param address address of the stats skeleton, which must differ from that of this skeleton
+     * @return the stats skeleton
+     * @throws NullPointerException if the address is null
+     * @throws RMIException if the stats skeleton cannot be started
+     * @throws IllegalStateException if the stats are already exported
+     */
+    public synchronized Skeleton<SkeletonStats> exportStats(InetSocketAddress address) throws RMIException {
+        if (address == null) {
+            throw new NullPointerException("The stats address shouldn't be null");
+        }
+        if (statsSkeleton != null) {
+            throw new IllegalStateException("Stats are already exported at " + statsSkeleton.getAddress());
+        }
+        Skeleton<SkeletonStats> skeleton = new Skeleton<SkeletonStats>(SkeletonStats.class, new SkeletonStats() {
+            @Override
+            public SkeletonSnapshot getSnapshot() {
+                return Skeleton.this.getSnapshot();
+            }
+        }, address);
+        // polls are rare and quick, a few threads are plenty
+        skeleton.setWorkerThreads(2);
+        skeleton.start();
+        statsSkeleton = skeleton;
+        return skeleton;
+    }
+
     /** Starts the skeleton server.
         <p>
         A thread is created to listen for connection requests, and the method
@@ -218,6 +907,10 @@ public class Skeleton<T>
         if (listenThread != null && listenThread.isAlive()) {
             throw new RMIException("Server is running");
         }
+        if (listenThread != null) {
+            // the listening thread stopped on an error, release what the previous run left behind
+            release();
+        }
 
 
         try {
@@ -231,11 +924,44 @@ public class Skeleton<T>
 
             }
             this.listenSocket.bind(this.socketAddress);
+            if (eagerWarmup) {
+                // connections queue in the backlog meanwhile, and are served warm
+                warmUp();
+            }
+            // everything which may fail comes before the listening thread, so that a failed start
+            // never leaves a skeleton accepting calls
+            if (statsSkeleton != null && !statsSkeleton.isRunning()) {
+                statsSkeleton.start();
+            }
+            scheduler = new LaneScheduler("Skeleton-" + this.IClass.getSimpleName() + "-service-",
+                    threadLimit(), reservedThreads(), agingMillis);
+            bulkheads = createBulkheads();
+            control = new Control();
+            mbeanName = Management.register("type=Skeleton,interface=" + this.IClass.getName()
+                    + ",address=" + ObjectName.quote(String.valueOf(this.socketAddress)), control);
             listenThread = new ListenThread(listenSocket, this.IClass);
             listenThread.start();
+            running.add(this);
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | RMIException | RuntimeException e) {
+            listenThread = null;
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+            retireBulkheads(bulkheads);
+            bulkheads = new HashMap<Method, BulkheadGroup>();
+            if (statsSkeleton != null) {
+                statsSkeleton.stop();
+            }
+            Management.unregister(mbeanName, control);
+            mbeanName = null;
+            control = null;
+            try {
+                this.listenSocket.close();
+            } catch (IOException e1) {
+                // the socket was never usable
+            }
+            throw new RMIException("Unable to start the skeleton at " + this.socketAddress, e);
         }
     }
 
@@ -251,16 +977,219 @@ public class Skeleton<T>
      */
     public synchronized void stop()
     {
+        if (listenThread == null) {
+            return;
+        }
         // if listenThread exists and running, stop the thread by setting the stop
-        if (listenThread != null && listenThread.isAlive()) {
+        if (listenThread.isAlive()) {
             listenThread.setLive(false);
             try {
                 listenSocket.close();
                 listenThread.join();
+                release();
                 stopped(null);
             } catch (IOException | InterruptedException e) {
+                release();
                 stopped(e);
             }
+        } else {
+            // the listening thread stopped on an error and has already called stopped
+            release();
+        }
+    }
+
+    /**
+     * Release the service threads, bulkheads and registrations of a run whose listening thread has
+     * ended. Calls already queued or running are allowed to finish. Caller must hold the lock.
+     */
+    private void release() {
+        scheduler.shutdown();
+        retireBulkheads(bulkheads);
+        bulkheads = new HashMap<Method, BulkheadGroup>();
+        if (statsSkeleton != null) {
+            statsSkeleton.stop();
+        }
+        running.remove(this);
+        Management.unregister(mbeanName, control);
+        mbeanName = null;
+        control = null;
+        listenThread = null;
+    }
+
+    /**
+     * Create the bulkheads of the interface methods from the Bulkhead annotations and the limits set
+     * through setBulkhead. Methods naming the same bulkhead share one BulkheadGroup.
+     * @return the bulkheads by method
+     */
+    private Map<Method, BulkheadGroup> createBulkheads() {
+        Map<String, BulkheadGroup> byName = new HashMap<String, BulkheadGroup>();
+        Map<Method, BulkheadGroup> byMethod = new HashMap<Method, BulkheadGroup>();
+
+        for (Method method : this.IClass.getMethods()) {
+            Bulkhead annotation = method.getAnnotation(Bulkhead.class);
+            String name = annotation == null || annotation.value().isEmpty()
+                    ? method.getName() : annotation.value();
+            int[] settings = bulkheadSettings.get(name);
+            if (settings == null && annotation != null) {
+                settings = new int[] {annotation.maxConcurrent(), annotation.threads()};
+            }
+            if (settings == null) {
+                continue;
+            }
+
+            BulkheadGroup group = byName.get(name);
+            if (group == null) {
+                group = new BulkheadGroup(this.IClass.getSimpleName() + "-" + name, settings[0], settings[1]);
+                byName.put(name, group);
+            }
+            byMethod.put(method, group);
+        }
+        return byMethod;
+    }
+
+    /**
+     * MBean of the running skeleton, delegating to the skeleton.
+     */
+    private class Control implements SkeletonMXBean {
+        @Override
+        public String getRemoteInterface() {
+            return IClass.getName();
+        }
+
+        @Override
+        public String getAddress() {
+            return String.valueOf(Skeleton.this.getAddress());
+        }
+
+        @Override
+        public boolean isRunning() {
+            return Skeleton.this.isRunning();
+        }
+
+        @Override
+        public int getOpenConnections() {
+            return Skeleton.this.getOpenConnections();
+        }
+
+        @Override
+        public long getAcceptedConnections() {
+            return acceptedConnections.sum();
+        }
+
+        @Override
+        public int getActiveThreads() {
+            return Skeleton.this.getActiveThreads();
+        }
+
+        @Override
+        public int getWorkerThreads() {
+            return Skeleton.this.getWorkerThreads();
+        }
+
+        @Override
+        public void setWorkerThreads(int threads) {
+            Skeleton.this.setWorkerThreads(threads);
+        }
+
+        @Override
+        public int getRequestTimeout() {
+            return Skeleton.this.getRequestTimeout();
+        }
+
+        @Override
+        public void setRequestTimeout(int millis) {
+            Skeleton.this.setRequestTimeout(millis);
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return Skeleton.this.getQueueDepth();
+        }
+
+        @Override
+        public boolean isOverloaded() {
+            return admission.isOverloaded();
+        }
+
+        @Override
+        public long getShedCount() {
+            return Skeleton.this.getShedCount();
+        }
+
+        @Override
+        public long getRejectedCount() {
+            return Skeleton.this.getRejectedCount();
+        }
+
+        @Override
+        public boolean isInstrumentationEnabled() {
+            return instrumentationEnabled;
+        }
+
+        @Override
+        public void setInstrumentationEnabled(boolean enabled) {
+            Skeleton.this.setInstrumentationEnabled(enabled);
+        }
+
+        @Override
+        public long getAdmissionTargetMillis() {
+            return admission.getTargetMillis();
+        }
+
+        @Override
+        public long getAdmissionIntervalMillis() {
+            return admission.getIntervalMillis();
+        }
+
+        @Override
+        public String[] getMethodSummaries() {
+            Map<String, MethodSnapshot> snapshots = getMethodStats();
+            String[] summaries = new String[snapshots.size()];
+            int i = 0;
+            for (MethodSnapshot snapshot : snapshots.values()) {
+                summaries[i++] = snapshot.toString();
+            }
+            return summaries;
+        }
+
+        @Override
+        public void setAdmissionControl(long targetMillis, long intervalMillis) {
+            Skeleton.this.setAdmissionControl(targetMillis, intervalMillis);
+        }
+
+        @Override
+        public void setPriorityLanes(int reserved, long agingMillis) {
+            Skeleton.this.setPriorityLanes(reserved, agingMillis);
+        }
+
+        @Override
+        public void setBulkhead(String name, int maxConcurrent, int threads) {
+            Skeleton.this.setBulkhead(name, maxConcurrent, threads);
+        }
+
+        @Override
+        public double getCostSampling() {
+            return Skeleton.this.getCostSampling();
+        }
+
+        @Override
+        public void setCostSampling(double rate) {
+            Skeleton.this.setCostSampling(rate);
+        }
+
+        @Override
+        public String[] getInFlightCalls() {
+            List<InFlightCallSnapshot> calls = Skeleton.this.getInFlightCalls();
+            String[] descriptions = new String[calls.size()];
+            for (int i = 0; i < descriptions.length; i++) {
+                descriptions[i] = calls.get(i).toString();
+            }
+            return descriptions;
+        }
+
+        @Override
+        public boolean cancelCall(long id) {
+            return Skeleton.this.cancel(id);
         }
     }
 
@@ -272,7 +1201,7 @@ public class Skeleton<T>
         /**
          * Flag to indicate whether listen thread is running.
          */
-        private boolean live = true;
+        private volatile boolean live = true;
         private ServerSocket serverSocket;
         private Class<T> IClass;
 
@@ -290,28 +1219,39 @@ public class Skeleton<T>
             try {
                 // keep listening to the requests
                 while (live) {
-                    // create new worker thread upon receiving request
-                    ServiceThread serviceThread = null;
+                    Socket socket;
                     try {
-                        serviceThread = new ServiceThread(this.serverSocket.accept(), IClass);
+                        socket = this.serverSocket.accept();
                     } catch (IOException e) {
-                        if (live) {
+                        if (live && !listen_error(e)) {
+                            // the skeleton shuts down, stop releases the rest
+                            live = false;
                             stopped(e);
                         }
+                        continue;
                     }
-                    try {
-                        serviceThread.start();
 
-                    } catch (NullPointerException e) {
-                     //System.out.println("service is down");
-                        System.out.print("");
+                    // queue the connection for a service thread, remembering when it was accepted
+                    // so that the admission controller can measure the queueing delay
+                    acceptedConnections.increment();
+                    openConnections.incrementAndGet();
+                    try {
+                        long acceptedAt = System.nanoTime();
+                        scheduler.execute(new ServiceTask(socket, IClass, acceptedAt), acceptedAt);
+                    } catch (RejectedExecutionException e) {
+                        openConnections.decrementAndGet();
+                        try {
+                            socket.close();
+                        } catch (IOException e1) {
+                            service_error(new RMIException(e1));
+                        }
                     }
                 }
             } finally {
                 try {
                     this.serverSocket.close();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    // nothing more can be done with the socket
                 }
 
             }
@@ -320,71 +1260,365 @@ public class Skeleton<T>
     }
 
     /**
-     * ServiceThread: It's the thread been created each time a new client call come.
-     * And service thread is the thread which actually handle the request, get the remote
-     * method and handle the response.
+     * ServiceTask: It's the task been created each time a new client call come, and run by one
+     * of the service threads. It actually handles the request, get the remote method and handle
+     * the response, unless admission control decides to shed the request.
      */
-    private class ServiceThread extends Thread {
+    private class ServiceTask implements Runnable {
         private Socket socket;
         private Class<T> IClass;
+        private long acceptedAt;
+        private ObjectInputStream in;
+        private ObjectOutputStream out;
+        private CountingInputStream countingIn;
+        private CountingOutputStream countingOut;
+        private MethodStats stats;
+        private long queuedNanos;
+        private RemoteDispatchEvent event;
+        private TraceContext trace;
+        private long parentSpanId;
+        private Object[] args;
+        private long serviceNanos;
+        // exception which failed the call in the skeleton, for the access log
+        private Exception error;
+        // phases of the call, echoed to the stub in the response
+        private long clientSentAt;
+        private long dequeuedAt;
+        private long invokeStartedAt;
+        private long invokeEndedAt;
+        // registration of the call, once its request has been read
+        private InFlightCall call;
+        private boolean cancelling;
+        private boolean responded;
 
-        public ServiceThread(Socket socket, Class<T> IClass) {
+        public ServiceTask(Socket socket, Class<T> IClass, long acceptedAt) {
             this.socket = socket;
             this.IClass = IClass;
+            this.acceptedAt = acceptedAt;
         }
 
         @Override
         public void run() {
-            ObjectInputStream in = null;
-            ObjectOutputStream out = null;
-            Object result = null;
-            String statusString = null;
-            RemoteObject response = null;
+            // time spent in the intake queue, the request itself has not been read yet
+            queuedNanos = System.nanoTime() - acceptedAt;
+            event = new RemoteDispatchEvent();
+            event.begin();
 
             try {
-                out = new ObjectOutputStream(this.socket.getOutputStream());
+                countingOut = new CountingOutputStream(this.socket.getOutputStream());
+                out = new ObjectOutputStream(countingOut);
                 out.flush();
-                in = new ObjectInputStream(this.socket.getInputStream());
+                // a client which never finishes its request must not hold a service thread forever
+                this.socket.setSoTimeout(requestTimeoutMillis);
+                countingIn = new CountingInputStream(this.socket.getInputStream());
+                in = new ObjectInputStream(countingIn);
 
                 // Wrap the request to a RemoteObject object which implements serializable.
                 // And get the method, parameters and any required input to call the remote method.
                 RemoteObject request = (RemoteObject) in.readObject();
+                this.socket.setSoTimeout(0);
+                if (request.isCancel()) {
+                    // the stub has given up on one of its calls
+                    cancelling = true;
+                    respond("success", cancel(request.getCallId()));
+                    return;
+                }
+                clientSentAt = request.getClientSentAt();
                 String methodName = request.getMethodName();
                 Class<T> [] parameterTypes = request.getParameterTypes();
                 Object[] args = request.getArgs();
+                this.args = args;
                 Class<T> returnType = request.getReturnType();
+                if (request.getTraceId() != 0) {
+                    // a sampled call gets a server span of its own, an unsampled one only passes
+                    // the trace on to nested calls
+                    parentSpanId = request.getSpanId();
+                    trace = new TraceContext(request.getTraceId(),
+                            request.isSampled() ? Tracing.newId() : parentSpanId, request.isSampled());
+                }
 
-                Method method = this.IClass.getMethod(methodName, parameterTypes);
+                Dispatch target = dispatchOf(methodName, parameterTypes);
+                Method method = target.method;
+                stats = target.stats;
+                event.method = stats.getName();
+                register(request.getCallId());
+                TrafficCapture capture = trafficCapture;
+                if (capture != null) {
+                    capture.record(this.IClass, method, args, acceptedAt);
+                }
 
-                try {
-                    // here we invoke the real method on the server object.
-                    // If the returnType is void then return null.
-                    result = returnType.toString().equals("Void") ? null : method.invoke(server, args);
-                    statusString = result == null ? "void" : "success";
+                BulkheadGroup bulkhead = bulkheads.get(method);
+                if (bulkhead != null && !bulkhead.tryEnter()) {
+                    stats.recordRejected();
+                    respond("overloaded", "bulkhead " + bulkhead.getName() + " is full");
+                    return;
+                }
+                Priority.Level level = target.level;
+                Call call = new Call(method, args, returnType, level, bulkhead);
 
-                } catch (InvocationTargetException e) {
-                    result = e.getTargetException();
-                    statusString = "failed";
+                if (bulkhead == null || bulkhead.getPool() == null) {
+                    scheduler.dispatch(level, call);
+                    return;
+                }
 
+                // hand the call to the bulkhead's own threads and give back the service thread
+                try {
+                    bulkhead.getPool().execute(call);
+                } catch (RejectedExecutionException e) {
+                    bulkhead.exit();
+                    respond("overloaded", "bulkhead " + bulkhead.getName() + " is stopped");
                 }
             } catch (Exception e) {
+                error = e;
                 service_error(new RMIException(e));
+                respond(null, null);
+            }
+        }
 
-            } finally {
+        /**
+         * A call whose request has been read, waiting to be run in its lane or bulkhead.
+         */
+        private class Call implements Runnable {
+            private Method method;
+            private Object[] args;
+            private Class<T> returnType;
+            private Priority.Level level;
+            private BulkheadGroup bulkhead;
+            private long dispatchedAt;
+
+            Call(Method method, Object[] args, Class<T> returnType, Priority.Level level, BulkheadGroup bulkhead) {
+                this.method = method;
+                this.args = args;
+                this.returnType = returnType;
+                this.level = level;
+                this.bulkhead = bulkhead;
+                this.dispatchedAt = System.nanoTime();
+            }
+
+            @Override
+            public void run() {
                 try {
-                    // Write the method result to response.
-                    response = new RemoteObject(statusString, result);
-                    out.writeObject(response);
-                    out.flush();
-                    out.close();
+                    // calls of bulkheads with their own pool are bounded by the bulkhead instead,
+                    // and high priority calls are never shed. The sojourn time is the wait in the
+                    // intake queue plus the wait in the lane, not the time spent reading the request
+                    dequeuedAt = System.nanoTime();
+                    queuedNanos += dequeuedAt - dispatchedAt;
+                    boolean admissible = level == Priority.Level.HIGH
+                            || (bulkhead != null && bulkhead.getPool() != null)
+                            || !admission.shouldShed(queuedNanos);
+                    if (admissible) {
+                        execute(method, args, returnType);
+                    } else {
+                        // answer without touching the server object, the stub may back off or fail over
+                        stats.recordRejected();
+                        respond("overloaded", "queueing delay above target");
+                    }
+                } finally {
+                    if (bulkhead != null) {
+                        bulkhead.exit();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the call to the registry of calls in progress.
+         * @param id identifier chosen by the stub, 0 if it did not choose one
+         */
+        private void register(long id) {
+            InFlightCall registered = new InFlightCall(id, stats.getName(), String.valueOf(socket.getRemoteSocketAddress()));
+            // ids are random, a clash means the stub's id cannot be used to cancel this call
+            while (id == 0 || inFlight.putIfAbsent(id, registered) != null) {
+                id = localCallIds.decrementAndGet();
+                registered = new InFlightCall(id, stats.getName(), String.valueOf(socket.getRemoteSocketAddress()));
+            }
+            call = registered;
+        }
+
+        /**
+         * Invoke the real method on the server object and write its outcome as the response.
+         * @param method the method of the remote interface
+         * @param args arguments of the call
+         * @param returnType return type of the method
+         */
+        private void execute(Method method, Object[] args, Class<T> returnType) {
+            if (!call.begin()) {
+                // the caller has gone while the call was queued
+                respond("cancelled", "call cancelled before it started");
+                return;
+            }
+            Object result = null;
+            String statusString = null;
+            long startMillis = trace == null ? 0 : System.currentTimeMillis();
+            // remote calls made by the server object join the trace of this call
+            TraceContext previous = trace == null ? null : TraceContext.attach(trace);
+            InterceptorChain chain = interceptors;
+            boolean admitted = chain.isEmpty();
+            Throwable thrown = null;
+            boolean sampled = false;
+            long cpuBefore = 0;
+            long allocatedBefore = 0;
+            long start = System.nanoTime();
+
+            try {
+                if (!admitted) {
+                    chain.before(method, args);
+                    admitted = true;
+                }
+                double sampling = costSampling;
+                if (instrumentationEnabled && sampling > 0 && ThreadLocalRandom.current().nextDouble() < sampling) {
+                    cpuBefore = ThreadCost.cpuNanos();
+                    allocatedBefore = ThreadCost.allocatedBytes();
+                    sampled = true;
+                }
+                // here we invoke the real method on the server object.
+                // If the returnType is void then return null.
+                invokeStartedAt = System.nanoTime();
+                result = returnType.toString().equals("Void") ? null : method.invoke(server, args);
+                statusString = result == null ? "void" : "success";
+
+            } catch (InvocationTargetException e) {
+                result = e.getTargetException();
+                thrown = e.getTargetException();
+                statusString = "failed";
+
+            } catch (Exception e) {
+                thrown = e;
+                if (admitted) {
+                    error = e;
+                    service_error(new RMIException(e));
+                } else {
+                    // rejected by an interceptor, the stub receives the exception as if thrown by the server object
+                    result = e;
+                    statusString = "failed";
+                }
+            } finally {
+                if (invokeStartedAt != 0) {
+                    invokeEndedAt = System.nanoTime();
+                }
+                if (sampled) {
+                    stats.recordCost(ThreadCost.cpuNanos() - cpuBefore, ThreadCost.allocatedBytes() - allocatedBefore);
+                }
+                call.end();
+                if (trace != null) {
+                    TraceContext.detach(previous);
+                }
+            }
+            if (call.isCancelled()) {
+                // whatever the server object did on being interrupted, nobody waits for the result
+                error = null;
+                result = "call cancelled while running";
+                statusString = "cancelled";
+            }
+            long nanos = System.nanoTime() - start;
+            serviceNanos = nanos;
+            if (admitted && !chain.isEmpty()) {
+                chain.after(method, args, thrown == null ? result : null, thrown, nanos);
+            }
+            // a null status means the server object could not be called at all
+            boolean failed = statusString == null || statusString.equals("failed");
+            if (instrumentationEnabled) {
+                stats.recordCall(nanos, failed);
+            } else {
+                stats.recordCall(failed);
+            }
+            if (trace != null && trace.isSampled()) {
+                Tracing.export(new Span(trace.getTraceId(), trace.getSpanId(), parentSpanId, Span.Kind.SERVER,
+                        IClass.getName() + "." + stats.getName(), String.valueOf(socket.getRemoteSocketAddress()),
+                        startMillis, nanos, statusString == null ? "error" : statusString));
+            }
+            respond(statusString, result);
+        }
+
+        /**
+         * Write the response and close the connection.
+         * @param statusString status of the call
+         * @param result returned value, thrown exception, or reason of the rejection
+         */
+        private void respond(String statusString, Object result) {
+            if (responded) {
+                // a failure after the call was answered, the connection is already released
+                return;
+            }
+            responded = true;
+            Throwable failure = null;
+            try {
+                if (out == null) {
+                    throw new IOException("Connection failed before the response could be written");
+                }
+                // Write the method result to response.
+                RemoteObject response = new RemoteObject(statusString, result);
+                response.setPhases(clientSentAt, acceptedAt, dequeuedAt, invokeStartedAt, invokeEndedAt,
+                        System.nanoTime());
+                out.writeObject(response);
+                out.flush();
+                out.close();
+                if (in != null) {
                     in.close();
-                    socket.close();
+                }
+                socket.close();
+                if (stats != null && instrumentationEnabled) {
+                    stats.recordBytes(countingIn.getCount(), countingOut.getCount());
+                }
+                commitEvent(statusString);
 
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } catch (NullPointerException e) {
-                    System.out.println("Please don't write null to the output stream");
+            } catch (IOException e) {
+                failure = e;
+                if (call == null || !call.isCancelled()) {
+                    // the stub of a cancelled call usually hangs up before the response
+                    service_error(new RMIException(e));
+                }
+            } finally {
+                if (!socket.isClosed()) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // the connection is gone either way
+                    }
+                }
+                if (call != null) {
+                    inFlight.remove(call.getId(), call);
                 }
+                openConnections.decrementAndGet();
+                log(statusString, failure);
+            }
+        }
+
+        /**
+         * Hand the call to the access log, if there is one.
+         * @param statusString status of the response
+         * @param failure exception which prevented writing the response, or null
+         */
+        private void log(String statusString, Throwable failure) {
+            AccessLog log = accessLog;
+            if (log == null) {
+                return;
+            }
+            if (error != null) {
+                // a failure to answer is usually a consequence of the original error
+                failure = error;
+            }
+            log.record(IClass.getName(), stats != null ? stats.getName() : cancelling ? "#cancel" : null, socket.getRemoteSocketAddress(),
+                    System.nanoTime() - acceptedAt, queuedNanos, serviceNanos,
+                    countingIn == null ? 0 : countingIn.getCount(), countingOut == null ? 0 : countingOut.getCount(),
+                    failure == null ? statusString : null, args, failure);
+        }
+
+        /**
+         * End the flight recorder event of the call and commit it if it is enabled and above its
+         * threshold. The remaining fields are only filled in then, to keep fast calls cheap.
+         * @param statusString status of the response, null if the call failed in the skeleton
+         */
+        private void commitEvent(String statusString) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.remoteInterface = IClass.getName();
+                event.peerAddress = String.valueOf(socket.getRemoteSocketAddress());
+                event.requestBytes = countingIn.getCount();
+                event.responseBytes = countingOut.getCount();
+                event.queueWait = queuedNanos;
+                event.outcome = statusString == null ? "error" : statusString;
+                event.commit();
             }
         }
     }
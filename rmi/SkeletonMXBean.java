@@ -0,0 +1,99 @@
+package rmi;
+
+/** Management interface of a running skeleton.
+
+    <p>
+    Every skeleton registers an MBean with the platform MBean server when it is
+    started, and unregisters it when it is stopped. Its name is
+    <code>rmi:type=Skeleton,interface=</code><em>remote interface</em><code>,address=</code><em>address</em>.
+    The writable attributes and the operations take effect immediately, so a
+    skeleton can be tuned under load from any JMX console.
+ */
+public interface SkeletonMXBean {
+    String getRemoteInterface();
+
+    String getAddress();
+
+    boolean isRunning();
+
+    /** @return connections accepted and not yet answered */
+    int getOpenConnections();
+
+    long getAcceptedConnections();
+
+    /** @return service threads currently busy */
+    int getActiveThreads();
+
+    /** @return maximum number of service threads, 0 for a thread per connection */
+    int getWorkerThreads();
+
+    /** @param threads new maximum number of service threads, 0 for a thread per connection */
+    void setWorkerThreads(int threads);
+
+    /** @return time in milliseconds a client is given to send its request, 0 for no limit */
+    int getRequestTimeout();
+
+    /** @param millis time a client is given to send its request, 0 for no limit */
+    void setRequestTimeout(int millis);
+
+    /** @return connections and calls waiting for a service thread */
+    int getQueueDepth();
+
+    /** @return whether admission control is currently shedding calls */
+    boolean isOverloaded();
+
+    long getShedCount();
+
+    long getRejectedCount();
+
+    /** @return whether per-method latency and size statistics are recorded */
+    boolean isInstrumentationEnabled();
+
+    /** @param enabled whether per-method latency and size statistics are recorded */
+    void setInstrumentationEnabled(boolean enabled);
+
+    long getAdmissionTargetMillis();
+
+    long getAdmissionIntervalMillis();
+
+    /** @return fraction of the calls whose CPU time and allocations are measured */
+    double getCostSampling();
+
+    /** @param rate fraction of the calls whose CPU time and allocations are measured */
+    void setCostSampling(double rate);
+
+    /** @return one line of statistics per remote method */
+    String[] getMethodSummaries();
+
+    /**
+     * Change the admission control of the service queue.
+     * @param targetMillis acceptable standing queueing delay
+     * @param intervalMillis interval over which the minimum queueing delay is measured
+     */
+    void setAdmissionControl(long targetMillis, long intervalMillis);
+
+    /**
+     * Change the priority lanes.
+     * @param reserved number of threads reserved for high priority calls
+     * @param agingMillis maximum time a normal call waits behind high priority calls
+     */
+    void setPriorityLanes(int reserved, long agingMillis);
+
+    /**
+     * Resize a bulkhead. Calls already admitted finish under the old limits.
+     * @param name name of the bulkhead
+     * @param maxConcurrent maximum number of calls admitted at a time, or 0 for the number of threads
+     * @param threads number of threads of the bulkhead's own pool, or 0 to use the service threads
+     */
+    void setBulkhead(String name, int maxConcurrent, int threads);
+
+    /** @return one line per call read and not yet answered, starting with its id */
+    String[] getInFlightCalls();
+
+    /**
+     * Cancel a call in progress, interrupting its thread if it is running.
+     * @param id identifier of the call
+     * @return <code>false</code> if no such call is in progress
+     */
+    boolean cancelCall(long id);
+}
@@ -0,0 +1,152 @@
+package rmi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/** State of a skeleton at one point in time, as returned by
+    <code>SkeletonStats</code>.
+ */
+public class SkeletonSnapshot implements Serializable {
+    private final String remoteInterface;
+    private final String address;
+    private final boolean running;
+    private final long takenAt;
+    private final int openConnections;
+    private final long acceptedConnections;
+    private final int activeThreads;
+    private final int workerThreads;
+    private final int queueDepth;
+    private final long shedCount;
+    private final long rejectedCount;
+    private final Map<String, MethodSnapshot> methods;
+
+    /**
+     * Creates a snapshot.
+     * @param remoteInterface name of the interface served by the skeleton
+     * @param address address the skeleton listens on, null if not bound yet
+     * @param running whether the skeleton is accepting connections
+     * @param openConnections connections accepted and not yet answered
+     * @param acceptedConnections connections accepted since the skeleton was created
+     * @param activeThreads service threads currently busy
+     * @param workerThreads maximum number of service threads, 0 for a thread per connection
+     * @param queueDepth connections and calls waiting for a service thread
+     * @param shedCount calls shed by admission control
+     * @param rejectedCount calls rejected by full bulkheads
+     * @param methods statistics of every remote method, by name
+     */
+    SkeletonSnapshot(String remoteInterface, String address, boolean running, int openConnections,
+                     long acceptedConnections, int activeThreads, int workerThreads, int queueDepth,
+                     long shedCount, long rejectedCount, Map<String, MethodSnapshot> methods) {
+        this.remoteInterface = remoteInterface;
+        this.address = address;
+        this.running = running;
+        this.takenAt = System.currentTimeMillis();
+        this.openConnections = openConnections;
+        this.acceptedConnections = acceptedConnections;
+        this.activeThreads = activeThreads;
+        this.workerThreads = workerThreads;
+        this.queueDepth = queueDepth;
+        this.shedCount = shedCount;
+        this.rejectedCount = rejectedCount;
+        this.methods = methods;
+    }
+
+    public String getRemoteInterface() {
+        return remoteInterface;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Getter of the time the snapshot was taken.
+     * @return milliseconds since the epoch, on the clock of the skeleton's host
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public int getOpenConnections() {
+        return openConnections;
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections;
+    }
+
+    public int getActiveThreads() {
+        return activeThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getShedCount() {
+        return shedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Getter of the statistics of the remote methods.
+     * @return the snapshots, by method name followed by parameter types
+     */
+    public Map<String, MethodSnapshot> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Rank the methods by the average CPU time of a call, the most expensive first. Methods without
+     * sampled calls are left out.
+     * @return the snapshots of the sampled methods
+     */
+    public List<MethodSnapshot> rankByCpu() {
+        return rank(new Comparator<MethodSnapshot>() {
+            @Override
+            public int compare(MethodSnapshot a, MethodSnapshot b) {
+                return Double.compare(b.getCpuNanosPerCall(), a.getCpuNanosPerCall());
+            }
+        });
+    }
+
+    /**
+     * Rank the methods by the average allocation of a call, the most expensive first. Methods
+     * without sampled calls are left out.
+     * @return the snapshots of the sampled methods
+     */
+    public List<MethodSnapshot> rankByAllocation() {
+        return rank(new Comparator<MethodSnapshot>() {
+            @Override
+            public int compare(MethodSnapshot a, MethodSnapshot b) {
+                return Double.compare(b.getAllocatedBytesPerCall(), a.getAllocatedBytesPerCall());
+            }
+        });
+    }
+
+    private List<MethodSnapshot> rank(Comparator<MethodSnapshot> order) {
+        List<MethodSnapshot> ranked = new ArrayList<MethodSnapshot>();
+        for (MethodSnapshot method : methods.values()) {
+            if (method.getSampledCalls() > 0) {
+                ranked.add(method);
+            }
+        }
+        Collections.sort(ranked, order);
+        return ranked;
+    }
+}
@@ -0,0 +1,21 @@
+package rmi;
+
+/** Remote interface through which a skeleton reports on itself.
+
+    <p>
+    A skeleton serves this interface on a separate address once
+    <code>Skeleton.exportStats</code> has been called. Stubs for it are created
+    with <code>Stub.create</code> like any other, so the state of a server can
+    be read from anywhere it can be called from. Calls time out after two
+    seconds, so that a monitor polling many skeletons is not held up by one of
+    them.
+ */
+public interface SkeletonStats {
+    /**
+     * Take a snapshot of the state of the skeleton.
+     * @return the snapshot
+     * @throws RMIException if the skeleton cannot be reached
+     */
+    @Timeout(2000)
+    SkeletonSnapshot getSnapshot() throws RMIException;
+}
@@ -0,0 +1,118 @@
+package rmi;
+
+/** Completed remote call within a sampled trace.
+
+    <p>
+    A call produces two spans: a client span exported by the stub, and a
+    server span exported by the skeleton, whose parent is the client span.
+    Spans of nested calls made by the server object have the server span as
+    their parent.
+ */
+public final class Span {
+    /** Side of the call a span was recorded on. */
+    public enum Kind {
+        /** Recorded by the stub, from the start to the end of the remote call. */
+        CLIENT,
+        /** Recorded by the skeleton, while the server object ran. */
+        SERVER
+    }
+
+    private final long traceId;
+    private final long spanId;
+    private final long parentId;
+    private final Kind kind;
+    private final String name;
+    private final String peer;
+    private final long startMillis;
+    private final long durationNanos;
+    private final String outcome;
+
+    /**
+     * Creates a span.
+     * @param traceId identifier of the trace
+     * @param spanId identifier of the span
+     * @param parentId identifier of the parent span, 0 for the root span
+     * @param kind side of the call
+     * @param name interface and method of the call
+     * @param peer address of the other side of the call
+     * @param startMillis wall clock time the span started
+     * @param durationNanos duration of the span
+     * @param outcome status of the call
+     */
+    Span(long traceId, long spanId, long parentId, Kind kind, String name, String peer,
+         long startMillis, long durationNanos, String outcome) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.kind = kind;
+        this.name = name;
+        this.peer = peer;
+        this.startMillis = startMillis;
+        this.durationNanos = durationNanos;
+        this.outcome = outcome;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Getter of the parent span.
+     * @return identifier of the parent span, 0 for the root span of the trace
+     */
+    public long getParentId() {
+        return parentId;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Getter of the name of the span.
+     * @return the interface and method, such as <code>pkg.Service.f(int)</code>
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter of the other side of the call.
+     * @return the skeleton address for client spans, the caller address for server spans
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * Getter of the start of the span.
+     * @return milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Getter of the outcome of the call.
+     * @return the response status on the server side; on the client side <code>SUCCESS</code>,
+     *         or the name of the <code>FailureCause</code>
+     */
+    public String getOutcome() {
+        return outcome;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s parent=%s %s %s %s %.3fms %s", Tracing.format(traceId),
+                Tracing.format(spanId), Tracing.format(parentId), kind, name, peer,
+                durationNanos / 1e6, outcome);
+    }
+}
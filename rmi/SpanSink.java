@@ -0,0 +1,17 @@
+package rmi;
+
+/** Receiver of the spans of sampled traces.
+
+    <p>
+    Spans are exported by the thread which made or served the call, right
+    after the call completes, so sinks should be quick and must be thread
+    safe. A sink that ships spans elsewhere should buffer them and do its work
+    on a thread of its own. Exceptions thrown by the sink are ignored.
+ */
+public interface SpanSink {
+    /**
+     * Receive a completed span.
+     * @param span the span
+     */
+    void export(Span span);
+}
@@ -5,6 +5,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.*;
 import java.lang.reflect.Constructor;
+import java.util.Map;
 
 /** RMI stub factory.
 
@@ -154,6 +155,78 @@ public abstract class Stub
         return createProxy(handler, c);
     }
 
+    /** Creates a stub with interceptors, given the address of a remote server.
+
+        <p>
+        The interceptors are run around every remote call made through the
+        stub, in the given order; see <code>Interceptor</code>. They are not
+        serialized with the stub: a stub transmitted over the network arrives
+        without interceptors.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param address The network address of the remote skeleton.
+        @param interceptors The interceptors of the stub.
+        @return The stub created.
+        @throws NullPointerException If any argument or interceptor is
+                                     <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>, or if an object implementing
+                      this interface cannot be dynamically created.
+     */
+    public static <T> T create(Class<T> c, InetSocketAddress address, Interceptor... interceptors) {
+        Object [] args = new Object [] {address, interceptors};
+        validation(c, args);
+
+        InvocationHandler handler = new DynamicHandler(address, c, InterceptorChain.of(interceptors));
+        return createProxy(handler, c);
+    }
+
+    /** Takes a snapshot of the client-side metrics of a stub.
+
+        <p>
+        The metrics are shared by all stubs equal to the given one, and only
+        include methods which have been called.
+
+        @param stub A stub created by one of the <code>create</code> methods.
+        @return Snapshots of the called methods, by method name followed by
+                parameter types.
+        @throws NullPointerException If <code>stub</code> is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub.
+     */
+    public static Map<String, ClientMethodSnapshot> getMetrics(Object stub) {
+        if (stub == null) {
+            throw new NullPointerException("The stub is null");
+        }
+        if (!Proxy.isProxyClass(stub.getClass())
+                || !(Proxy.getInvocationHandler(stub) instanceof DynamicHandler)) {
+            throw new IllegalArgumentException("The object is not a stub");
+        }
+        DynamicHandler handler = (DynamicHandler) Proxy.getInvocationHandler(stub);
+        return handler.metrics().snapshot();
+    }
+
+    /** Releases the runtime state kept for a skeleton address.
+
+        <p>
+        The first call to an address registers a <code>StubRuntime</code> MBean
+        holding the settings shared by the stubs calling it. Applications
+        calling many short-lived addresses should release each one once they
+        are done with it, so that the MBeans do not accumulate. Stubs calling
+        the address again register a new MBean, with default settings.
+
+        @param address The address of the skeleton.
+        @throws NullPointerException If <code>address</code> is
+                                     <code>null</code>.
+     */
+    public static void release(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("The address is null");
+        }
+        StubRuntime.release(address);
+    }
+
     /**
      * check the validity of the input arguments of the Stub.create methods
      * @param c A <code>Class</code> object representing the interface
@@ -0,0 +1,120 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Client-side metrics of all the stubs of one interface and skeleton address. Stubs which are equal
+ * share their metrics, however many times they have been created or deserialized.
+ */
+class StubMetrics {
+    /**
+     * Metrics of every stub used in this JVM, by stub name.
+     */
+    private static final ConcurrentMap<String, StubMetrics> registry =
+            new ConcurrentHashMap<String, StubMetrics>();
+
+    private final String name;
+    private final String interfaceName;
+    private final String address;
+    private final ConcurrentMap<Method, ClientMethodStats> methods =
+            new ConcurrentHashMap<Method, ClientMethodStats>();
+
+    private StubMetrics(Class<?> c, InetSocketAddress address) {
+        this.name = nameOf(c, address);
+        this.interfaceName = c.getName();
+        this.address = address.toString();
+    }
+
+    /**
+     * Get the metrics of the stubs of an interface and address, creating them if needed.
+     * @param c the remote interface
+     * @param address the skeleton address
+     * @return the metrics
+     */
+    static StubMetrics forStub(Class<?> c, InetSocketAddress address) {
+        String name = nameOf(c, address);
+        StubMetrics metrics = registry.get(name);
+        if (metrics == null) {
+            StubMetrics created = new StubMetrics(c, address);
+            metrics = registry.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Getter of all the metrics of this JVM.
+     * @return the metrics by stub name
+     */
+    static Map<String, StubMetrics> all() {
+        return new TreeMap<String, StubMetrics>(registry);
+    }
+
+    /**
+     * Get the name of the stubs of an interface and address.
+     * @param c the remote interface
+     * @param address the skeleton address
+     * @return the stub name
+     */
+    static String nameOf(Class<?> c, InetSocketAddress address) {
+        return c.getName() + "@" + address;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getInterfaceName() {
+        return interfaceName;
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    /**
+     * Getter of the statistics of the methods called so far.
+     * @return a live view of the statistics
+     */
+    Collection<ClientMethodStats> methods() {
+        return methods.values();
+    }
+
+    /**
+     * Get the statistics of a method, creating them on its first call.
+     * @param method the remote method
+     * @return the statistics
+     */
+    ClientMethodStats forMethod(Method method) {
+        ClientMethodStats stats = methods.get(method);
+        if (stats == null) {
+            ClientMethodStats created = new ClientMethodStats(MethodStats.nameOf(method));
+            stats = methods.putIfAbsent(method, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Take a snapshot of every method called so far.
+     * @return the snapshots by method name followed by parameter types
+     */
+    Map<String, ClientMethodSnapshot> snapshot() {
+        Map<String, ClientMethodSnapshot> snapshots = new TreeMap<String, ClientMethodSnapshot>();
+        for (ClientMethodStats stats : methods.values()) {
+            ClientMethodSnapshot snapshot = stats.snapshot();
+            snapshots.put(snapshot.getMethod(), snapshot);
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,154 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Runtime state and settings shared by all the stubs calling one skeleton address, exported as a
+ * <code>StubRuntimeMXBean</code>.
+ */
+class StubRuntime implements StubRuntimeMXBean {
+    /**
+     * Runtime of every address called from this JVM.
+     */
+    private static final ConcurrentMap<InetSocketAddress, StubRuntime> registry =
+            new ConcurrentHashMap<InetSocketAddress, StubRuntime>();
+
+    private final InetSocketAddress address;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder calls = new LongAdder();
+    private volatile long defaultTimeoutMillis;
+    private volatile boolean instrumentationEnabled = true;
+    private volatile ObjectName mbeanName;
+    private volatile boolean released;
+
+    private StubRuntime(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Get the runtime of an address, creating and registering it on first use.
+     * @param address the skeleton address
+     * @return the runtime
+     */
+    static StubRuntime forAddress(InetSocketAddress address) {
+        StubRuntime runtime = registry.get(address);
+        if (runtime == null) {
+            StubRuntime created = new StubRuntime(address);
+            runtime = registry.putIfAbsent(address, created);
+            if (runtime == null) {
+                runtime = created;
+                runtime.mbeanName = Management.register("type=StubRuntime,address="
+                        + ObjectName.quote(address.toString()), runtime);
+            }
+        }
+        return runtime;
+    }
+
+    /**
+     * Forget the runtime of an address and unregister its MBean. Stubs calling the address again
+     * get a new runtime, with default settings.
+     * @param address the skeleton address
+     */
+    static void release(InetSocketAddress address) {
+        StubRuntime runtime = registry.remove(address);
+        if (runtime != null) {
+            runtime.released = true;
+            Management.unregister(runtime.mbeanName, runtime);
+        }
+    }
+
+    /**
+     * Tell whether the runtime has been released, so that stubs holding it must look it up again.
+     * @return <code>true</code> once released
+     */
+    boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Getter of the runtimes of all addresses called so far.
+     * @return a live view of the runtimes
+     */
+    static Collection<StubRuntime> all() {
+        return registry.values();
+    }
+
+    /**
+     * Count a call starting.
+     */
+    void callStarted() {
+        calls.increment();
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Count a call ending, however it ended.
+     */
+    void callEnded() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public String getAddress() {
+        return address.toString();
+    }
+
+    @Override
+    public int getInFlightCalls() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        return CircuitBreaker.forAddress(address).getState().name();
+    }
+
+    @Override
+    public double getFailureRate() {
+        return CircuitBreaker.forAddress(address).getFailureRate();
+    }
+
+    @Override
+    public double getSlowCallRate() {
+        return CircuitBreaker.forAddress(address).getSlowCallRate();
+    }
+
+    @Override
+    public long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+
+    @Override
+    public void setDefaultTimeoutMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The timeout must not be negative");
+        }
+        this.defaultTimeoutMillis = millis;
+    }
+
+    @Override
+    public boolean isInstrumentationEnabled() {
+        return instrumentationEnabled;
+    }
+
+    @Override
+    public void setInstrumentationEnabled(boolean enabled) {
+        this.instrumentationEnabled = enabled;
+    }
+
+    @Override
+    public void resetCircuitBreaker() {
+        CircuitBreaker.install(new CircuitBreaker(address));
+    }
+}
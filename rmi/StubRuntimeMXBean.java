@@ -0,0 +1,42 @@
+package rmi;
+
+/** Management interface of the stubs calling one skeleton address.
+
+    <p>
+    Stubs open a connection per call rather than keeping a pool, so the unit
+    of control on the client side is the skeleton address: all the stubs
+    calling an address share its runtime, its circuit breaker and its
+    settings. The MBean is registered the first time a stub calls the address,
+    as <code>rmi:type=StubRuntime,address=</code><em>address</em>.
+ */
+public interface StubRuntimeMXBean {
+    String getAddress();
+
+    /** @return calls currently being made to the address */
+    int getInFlightCalls();
+
+    /** @return calls made to the address so far */
+    long getCalls();
+
+    /** @return state of the circuit breaker of the address */
+    String getCircuitBreakerState();
+
+    double getFailureRate();
+
+    double getSlowCallRate();
+
+    /** @return deadline of calls to methods without a <code>Timeout</code> annotation, 0 for none */
+    long getDefaultTimeoutMillis();
+
+    /** @param millis deadline of calls to methods without a <code>Timeout</code> annotation, 0 for none */
+    void setDefaultTimeoutMillis(long millis);
+
+    /** @return whether client-side call metrics are recorded */
+    boolean isInstrumentationEnabled();
+
+    /** @param enabled whether client-side call metrics are recorded */
+    void setInstrumentationEnabled(boolean enabled);
+
+    /** Replace the circuit breaker of the address with a closed one with default settings. */
+    void resetCircuitBreaker();
+}
@@ -0,0 +1,28 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Sets the deadline of calls to a remote method.
+
+    <p>
+    The deadline is measured from the moment the method is called on the stub,
+    and covers connecting, waiting for the response and any retries. When it
+    passes, the call fails with <code>RMIException</code>. The annotation may be
+    placed on a remote interface to apply to all of its methods; an annotation
+    on the method takes precedence. Methods without a timeout wait
+    indefinitely for the response.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Timeout {
+    /**
+     * Time allowed for the whole call.
+     * @return the timeout in milliseconds
+     */
+    long value();
+}
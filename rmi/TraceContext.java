@@ -0,0 +1,97 @@
+package rmi;
+
+/** Trace context of the remote call being served by the current thread.
+
+    <p>
+    A trace is the tree of remote calls made on behalf of one original call.
+    Each call in the tree is a span; the context identifies the trace and the
+    span of the current call, and tells whether the trace is sampled. Stubs
+    carry the context of their calling thread along with the request, and
+    skeletons make it current while the server object runs, so that remote
+    calls made by the server object join the same trace.
+
+    <p>
+    Only sampled traces are timed and exported to the <code>SpanSink</code>
+    set in <code>Tracing</code>. Unsampled traces only propagate their
+    identifier, so that the sampling decision taken at the root is kept
+    across hops.
+ */
+public final class TraceContext {
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<TraceContext>();
+
+    private final long traceId;
+    private final long spanId;
+    private final boolean sampled;
+
+    /**
+     * Creates a context.
+     * @param traceId identifier of the trace, never 0
+     * @param spanId identifier of the current span, 0 at the root of the trace
+     * @param sampled whether the spans of the trace are exported
+     */
+    TraceContext(long traceId, long spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Getter of the context of the call served by the current thread.
+     * @return the context, or null if the thread is not serving a traced call
+     */
+    public static TraceContext current() {
+        return current.get();
+    }
+
+    /**
+     * Make a context current for the thread.
+     * @param context the new context, may be null
+     * @return the context it replaces, to be restored afterwards
+     */
+    static TraceContext attach(TraceContext context) {
+        TraceContext previous = current.get();
+        current.set(context);
+        return previous;
+    }
+
+    /**
+     * Restore the context replaced by <code>attach</code>.
+     * @param previous the context returned by <code>attach</code>
+     */
+    static void detach(TraceContext previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Getter of the trace identifier.
+     * @return the trace identifier
+     */
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Getter of the identifier of the current span, the parent of spans of nested calls.
+     * @return the span identifier, 0 at the root of the trace
+     */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Getter of whether the trace is sampled.
+     * @return <code>true</code> if spans of the trace are exported
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    @Override
+    public String toString() {
+        return Tracing.format(traceId) + "/" + Tracing.format(spanId) + (sampled ? " sampled" : "");
+    }
+}
@@ -0,0 +1,102 @@
+package rmi;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Sampling and export settings of trace propagation.
+
+    <p>
+    A stub making a call outside of any trace starts a new one, and decides
+    with the sample rate whether it is sampled. Tracing is off by default: with
+    a sample rate of 0 no trace is started, and calls cost nothing beyond
+    checking for a current <code>TraceContext</code>. Traces started by
+    callers on other hosts are still propagated, and still exported when the
+    caller sampled them.
+
+    <p>
+    Spans of sampled traces go to the sink; without a sink they are dropped.
+ */
+public final class Tracing {
+    private static volatile double sampleRate = 0.0;
+    private static volatile SpanSink sink;
+
+    private Tracing() {
+    }
+
+    /**
+     * Set the fraction of new traces which are sampled.
+     * @param rate between 0, for no new traces at all, and 1, for sampling every trace
+     * @throws IllegalArgumentException if the rate is out of range
+     */
+    public static void setSampleRate(double rate) {
+        if (!(rate >= 0.0 && rate <= 1.0)) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        sampleRate = rate;
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Set the receiver of the spans of sampled traces.
+     * @param spanSink the sink, or null to drop spans
+     */
+    public static void setSink(SpanSink spanSink) {
+        sink = spanSink;
+    }
+
+    public static SpanSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Start a trace for a call made outside of any trace.
+     * @return the root context, or null if tracing is off
+     */
+    static TraceContext startTrace() {
+        double rate = sampleRate;
+        if (rate == 0.0) {
+            return null;
+        }
+        boolean sampled = rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate;
+        return new TraceContext(newId(), 0, sampled);
+    }
+
+    /**
+     * Generate a trace or span identifier.
+     * @return a random non-zero identifier
+     */
+    static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Hand a span to the sink.
+     * @param span the span
+     */
+    static void export(Span span) {
+        SpanSink current = sink;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.export(span);
+        } catch (RuntimeException e) {
+            // a faulty sink must not fail the call it observes
+        }
+    }
+
+    /**
+     * Format an identifier the way trace tools display them.
+     * @param id the identifier
+     * @return 16 hexadecimal digits
+     */
+    static String format(long id) {
+        return String.format("%016x", id);
+    }
+}
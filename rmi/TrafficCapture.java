@@ -0,0 +1,391 @@
+package rmi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Capture of a sample of the calls received by skeletons, for replay.
+
+    <p>
+    Each sampled call is recorded with its interface and method, its arguments
+    as serialized bytes, and the time since the previous recorded call
+    arrived. The recording can be read back with a <code>Reader</code> and
+    replayed against a skeleton, at the recorded pace or faster, so that
+    performance changes are measured on the real mix of calls rather than on
+    synthetic load. Since only a sample is recorded, replaying it at the
+    recorded pace gives the sampling fraction of the original rate.
+
+    <p>
+    Service threads never wait for the disk: a sampled call is serialized by
+    its service thread into a preallocated ring buffer (a
+    <code>RingWriter</code>), and a background thread writes the records. When
+    the buffer is full the call is dropped and counted.
+
+    <p>
+    The file format is compact and append-only. A file is a sequence of
+    records, each starting with a tag byte:
+    <ul>
+    <li><code>'S'</code>, a session: the magic number, the format version and
+        the time the capture was opened. A session starts each time a capture
+        is opened, including when it appends to an existing file;</li>
+    <li><code>'M'</code>, a method: its number within the session, the name of
+        the interface, the name of the method and the names of its parameter
+        types. A method is defined before its first call of the session;</li>
+    <li><code>'C'</code>, a call: the number of the method, the gap since the
+        previous call in microseconds and the length and bytes of the
+        serialized argument array.</li>
+    </ul>
+    Numbers are unsigned variable-length integers, names are modified UTF-8.
+ */
+public class TrafficCapture {
+    static final int MAGIC = 0x524d4943;
+    static final int VERSION = 1;
+    static final byte SESSION = 'S';
+    static final byte METHOD = 'M';
+    static final byte CALL = 'C';
+
+    /** Preallocated slot of the ring buffer. */
+    private static class Entry extends RingWriter.Slot {
+        String remoteInterface;
+        Method method;
+        byte[] arguments;
+        long arrivedAt;
+
+        @Override
+        void clear() {
+            method = null;
+            arguments = null;
+        }
+    }
+
+    /** Writes the session and the calls, on the writer thread. */
+    private class Records implements RingWriter.Sink<Entry> {
+        private String remoteInterface;
+        private Method method;
+        private byte[] arguments;
+        private long arrivedAt;
+
+        @Override
+        public Entry newSlot() {
+            return new Entry();
+        }
+
+        @Override
+        public void open() throws IOException {
+            out.writeByte(SESSION);
+            out.writeInt(MAGIC);
+            writeNumber(out, VERSION);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        @Override
+        public void take(Entry entry) {
+            remoteInterface = entry.remoteInterface;
+            method = entry.method;
+            arguments = entry.arguments;
+            arrivedAt = entry.arrivedAt;
+        }
+
+        @Override
+        public void write() throws IOException {
+            try {
+                TrafficCapture.this.write(remoteInterface, method, arguments, arrivedAt);
+            } finally {
+                method = null;
+                arguments = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private final DataOutputStream out;
+    private final RingWriter<Entry> ring;
+    private final double sampling;
+
+    // owned by the writer thread: numbers of the methods defined in this session, and the arrival
+    // of the previous recorded call
+    private final Map<String, Integer> methodNumbers = new HashMap<String, Integer>();
+    private long previousArrival;
+
+    /**
+     * Creates a capture and starts its writer thread.
+     * @param out stream receiving the records, closed with the capture
+     * @param capacity number of calls the ring buffer holds, rounded up to a power of two
+     * @param sampling fraction of the calls recorded, greater than 0 and at most 1
+     * @throws NullPointerException if the stream is null
+     * @throws IllegalArgumentException if the capacity or the sampling fraction is out of range
+     */
+    public TrafficCapture(OutputStream out, int capacity, double sampling) {
+        if (out == null) {
+            throw new NullPointerException("The capture stream shouldn't be null");
+        }
+        if (capacity <= 0 || capacity > (1 << 30) || !(sampling > 0 && sampling <= 1)) {
+            throw new IllegalArgumentException("Invalid traffic capture settings");
+        }
+        this.sampling = sampling;
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.ring = new RingWriter<Entry>(new Records(), capacity, "traffic-capture-writer");
+    }
+
+    /**
+     * Creates a capture appending to a file, with room for 4096 calls.
+     * @param path path of the file
+     * @param sampling fraction of the calls recorded, greater than 0 and at most 1
+     * @return the capture
+     * @throws IOException if the file cannot be opened
+     */
+    public static TrafficCapture toFile(String path, double sampling) throws IOException {
+        return new TrafficCapture(new FileOutputStream(path, true), 4096, sampling);
+    }
+
+    /**
+     * Getter of the fraction of the calls recorded.
+     * @return the sampling fraction
+     */
+    public double getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Record a call if it is sampled. Never blocks: if the buffer is full the call is dropped.
+     * @param remoteInterface interface served by the skeleton
+     * @param method method called
+     * @param args arguments of the call, serialized now since the server object may change them
+     * @param arrivedAt time the connection of the call was accepted, in <code>System.nanoTime</code>
+     *                  units
+     */
+    void record(Class<?> remoteInterface, Method method, Object[] args, long arrivedAt) {
+        if (ring.isClosed() || (sampling < 1 && ThreadLocalRandom.current().nextDouble() >= sampling)) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = serialize(args);
+        } catch (IOException e) {
+            // the arguments came over the wire, so this is not expected; the call is just not recorded
+            ring.drop();
+            return;
+        }
+
+        Entry entry = ring.claim();
+        if (entry == null) {
+            return;
+        }
+        boolean filled = false;
+        try {
+            entry.remoteInterface = remoteInterface.getName();
+            entry.method = method;
+            entry.arguments = bytes;
+            entry.arrivedAt = arrivedAt;
+            filled = true;
+        } finally {
+            ring.publish(entry, filled);
+        }
+    }
+
+    /**
+     * Getter of the number of sampled calls dropped because the buffer was full.
+     * @return the number of dropped calls
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Getter of the number of calls written.
+     * @return the number of recorded calls
+     */
+    public long getCaptured() {
+        return ring.getWritten();
+    }
+
+    /**
+     * Stop accepting calls, write those already buffered and close the stream.
+     * @throws IOException if the stream cannot be closed
+     */
+    public void close() throws IOException {
+        ring.close();
+        out.close();
+    }
+
+    /**
+     * Open a recording for reading.
+     * @param in stream of the recording, closed with the reader
+     * @return the reader
+     */
+    public static Reader read(InputStream in) {
+        return new Reader(in);
+    }
+
+    /**
+     * Write a call, defining its method first if needed.
+     */
+    private void write(String remoteInterface, Method method, byte[] arguments, long arrivedAt) throws IOException {
+        String key = remoteInterface + "#" + method;
+        Integer number = methodNumbers.get(key);
+        if (number == null) {
+            number = methodNumbers.size();
+            Class<?>[] types = method.getParameterTypes();
+            out.writeByte(METHOD);
+            writeNumber(out, number);
+            out.writeUTF(remoteInterface);
+            out.writeUTF(method.getName());
+            writeNumber(out, types.length);
+            for (Class<?> type : types) {
+                out.writeUTF(type.getName());
+            }
+            methodNumbers.put(key, number);
+        }
+        // calls are published in about the order they arrived; a call overtaken by a later one
+        // is recorded as arriving together with it
+        long gap = ring.getWritten() == 0 ? 0 : Math.max(0, arrivedAt - previousArrival);
+        previousArrival = Math.max(previousArrival, arrivedAt);
+        out.writeByte(CALL);
+        writeNumber(out, number);
+        writeNumber(out, gap / 1000);
+        writeNumber(out, arguments.length);
+        out.write(arguments);
+    }
+
+    /**
+     * Serialize the arguments of a call as one array.
+     * @param args the arguments, may be null
+     * @return the serialized bytes
+     * @throws IOException if an argument cannot be serialized
+     */
+    static byte[] serialize(Object[] args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        stream.writeObject(args == null ? new Object[0] : args);
+        stream.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write an unsigned variable-length number, seven bits per byte, least significant first.
+     */
+    static void writeNumber(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read an unsigned variable-length number.
+     */
+    static long readNumber(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in traffic capture");
+    }
+
+    /** Reader of a recording, returning its calls in order. */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        /** Methods of the current session, by number: interface, method and parameter type names. */
+        private final List<String[]> methods = new ArrayList<String[]>();
+
+        private Reader(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        }
+
+        /**
+         * Read the next call. A record cut short at the end of the recording, as left by a process
+         * which died while writing, counts as the end.
+         * @return the call, or <code>null</code> at the end of the recording
+         * @throws IOException if the recording cannot be read or is not a traffic capture
+         */
+        public CapturedCall next() throws IOException {
+            try {
+                while (true) {
+                    int tag = in.read();
+                    if (tag < 0) {
+                        return null;
+                    }
+                    if (tag == SESSION) {
+                        if (in.readInt() != MAGIC) {
+                            throw new IOException("Not a traffic capture");
+                        }
+                        long version = readNumber(in);
+                        if (version != VERSION) {
+                            throw new IOException("Unsupported traffic capture version " + version);
+                        }
+                        in.readLong();
+                        methods.clear();
+                    } else if (tag == METHOD) {
+                        // methods are numbered in the order they are defined
+                        if (readNumber(in) != methods.size()) {
+                            throw new IOException("Malformed traffic capture");
+                        }
+                        methods.add(readMethod());
+                    } else if (tag == CALL) {
+                        return readCall();
+                    } else {
+                        throw new IOException("Malformed traffic capture");
+                    }
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private String[] readMethod() throws IOException {
+            String remoteInterface = in.readUTF();
+            String method = in.readUTF();
+            int count = (int) readNumber(in);
+            String[] names = new String[count + 2];
+            names[0] = remoteInterface;
+            names[1] = method;
+            for (int i = 0; i < count; i++) {
+                names[i + 2] = in.readUTF();
+            }
+            return names;
+        }
+
+        private CapturedCall readCall() throws IOException {
+            long number = readNumber(in);
+            if (number >= methods.size()) {
+                throw new IOException("Call of an undefined method in traffic capture");
+            }
+            long gapMicros = readNumber(in);
+            byte[] arguments = new byte[(int) readNumber(in)];
+            in.readFully(arguments);
+            String[] names = methods.get((int) number);
+            String[] types = new String[names.length - 2];
+            System.arraycopy(names, 2, types, 0, types.length);
+            return new CapturedCall(names[0], names[1], types, gapMicros, arguments);
+        }
+    }
+}
@@ -0,0 +1,719 @@
+package test;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/** TCP proxy which impairs the connections passing through it.
+
+    <p>
+    The proxy listens on a local address and forwards every connection it
+    accepts to a target address, such as the address of a skeleton. Stubs
+    created for the proxy's address then reach the skeleton over a network
+    which behaves less well than the loopback interface:
+
+    <ul>
+    <li>every chunk of data read from either side is delivered only after a
+        delay drawn from a <code>Delay</code> distribution, so the round trip of
+        a call sees latency and jitter. Chunks are never reordered, as on a TCP
+        connection;</li>
+    <li>each direction of each connection is limited to a bandwidth, so large
+        arguments and results take time to transfer;</li>
+    <li>data may be written in segments of at most a given number of bytes,
+        each flushed separately, so that the receiver sees partial reads;</li>
+    <li>a connection may be reset, with a TCP RST, before any chunk is
+        delivered, with a given probability, or on demand.</li>
+    </ul>
+
+    <p>
+    The impairments can be changed while the proxy is running; they apply to
+    chunks read after the change. The proxy starts with no impairment at all.
+    Each connection uses four daemon threads: one reading and one writing in
+    each direction, so that a delayed chunk does not stop the next one from
+    being read.
+ */
+public class NetworkProxy
+{
+    /** Distribution of the delay added to each chunk of data. */
+    public interface Delay
+    {
+        /** Draws a delay.
+
+            @param random Source of randomness.
+            @return The delay, in nanoseconds. Negative delays count as zero.
+         */
+        long next(Random random);
+    }
+
+    /** Address the proxy listens on. */
+    private final InetSocketAddress     listen_address;
+    /** Address connections are forwarded to. */
+    private final InetSocketAddress     target;
+
+    /** Delay distribution applied to every chunk. */
+    private volatile Delay              delay = fixed(0);
+    /** Bandwidth of each direction of a connection, in bytes per second, or
+        zero for no limit. */
+    private volatile long               bandwidth = 0;
+    /** Largest number of bytes written at once, or zero for no limit. */
+    private volatile int                segment = 0;
+    /** Probability of resetting a connection before delivering a chunk. */
+    private volatile double             reset_probability = 0;
+
+    /** Listening socket, or <code>null</code> when the proxy is stopped. */
+    private ServerSocket                server_socket;
+    /** Connections currently open. */
+    private final Set<Connection>       connections =
+        ConcurrentHashMap.newKeySet();
+
+    /** Number of connections accepted. */
+    private final AtomicLong            accepted = new AtomicLong();
+    /** Number of connections reset by the proxy. */
+    private final AtomicLong            resets = new AtomicLong();
+    /** Number of bytes delivered, in both directions. */
+    private final AtomicLong            forwarded = new AtomicLong();
+
+    /** Creates a proxy listening on an ephemeral port of the loopback
+        interface.
+
+        @param target Address connections are forwarded to.
+     */
+    public NetworkProxy(InetSocketAddress target)
+    {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+             target);
+    }
+
+    /** Creates a proxy.
+
+        @param listen_address Address the proxy listens on. The port may be
+                              zero, in which case the port actually used is
+                              given by <code>getAddress</code> once the proxy
+                              has started.
+        @param target Address connections are forwarded to.
+     */
+    public NetworkProxy(InetSocketAddress listen_address,
+                        InetSocketAddress target)
+    {
+        if(listen_address == null || target == null)
+            throw new NullPointerException("addresses must not be null");
+
+        this.listen_address = listen_address;
+        this.target = target;
+    }
+
+    /** Starts accepting connections.
+
+        @throws IOException If the listening socket cannot be bound.
+        @throws IllegalStateException If the proxy is already running.
+     */
+    public synchronized void start() throws IOException
+    {
+        if(server_socket != null)
+            throw new IllegalStateException("proxy already running");
+
+        ServerSocket    socket = new ServerSocket();
+
+        socket.setReuseAddress(true);
+
+        try
+        {
+            socket.bind(listen_address);
+        }
+        catch(IOException e)
+        {
+            socket.close();
+            throw e;
+        }
+
+        server_socket = socket;
+
+        Thread          thread = new Thread(new AcceptThread(socket),
+                                            "proxy-accept");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops accepting connections and closes all open connections.
+
+        <p>
+        Stopping a proxy which is not running has no effect.
+     */
+    public synchronized void stop()
+    {
+        if(server_socket == null)
+            return;
+
+        try
+        {
+            server_socket.close();
+        }
+        catch(IOException e) { }
+
+        server_socket = null;
+
+        for(Connection connection : connections)
+            connection.close();
+    }
+
+    /** Returns the address stubs should connect to.
+
+        @return The address the proxy listens on, with the port actually bound
+                if the proxy is running.
+     */
+    public synchronized InetSocketAddress getAddress()
+    {
+        if(server_socket == null)
+            return listen_address;
+
+        return new InetSocketAddress(listen_address.getAddress(),
+                                     server_socket.getLocalPort());
+    }
+
+    /** Sets the distribution of the delay added to each chunk.
+
+        @param delay The distribution, for example <code>normal(20, 5)</code>.
+     */
+    public void setDelay(Delay delay)
+    {
+        if(delay == null)
+            throw new NullPointerException("delay must not be null");
+
+        this.delay = delay;
+    }
+
+    /** Limits the bandwidth of each direction of each connection.
+
+        @param bytes_per_second The bandwidth, or zero for no limit.
+     */
+    public void setBandwidth(long bytes_per_second)
+    {
+        if(bytes_per_second < 0)
+            throw new IllegalArgumentException("bandwidth must not be negative");
+
+        bandwidth = bytes_per_second;
+    }
+
+    /** Limits the number of bytes written at once.
+
+        @param bytes The largest segment, or zero to write each chunk whole.
+     */
+    public void setSegmentSize(int bytes)
+    {
+        if(bytes < 0)
+            throw new IllegalArgumentException("segment size must not be " +
+                                               "negative");
+
+        segment = bytes;
+    }
+
+    /** Sets the probability that a connection is reset instead of delivering
+        a chunk.
+
+        @param probability Probability per chunk, between zero and one.
+     */
+    public void setResetProbability(double probability)
+    {
+        if(probability < 0 || probability > 1)
+            throw new IllegalArgumentException("probability must be between " +
+                                               "0 and 1");
+
+        reset_probability = probability;
+    }
+
+    /** Resets every open connection. */
+    public void resetAll()
+    {
+        for(Connection connection : connections)
+            connection.reset();
+    }
+
+    /** Returns the number of connections accepted since the proxy was
+        created. */
+    public long getConnections()
+    {
+        return accepted.get();
+    }
+
+    /** Returns the number of connections currently open. */
+    public int getOpenConnections()
+    {
+        return connections.size();
+    }
+
+    /** Returns the number of connections reset by the proxy. */
+    public long getResets()
+    {
+        return resets.get();
+    }
+
+    /** Returns the number of bytes delivered, in both directions. */
+    public long getBytesForwarded()
+    {
+        return forwarded.get();
+    }
+
+    /** Returns a delay distribution which always gives the same delay.
+
+        @param millis The delay, in milliseconds.
+     */
+    public static Delay fixed(final double millis)
+    {
+        return new Delay()
+        {
+            @Override
+            public long next(Random random)
+            {
+                return nanos(millis);
+            }
+        };
+    }
+
+    /** Returns a delay distribution uniform between two bounds.
+
+        @param min_millis The smallest delay, in milliseconds.
+        @param max_millis The largest delay, in milliseconds.
+     */
+    public static Delay uniform(final double min_millis,
+                                final double max_millis)
+    {
+        return new Delay()
+        {
+            @Override
+            public long next(Random random)
+            {
+                return nanos(min_millis +
+                             random.nextDouble() * (max_millis - min_millis));
+            }
+        };
+    }
+
+    /** Returns a normal delay distribution, such as the latency of a
+        wide-area link with jitter. Draws below zero count as no delay.
+
+        @param mean_millis The mean delay, in milliseconds.
+        @param deviation_millis The standard deviation (the jitter), in
+                                milliseconds.
+     */
+    public static Delay normal(final double mean_millis,
+                               final double deviation_millis)
+    {
+        return new Delay()
+        {
+            @Override
+            public long next(Random random)
+            {
+                return nanos(mean_millis +
+                             random.nextGaussian() * deviation_millis);
+            }
+        };
+    }
+
+    /** Returns an exponential delay distribution, shifted by a minimum: most
+        chunks arrive close to the minimum, a few much later.
+
+        @param min_millis The smallest delay, in milliseconds.
+        @param mean_excess_millis Mean of the delay above the minimum, in
+                                  milliseconds.
+     */
+    public static Delay exponential(final double min_millis,
+                                    final double mean_excess_millis)
+    {
+        return new Delay()
+        {
+            @Override
+            public long next(Random random)
+            {
+                return nanos(min_millis - Math.log(1 - random.nextDouble()) *
+                                          mean_excess_millis);
+            }
+        };
+    }
+
+    /** Converts milliseconds to nanoseconds. */
+    private static long nanos(double millis)
+    {
+        return (long)(millis * 1000000.0);
+    }
+
+    /** Waits until <code>System.nanoTime</code> reaches a deadline.
+
+        @param deadline The deadline.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting.
+     */
+    private static void sleepUntil(long deadline) throws InterruptedException
+    {
+        long    remaining;
+
+        while((remaining = deadline - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+
+            if(Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /** Accepts connections and connects each to the target. */
+    private class AcceptThread implements Runnable
+    {
+        /** Listening socket. */
+        private final ServerSocket  socket;
+
+        AcceptThread(ServerSocket socket)
+        {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run()
+        {
+            while(!socket.isClosed())
+            {
+                Socket  client;
+
+                try
+                {
+                    client = socket.accept();
+                }
+                catch(IOException e)
+                {
+                    // The proxy has been stopped.
+                    return;
+                }
+
+                long    number = accepted.incrementAndGet();
+                Socket  server = new Socket();
+
+                try
+                {
+                    server.connect(target);
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                }
+                catch(IOException e)
+                {
+                    // The target is unreachable: refuse the connection the way
+                    // the target would have.
+                    abort(client);
+                    abort(server);
+                    continue;
+                }
+
+                Connection  connection = new Connection(client, server);
+
+                connections.add(connection);
+
+                // The proxy may have been stopped while the connection was
+                // being made.
+                if(socket.isClosed())
+                {
+                    connection.close();
+                    return;
+                }
+
+                connection.start(number);
+            }
+        }
+    }
+
+    /** Closes a socket with a TCP RST rather than a FIN. */
+    private static void abort(Socket socket)
+    {
+        try
+        {
+            socket.setSoLinger(true, 0);
+        }
+        catch(IOException e) { }
+
+        try
+        {
+            socket.close();
+        }
+        catch(IOException e) { }
+    }
+
+    /** Connection between a client and the target, made of two pipes. */
+    private class Connection
+    {
+        /** Socket connected to the client. */
+        private final Socket            client;
+        /** Socket connected to the target. */
+        private final Socket            server;
+        /** Number of pipes which have not yet forwarded end of stream. */
+        private final AtomicInteger     open_pipes = new AtomicInteger(2);
+        /** Set once the connection is closed or reset. */
+        private final AtomicBoolean     closed = new AtomicBoolean();
+        /** Both pipes. */
+        private final Pipe[]            pipes = new Pipe[2];
+
+        Connection(Socket client, Socket server)
+        {
+            this.client = client;
+            this.server = server;
+        }
+
+        /** Starts forwarding in both directions.
+
+            @param number Number of the connection, used in thread names.
+         */
+        void start(long number)
+        {
+            try
+            {
+                pipes[0] = new Pipe(this, client, server,
+                                    "proxy-" + number + "-up");
+                pipes[1] = new Pipe(this, server, client,
+                                    "proxy-" + number + "-down");
+            }
+            catch(IOException e)
+            {
+                close();
+                return;
+            }
+
+            pipes[0].start();
+            pipes[1].start();
+        }
+
+        /** Called when a pipe has forwarded end of stream. The connection is
+            closed when both have. */
+        void pipeFinished()
+        {
+            if(open_pipes.decrementAndGet() == 0)
+                close();
+        }
+
+        /** Closes both sockets and stops both pipes. */
+        void close()
+        {
+            if(!closed.compareAndSet(false, true))
+                return;
+
+            try
+            {
+                client.close();
+            }
+            catch(IOException e) { }
+
+            try
+            {
+                server.close();
+            }
+            catch(IOException e) { }
+
+            finish();
+        }
+
+        /** Resets both sockets and stops both pipes. */
+        void reset()
+        {
+            if(!closed.compareAndSet(false, true))
+                return;
+
+            resets.incrementAndGet();
+            abort(client);
+            abort(server);
+            finish();
+        }
+
+        /** Stops the pipes and forgets the connection. */
+        private void finish()
+        {
+            for(Pipe pipe : pipes)
+            {
+                if(pipe != null)
+                    pipe.stop();
+            }
+
+            connections.remove(this);
+        }
+    }
+
+    /** Chunk of data read by a pipe, waiting to be delivered. */
+    private static class Chunk
+    {
+        /** The data, or <code>null</code> for end of stream. */
+        final byte[]    data;
+        /** Time at which the chunk is to be delivered, in
+            <code>System.nanoTime</code> units. */
+        final long      deliver_at;
+
+        Chunk(byte[] data, long deliver_at)
+        {
+            this.data = data;
+            this.deliver_at = deliver_at;
+        }
+    }
+
+    /** One direction of a connection.
+
+        <p>
+        The reading thread stamps each chunk with its delivery time and queues
+        it; the writing thread waits for the delivery time, then writes the
+        chunk in segments paced to the bandwidth.
+     */
+    private class Pipe
+    {
+        /** Connection the pipe belongs to. */
+        private final Connection                connection;
+        /** Stream data is read from. */
+        private final InputStream               in;
+        /** Socket data is written to. */
+        private final Socket                    destination;
+        /** Stream data is written to. */
+        private final OutputStream              out;
+        /** Chunks read but not yet delivered. */
+        private final BlockingQueue<Chunk>      queue =
+            new LinkedBlockingQueue<Chunk>();
+        /** Thread reading chunks. */
+        private final Thread                    reader;
+        /** Thread writing chunks. */
+        private final Thread                    writer;
+        /** Random number generator for delays and resets. */
+        private final Random                    random = new Random();
+
+        Pipe(Connection connection, Socket source, Socket destination,
+             String name) throws IOException
+        {
+            this.connection = connection;
+            this.in = source.getInputStream();
+            this.destination = destination;
+            this.out = destination.getOutputStream();
+
+            reader = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    read();
+                }
+            }, name + "-read");
+
+            writer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    write();
+                }
+            }, name + "-write");
+
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+        }
+
+        void start()
+        {
+            reader.start();
+            writer.start();
+        }
+
+        /** Interrupts the writing thread. The reading thread stops once its
+            socket is closed. */
+        void stop()
+        {
+            writer.interrupt();
+        }
+
+        /** Reads chunks until end of stream. */
+        private void read()
+        {
+            byte[]      buffer = new byte[8192];
+            // Delivery time of the previous chunk. Chunks are not reordered,
+            // so a chunk drawing a short delay waits for the one before it.
+            long        last = System.nanoTime();
+
+            try
+            {
+                while(true)
+                {
+                    int     count = in.read(buffer);
+                    long    deliver_at =
+                        Math.max(last, System.nanoTime() +
+                                       Math.max(0, delay.next(random)));
+
+                    last = deliver_at;
+
+                    if(count < 0)
+                    {
+                        queue.add(new Chunk(null, deliver_at));
+                        return;
+                    }
+
+                    queue.add(new Chunk(Arrays.copyOf(buffer, count),
+                                        deliver_at));
+                }
+            }
+            catch(IOException e)
+            {
+                // The peer reset the connection, or the connection has been
+                // closed by the other pipe.
+                connection.close();
+            }
+        }
+
+        /** Delivers chunks until end of stream. */
+        private void write()
+        {
+            // Time at which the link becomes free to send the next segment.
+            long        free_at = System.nanoTime();
+
+            try
+            {
+                while(true)
+                {
+                    Chunk   chunk = queue.take();
+
+                    sleepUntil(chunk.deliver_at);
+
+                    if(random.nextDouble() < reset_probability)
+                    {
+                        connection.reset();
+                        return;
+                    }
+
+                    if(chunk.data == null)
+                    {
+                        destination.shutdownOutput();
+                        connection.pipeFinished();
+                        return;
+                    }
+
+                    int     length = chunk.data.length;
+                    int     step = segment > 0 ? segment : length;
+
+                    for(int offset = 0; offset < length; offset += step)
+                    {
+                        int     count = Math.min(step, length - offset);
+                        long    rate = bandwidth;
+
+                        if(rate > 0)
+                        {
+                            free_at = Math.max(free_at, System.nanoTime()) +
+                                      count * 1000000000L / rate;
+                            sleepUntil(free_at);
+                        }
+
+                        out.write(chunk.data, offset, count);
+                        out.flush();
+                        forwarded.addAndGet(count);
+                    }
+                }
+            }
+            catch(IOException e)
+            {
+                connection.close();
+            }
+            catch(InterruptedException e)
+            {
+                // The connection has been closed.
+            }
+        }
+    }
+}
@@ -8,6 +8,15 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link rmi.SampleUnitTest}</li>
+    <li>{@link rmi.CircuitBreakerTest}</li>
+    <li>{@link rmi.RetryTest}</li>
+    <li>{@link rmi.AdmissionControllerTest}</li>
+    <li>{@link rmi.LatencyHistogramTest}</li>
+    <li>{@link rmi.InterceptorChainTest}</li>
+    <li>{@link rmi.AccessLogTest}</li>
+    <li>{@link rmi.TrafficCaptureTest}</li>
+    <li>{@link rmi.LaneSchedulerTest}</li>
+    <li>{@link rmi.PrometheusRendererTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +30,16 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {rmi.SampleUnitTest.class};
+            new Class[] {rmi.SampleUnitTest.class,
+                         rmi.CircuitBreakerTest.class,
+                         rmi.RetryTest.class,
+                         rmi.AdmissionControllerTest.class,
+                         rmi.LatencyHistogramTest.class,
+                         rmi.InterceptorChainTest.class,
+                         rmi.AccessLogTest.class,
+                         rmi.TrafficCaptureTest.class,
+                         rmi.LaneSchedulerTest.class,
+                         rmi.PrometheusRendererTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
@@ -0,0 +1,192 @@
+package rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import test.*;
+
+/** Unit test for <code>AccessLog</code>.
+
+    <p>
+    The test logs more calls than the ring buffer holds, from a single thread,
+    then closes the log. Every call must be either written or counted as
+    dropped, lines must be complete, and only slow calls may carry their
+    arguments. A call whose peer cannot be formatted must be dropped without
+    stopping the writer thread.
+ */
+public class AccessLogTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the access log";
+
+    /** Number of calls logged. */
+    private static final int    CALLS = 1000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ByteArrayOutputStream   out = new ByteArrayOutputStream();
+        AccessLog               log = new AccessLog(out, 64, 5);
+        InetSocketAddress       peer = new InetSocketAddress("127.0.0.1", 4000);
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            long    nanos = i % 10 == 0 ? 6000000L : 1000L;
+
+            log.record("pkg.Service", "f(int)", peer, nanos, 0, nanos, 10, 20,
+                       "success", new Object[] {i}, null);
+        }
+
+        try
+        {
+            log.close();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to close log", e);
+        }
+
+        String                  text =
+            new String(out.toByteArray(), StandardCharsets.UTF_8);
+        String[]                lines = text.isEmpty() ? new String[0]
+                                                       : text.split("\n");
+
+        if(lines.length != log.getWritten())
+        {
+            throw new TestFailed("log reports " + log.getWritten() +
+                                 " lines but wrote " + lines.length);
+        }
+
+        if(log.getWritten() + log.getDropped() != CALLS)
+        {
+            throw new TestFailed("written and dropped entries add up to " +
+                                 (log.getWritten() + log.getDropped()));
+        }
+
+        for(String line : lines)
+        {
+            if(!line.startsWith("time=") || !line.contains(" status=success"))
+                throw new TestFailed("malformed line: " + line);
+
+            boolean slow = line.contains(" duration_us=6000 ");
+
+            if(slow != line.contains(" args=\"("))
+                throw new TestFailed("arguments logged wrongly: " + line);
+        }
+
+        if(!AccessLog.summarize(new Object[] {null, new int[3]})
+                .equals("(null, int[3])"))
+        {
+            throw new TestFailed("unexpected argument summary");
+        }
+
+        checkBrokenEntry();
+        checkBrokenError();
+    }
+
+    /** Checks that an entry which fails to format is dropped, and that the
+        entries after it are still written.
+
+        @throws TestFailed If the writer thread stops at the broken entry.
+     */
+    private void checkBrokenEntry() throws TestFailed
+    {
+        ByteArrayOutputStream   out = new ByteArrayOutputStream();
+        AccessLog               log = new AccessLog(out, 64, 0);
+        Object                  broken = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new IllegalStateException("unprintable peer");
+            }
+        };
+
+        log.record("pkg.Service", "f(int)", broken, 1000, 0, 1000, 10, 20,
+                   "success", null, null);
+        log.record("pkg.Service", "f(int)", "peer", 1000, 0, 1000, 10, 20,
+                   "success", null, null);
+
+        try
+        {
+            log.close();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to close log", e);
+        }
+
+        if(log.getWritten() != 1 || log.getDropped() != 1)
+        {
+            throw new TestFailed("log wrote " + log.getWritten() +
+                                 " lines and dropped " + log.getDropped() +
+                                 " after a broken entry");
+        }
+    }
+
+    /** Checks that an entry whose error cannot be described is dropped
+        without failing the call, and without stopping the writer thread.
+
+        @throws TestFailed If recording the call throws, or the entries after
+                           it are not written.
+     */
+    private void checkBrokenError() throws TestFailed
+    {
+        ByteArrayOutputStream   out = new ByteArrayOutputStream();
+        AccessLog               log = new AccessLog(out, 4, 0);
+        Exception               broken = new Exception()
+        {
+            @Override
+            public String toString()
+            {
+                throw new IllegalStateException("unprintable error");
+            }
+        };
+
+        try
+        {
+            log.record("pkg.Service", "f(int)", "peer", 1000, 0, 1000, 10, 20,
+                       null, null, broken);
+        }
+        catch(RuntimeException e)
+        {
+            throw new TestFailed("broken error failed the call", e);
+        }
+
+        // more entries than the buffer holds: the writer must get past the
+        // dropped one for these to be written
+        for(int i = 0; i < 8; ++i)
+        {
+            log.record("pkg.Service", "f(int)", "peer", 1000, 0, 1000, 10, 20,
+                       "success", null, null);
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        try
+        {
+            log.close();
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to close log", e);
+        }
+
+        if(log.getWritten() != 8 || log.getDropped() != 1)
+        {
+            throw new TestFailed("log wrote " + log.getWritten() +
+                                 " lines and dropped " + log.getDropped() +
+                                 " after a broken error");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for <code>AdmissionController</code>.
+
+    <p>
+    The test feeds the controller queueing delays with explicit timestamps. A
+    burst shorter than an interval must not cause shedding, while a standing
+    queue lasting a whole interval must shed requests waiting more than twice
+    the target, and only those.
+ */
+public class AdmissionControllerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking CoDel admission control";
+
+    /** Nanoseconds in a millisecond. */
+    private static final long   MS = 1000000L;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        AdmissionController     controller = new AdmissionController(5, 100);
+        long                    now = 0;
+
+        // A burst: high delays, but the queue drains within the interval.
+        controller.shouldShed(now, 0);
+        if(controller.shouldShed(now + 10 * MS, 50 * MS))
+            throw new TestFailed("request shed during first interval");
+        if(controller.shouldShed(now + 20 * MS, 1 * MS))
+            throw new TestFailed("request shed during first interval");
+
+        now += 101 * MS;
+        if(controller.shouldShed(now, 20 * MS))
+            throw new TestFailed("request shed after a burst");
+
+        // A standing queue: every delay in the interval is above the target.
+        for(int i = 1; i < 10; ++i)
+            controller.shouldShed(now + i * MS, 8 * MS);
+
+        now += 101 * MS;
+        if(!controller.shouldShed(now, 20 * MS))
+            throw new TestFailed("request not shed under a standing queue");
+        if(!controller.isOverloaded())
+            throw new TestFailed("controller does not report overload");
+        if(controller.shouldShed(now + 1 * MS, 8 * MS))
+            throw new TestFailed("request below twice the target shed");
+        if(controller.getShedCount() != 1)
+            throw new TestFailed("shed count is " + controller.getShedCount());
+    }
+}
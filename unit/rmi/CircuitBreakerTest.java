@@ -0,0 +1,309 @@
+package rmi;
+
+import test.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/** Unit test for the state machine of <code>CircuitBreaker</code>.
+
+    <p>
+    The test drives a breaker with a small window through the closed, open and
+    half-open states, and checks that probe calls close it again. It then
+    records a slow method alongside a healthy fast one on the same address: a
+    breaker with default settings must stay closed, and one with a slow call
+    threshold must count the slow calls. Finally it checks that a released
+    probe gives its place back, and that calls abandoned by interrupted
+    callers do not count as failures of a healthy skeleton.
+ */
+public class CircuitBreakerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking circuit breaker transitions";
+
+    /** Remote interface of the skeleton called by interrupted callers. */
+    public interface Slow
+    {
+        void sleep(long millis) throws RMIException;
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        CircuitBreaker  breaker =
+            new CircuitBreaker(new InetSocketAddress(7000), 4, 4, 0.5, 1000,
+                               1.0, 50, 2);
+        final int[]     transitions = new int[1];
+
+        breaker.addListener(new CircuitBreaker.Listener()
+        {
+            @Override
+            public void stateChanged(CircuitBreaker b, CircuitBreaker.State from,
+                                     CircuitBreaker.State to)
+            {
+                transitions[0]++;
+            }
+        });
+
+        // Two failures out of four calls reach the failure rate threshold.
+        try
+        {
+            record(breaker, true);
+            record(breaker, false);
+            record(breaker, true);
+            if(breaker.getState() != CircuitBreaker.State.CLOSED)
+                throw new TestFailed("breaker opened before minimum calls");
+            record(breaker, false);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("closed breaker rejected a call", e);
+        }
+
+        if(breaker.getState() != CircuitBreaker.State.OPEN)
+            throw new TestFailed("breaker did not open at failure threshold");
+
+        try
+        {
+            breaker.acquire();
+            throw new TestFailed("open breaker permitted a call");
+        }
+        catch(RMIException e) { }
+
+        // After the open period, two successful probes close the breaker.
+        try
+        {
+            Thread.sleep(100);
+        }
+        catch(InterruptedException e) { }
+
+        try
+        {
+            boolean     first = breaker.acquire();
+            boolean     second = breaker.acquire();
+
+            if(!first || !second)
+                throw new TestFailed("half-open breaker did not issue probes");
+
+            try
+            {
+                breaker.acquire();
+                throw new TestFailed("half-open breaker permitted too many " +
+                                     "probes");
+            }
+            catch(RMIException e) { }
+
+            breaker.onSuccess(first, 0);
+            breaker.onSuccess(second, 0);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("half-open breaker rejected a probe", e);
+        }
+
+        if(breaker.getState() != CircuitBreaker.State.CLOSED)
+            throw new TestFailed("successful probes did not close breaker");
+
+        if(transitions[0] != 3)
+            throw new TestFailed("listener saw " + transitions[0] +
+                                 " transitions instead of 3");
+
+        checkSlowMethod();
+        checkReleasedProbe();
+        checkInterruptedCalls();
+    }
+
+    /** Checks that a slow method does not open a breaker with default
+        settings.
+
+        <p>
+        Every other call takes ten seconds, as a report generating method
+        might, and the calls in between take a millisecond.
+
+        @throws TestFailed If the default breaker opens, or a breaker with a
+                           slow call threshold does not count the slow calls.
+     */
+    private void checkSlowMethod() throws TestFailed
+    {
+        CircuitBreaker  breaker =
+            new CircuitBreaker(new InetSocketAddress(7001));
+        CircuitBreaker  tracking =
+            new CircuitBreaker(new InetSocketAddress(7002), 20, 10, 0.5,
+                               2000, 1.0, 5000, 3);
+
+        try
+        {
+            for(int i = 0; i < 100; ++i)
+            {
+                long    nanos = i % 2 == 0 ? 10000000000L : 1000000L;
+
+                breaker.onSuccess(breaker.acquire(), nanos);
+                tracking.onSuccess(tracking.acquire(), nanos);
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("breaker rejected a call to a healthy " +
+                                 "method", e);
+        }
+
+        if(breaker.getState() != CircuitBreaker.State.CLOSED ||
+           breaker.getSlowCallRate() != 0.0)
+        {
+            throw new TestFailed("default breaker tracked slow calls");
+        }
+
+        if(tracking.getState() != CircuitBreaker.State.CLOSED ||
+           tracking.getSlowCallRate() != 0.5)
+        {
+            throw new TestFailed("breaker with a slow call threshold saw a " +
+                                 "slow call rate of " +
+                                 tracking.getSlowCallRate());
+        }
+    }
+
+    /** Records one call on the breaker.
+
+        @param breaker The breaker.
+        @param success Whether the call succeeded.
+        @throws RMIException If the breaker rejects the call.
+     */
+    private void record(CircuitBreaker breaker, boolean success)
+        throws RMIException
+    {
+        boolean     probe = breaker.acquire();
+
+        if(success)
+            breaker.onSuccess(probe, 0);
+        else
+            breaker.onFailure(probe, 0);
+    }
+
+    /** Checks that a released probe gives its place back to the next call.
+
+        @throws TestFailed If the breaker stays half-open with its probe taken.
+     */
+    private void checkReleasedProbe() throws TestFailed
+    {
+        CircuitBreaker  breaker =
+            new CircuitBreaker(new InetSocketAddress(7003), 2, 2, 0.5, 0,
+                               1.0, 50, 1);
+
+        try
+        {
+            record(breaker, false);
+            record(breaker, false);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("closed breaker rejected a call", e);
+        }
+
+        try
+        {
+            Thread.sleep(100);
+        }
+        catch(InterruptedException e) { }
+
+        try
+        {
+            breaker.release(breaker.acquire());
+            breaker.onSuccess(breaker.acquire(), 0);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("released probe was not given back", e);
+        }
+
+        if(breaker.getState() != CircuitBreaker.State.CLOSED)
+            throw new TestFailed("successful probe did not close breaker");
+    }
+
+    /** Checks that calls abandoned by interrupted callers are not counted as
+        failures.
+
+        <p>
+        A breaker opening on a single failure in two calls guards a skeleton
+        whose method sleeps. Each caller is interrupted while waiting for the
+        response.
+
+        @throws TestFailed If the breaker counts the interrupted calls.
+     */
+    private void checkInterruptedCalls() throws TestFailed
+    {
+        InetSocketAddress   address =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 7021);
+        Skeleton<Slow>      skeleton = new Skeleton<Slow>(Slow.class, new Slow()
+        {
+            @Override
+            public void sleep(long millis)
+            {
+                try
+                {
+                    Thread.sleep(millis);
+                }
+                catch(InterruptedException e) { }
+            }
+        }, address);
+        CircuitBreaker      breaker =
+            new CircuitBreaker(address, 2, 2, 0.5, 0, 1.0, 60000, 1);
+
+        CircuitBreaker.install(breaker);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        try
+        {
+            final Slow      stub = Stub.create(Slow.class, address);
+
+            for(int i = 0; i < 4; ++i)
+            {
+                Thread      caller = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            stub.sleep(5000);
+                        }
+                        catch(RMIException e) { }
+                    }
+                };
+
+                caller.start();
+                Thread.sleep(100);
+                caller.interrupt();
+                caller.join(5000);
+
+                if(caller.isAlive())
+                    throw new TestFailed("interrupted caller did not return");
+            }
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+        finally
+        {
+            skeleton.stop();
+        }
+
+        if(breaker.getState() != CircuitBreaker.State.CLOSED ||
+           breaker.getFailureRate() != 0.0)
+        {
+            throw new TestFailed("interrupted calls counted against the " +
+                                 "breaker");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import test.*;
+
+/** Unit test for <code>InterceptorChain</code>.
+
+    <p>
+    The test records the order in which interceptors are called. The
+    <code>before</code> methods must run in order and the <code>after</code>
+    methods in reverse order. When an interceptor rejects a call, only the
+    interceptors before it see the call complete, with the rejecting
+    exception. A call rejected on a stub must fail with an
+    <code>RMIException</code> and be counted in the metrics of the stub.
+ */
+public class InterceptorChainTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking interceptor chain order";
+
+    /** Interface of the stub whose calls are rejected. */
+    public interface Service
+    {
+        String call() throws RMIException;
+    }
+
+    /** Calls seen by the recording interceptors. */
+    private final StringBuilder log = new StringBuilder();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Method                  method;
+
+        try
+        {
+            method = Object.class.getMethod("toString");
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to find method", e);
+        }
+
+        if(InterceptorChain.of(new Interceptor[0]) != InterceptorChain.EMPTY)
+            throw new TestFailed("empty chain not shared");
+
+        InterceptorChain        chain =
+            InterceptorChain.of(new Interceptor[] {new Recorder("a", false),
+                                                   new Recorder("b", false)});
+
+        try
+        {
+            chain.before(method, null);
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("call rejected", e);
+        }
+        chain.after(method, null, "r", null, 1);
+        expect("+a+b-b(r)-a(r)");
+
+        chain = InterceptorChain.of(new Interceptor[] {new Recorder("a", false),
+                                                       new Recorder("b", true),
+                                                       new Recorder("c", false)});
+        try
+        {
+            chain.before(method, null);
+            throw new TestFailed("call not rejected");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e) { }
+        expect("+a+b-a(rejected)");
+
+        checkStubRejection();
+    }
+
+    /** Checks a call rejected by an interceptor of a stub. No skeleton runs at
+        the stub's address, so the call fails differently if it is sent.
+
+        @throws TestFailed If the rejection is not reported as expected.
+     */
+    private void checkStubRejection() throws TestFailed
+    {
+        Service                 stub =
+            Stub.create(Service.class,
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                              1),
+                        new Recorder("a", false), new Recorder("b", true));
+
+        try
+        {
+            stub.call();
+            throw new TestFailed("stub call not rejected");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e)
+        {
+            if(e.getCause() == null ||
+               !"rejected".equals(e.getCause().getMessage()))
+            {
+                throw new TestFailed("rejection not wrapped", e);
+            }
+        }
+        expect("+a+b-a(rejected)");
+
+        ClientMethodSnapshot    calls =
+            Stub.getMetrics(stub).values().iterator().next();
+
+        if(calls.getCalls() != 1 || calls.getFailures() != 1 ||
+           calls.getFailures(FailureCause.REJECTED) != 1)
+        {
+            throw new TestFailed("rejected call not counted: " +
+                                 calls.getCalls() + " calls, " +
+                                 calls.getFailures() + " failures");
+        }
+    }
+
+    /** Checks the calls recorded so far and clears the log.
+
+        @param expected The expected calls.
+        @throws TestFailed If the calls differ.
+     */
+    private void expect(String expected) throws TestFailed
+    {
+        if(!log.toString().equals(expected))
+        {
+            throw new TestFailed("interceptors called as " + log +
+                                 " instead of " + expected);
+        }
+        log.setLength(0);
+    }
+
+    /** Interceptor recording its calls in the log. */
+    private class Recorder implements Interceptor
+    {
+        private final String    name;
+        private final boolean   reject;
+
+        Recorder(String name, boolean reject)
+        {
+            this.name = name;
+            this.reject = reject;
+        }
+
+        @Override
+        public void before(Method method, Object[] args) throws Exception
+        {
+            log.append('+').append(name);
+            if(reject)
+                throw new Exception("rejected");
+        }
+
+        @Override
+        public void after(Method method, Object[] args, Object result,
+                          Throwable thrown, long nanos)
+        {
+            log.append('-').append(name).append('(')
+               .append(thrown == null ? result : thrown.getMessage())
+               .append(')');
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import test.*;
+
+/** Unit test for <code>LaneScheduler</code>.
+
+    <p>
+    The test drives schedulers with tasks which record the order they run in,
+    and blockers which hold a thread until they are released. It checks that a
+    high priority call goes ahead of queued normal calls, that a normal call
+    which has waited past the aging limit goes ahead of high priority work, and
+    that the reserved thread still runs a high priority call while every other
+    thread is held by a normal call.
+ */
+public class LaneSchedulerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking service thread lanes";
+
+    /** Time allowed for a task to run, in seconds. */
+    private static final long   WAIT = 5;
+
+    /** Order in which the recording tasks ran. */
+    private final List<String>  order = new ArrayList<String>();
+
+    /** Schedulers created by the test, shut down during cleanup. */
+    private final List<LaneScheduler>   schedulers =
+        new ArrayList<LaneScheduler>();
+
+    /** Blockers created by the test, released during cleanup. */
+    private final List<Blocker>         blockers = new ArrayList<Blocker>();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkHighFirst();
+        checkAging();
+        checkReserved();
+    }
+
+    /** Releases the blockers and shuts the schedulers down. */
+    @Override
+    protected void clean()
+    {
+        for(Blocker blocker : blockers)
+            blocker.release.countDown();
+
+        for(LaneScheduler scheduler : schedulers)
+            scheduler.shutdown();
+    }
+
+    /** Checks that a high priority call runs ahead of queued normal calls.
+
+        <p>
+        A single thread is held by a normal call while two normal calls are
+        queued, and then a connection carrying a high priority call arrives.
+        Once the thread is free it must read the connection and run the high
+        priority call before the normal calls.
+
+        @throws TestFailed If the normal calls run first.
+     */
+    private void checkHighFirst() throws TestFailed
+    {
+        LaneScheduler   scheduler = scheduler(1, 0, 60000);
+        Blocker         blocker = block(scheduler);
+        CountDownLatch  done = new CountDownLatch(3);
+
+        scheduler.dispatch(Priority.Level.NORMAL, new Step("normal1", done));
+        scheduler.dispatch(Priority.Level.NORMAL, new Step("normal2", done));
+        arrive(scheduler, Priority.Level.HIGH, new Step("high", done));
+
+        blocker.release.countDown();
+        await(done, "queued calls did not run");
+
+        expectOrder("high", "normal1", "normal2");
+    }
+
+    /** Checks that an aged normal call is not starved by high priority work.
+
+        <p>
+        A single thread is held while a normal call waits past the aging limit,
+        and then connections carrying high priority calls arrive. Once the
+        thread is free the aged normal call must run first.
+
+        @throws TestFailed If the high priority calls run first.
+     */
+    private void checkAging() throws TestFailed
+    {
+        LaneScheduler   scheduler = scheduler(1, 0, 20);
+        Blocker         blocker = block(scheduler);
+        CountDownLatch  done = new CountDownLatch(3);
+
+        scheduler.dispatch(Priority.Level.NORMAL, new Step("normal", done));
+        sleep(100);
+        arrive(scheduler, Priority.Level.HIGH, new Step("high1", done));
+        arrive(scheduler, Priority.Level.HIGH, new Step("high2", done));
+
+        blocker.release.countDown();
+        await(done, "queued calls did not run");
+
+        expectOrder("normal", "high1", "high2");
+    }
+
+    /** Checks that the reserved thread serves high priority calls.
+
+        <p>
+        Of three threads, one is reserved. Two normal calls hold the other two,
+        and a third normal call is queued. A high priority call must still run
+        on the reserved thread, while the queued normal call waits for a
+        blocker to be released.
+
+        @throws TestFailed If the high priority call does not run, or the
+                           queued normal call runs on the reserved thread.
+     */
+    private void checkReserved() throws TestFailed
+    {
+        LaneScheduler   scheduler = scheduler(3, 1, 60000);
+        Blocker         first = block(scheduler);
+        Blocker         second = block(scheduler);
+        CountDownLatch  normal = new CountDownLatch(1);
+        CountDownLatch  high = new CountDownLatch(1);
+
+        arrive(scheduler, Priority.Level.NORMAL, new Step("normal", normal));
+        arrive(scheduler, Priority.Level.HIGH, new Step("high", high));
+
+        await(high, "high priority call did not run on the reserved thread");
+        sleep(100);
+        expectOrder("high");
+
+        if(scheduler.getLiveThreads() > 3)
+        {
+            throw new TestFailed("scheduler started " +
+                                 scheduler.getLiveThreads() + " threads");
+        }
+
+        first.release.countDown();
+        await(normal, "queued normal call did not run");
+        expectOrder("normal");
+        second.release.countDown();
+    }
+
+    /** Creates a scheduler shut down during cleanup.
+
+        @param threads Maximum number of threads.
+        @param reserved Number of reserved threads.
+        @param agingMillis Aging limit.
+        @return The scheduler.
+     */
+    private LaneScheduler scheduler(int threads, int reserved,
+                                    long agingMillis)
+    {
+        LaneScheduler   scheduler =
+            new LaneScheduler("lane-test-", threads, reserved, agingMillis);
+
+        schedulers.add(scheduler);
+        order.clear();
+        return scheduler;
+    }
+
+    /** Holds a service thread with a normal call until the blocker is
+        released.
+
+        @param scheduler The scheduler.
+        @return The blocker, once its call is running.
+        @throws TestFailed If the call does not start.
+     */
+    private Blocker block(LaneScheduler scheduler) throws TestFailed
+    {
+        Blocker         blocker = new Blocker();
+
+        blockers.add(blocker);
+        arrive(scheduler, Priority.Level.NORMAL, blocker);
+        await(blocker.started, "blocking call did not start");
+        return blocker;
+    }
+
+    /** Queues a connection whose request is a call in the given lane.
+
+        @param scheduler The scheduler.
+        @param level Lane of the call.
+        @param call The call.
+     */
+    private void arrive(final LaneScheduler scheduler,
+                        final Priority.Level level, final Runnable call)
+    {
+        scheduler.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                scheduler.dispatch(level, call);
+            }
+        }, System.nanoTime());
+    }
+
+    /** Checks the order in which the recording tasks ran, and forgets it.
+
+        @param expected Names of the tasks, in the expected order.
+        @throws TestFailed If the tasks ran in another order.
+     */
+    private void expectOrder(String... expected) throws TestFailed
+    {
+        List<String>    ran;
+
+        synchronized(order)
+        {
+            ran = new ArrayList<String>(order);
+            order.clear();
+        }
+
+        if(!ran.equals(Arrays.asList(expected)))
+            throw new TestFailed("tasks ran in the order " + ran);
+    }
+
+    /** Waits for a latch.
+
+        @param latch The latch.
+        @param message Failure message if the latch is not opened in time.
+        @throws TestFailed If the latch is not opened in time.
+     */
+    private void await(CountDownLatch latch, String message)
+        throws TestFailed
+    {
+        try
+        {
+            if(!latch.await(WAIT, TimeUnit.SECONDS))
+                throw new TestFailed(message);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+    }
+
+    /** Sleeps, ignoring interruptions.
+
+        @param millis Time to sleep.
+     */
+    private void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e) { }
+    }
+
+    /** Task recording its name in the run order. */
+    private class Step implements Runnable
+    {
+        /** Name recorded. */
+        private final String            name;
+        /** Latch counted down after running. */
+        private final CountDownLatch    done;
+
+        Step(String name, CountDownLatch done)
+        {
+            this.name = name;
+            this.done = done;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized(order)
+            {
+                order.add(name);
+            }
+
+            done.countDown();
+        }
+    }
+
+    /** Task holding its thread until released. */
+    private static class Blocker implements Runnable
+    {
+        /** Opened once the task runs. */
+        final CountDownLatch    started = new CountDownLatch(1);
+        /** Opened to let the task finish. */
+        final CountDownLatch    release = new CountDownLatch(1);
+
+        @Override
+        public void run()
+        {
+            started.countDown();
+
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for <code>LatencyHistogram</code>.
+
+    <p>
+    The test checks that every value falls into a bucket whose bounds contain
+    it, and that percentiles of a uniform distribution are reported within the
+    relative error of the histogram.
+ */
+public class LatencyHistogramTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking latency histogram";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        // Check bucket bounds at small values, powers of two and the extremes.
+        long[]      values = {0, 1, 31, 32, 33, 63, 64, 1000, 1023, 1024,
+                              123456789L, Long.MAX_VALUE};
+
+        for(long value : values)
+        {
+            int     bucket = LatencyHistogram.bucketOf(value);
+
+            if(bucket < 0 || bucket >= LatencyHistogram.BUCKETS)
+                throw new TestFailed("value " + value + " has no bucket");
+
+            if(LatencyHistogram.lowerBoundOf(bucket) > value ||
+               LatencyHistogram.upperBoundOf(bucket) < value)
+            {
+                throw new TestFailed("bucket " + bucket + " does not contain " +
+                                     value);
+            }
+        }
+
+        // Record 1 to 100000 microseconds and check the percentiles.
+        LatencyHistogram    histogram = new LatencyHistogram();
+
+        for(long i = 1; i <= 100000; ++i)
+            histogram.record(i * 1000);
+
+        HistogramSnapshot   snapshot = histogram.snapshot();
+
+        if(snapshot.getCount() != 100000)
+            throw new TestFailed("histogram counted " + snapshot.getCount() +
+                                 " values");
+
+        if(snapshot.getMax() != 100000L * 1000)
+            throw new TestFailed("incorrect maximum");
+
+        checkClose("p50", snapshot.getP50(), 50000L * 1000);
+        checkClose("p99", snapshot.getP99(), 99000L * 1000);
+        checkClose("p999", snapshot.getP999(), 99900L * 1000);
+
+        // Cumulative counts read in place, as exported to Prometheus.
+        int[]       limits = {LatencyHistogram.bucketOf(10000L * 1000),
+                              LatencyHistogram.bucketOf(Long.MAX_VALUE)};
+        long[]      cumulative = new long[limits.length];
+
+        if(histogram.countUpTo(limits, cumulative) != 100000)
+            throw new TestFailed("cumulative total differs from the count");
+
+        checkClose("cumulative count up to 10 ms", cumulative[0], 10000);
+
+        if(cumulative[1] != 100000)
+            throw new TestFailed("last cumulative count is " + cumulative[1]);
+    }
+
+    /** Checks that a reported value is within 4% of the expected value.
+
+        @param name Name of the value.
+        @param actual Reported value.
+        @param expected Expected value.
+        @throws TestFailed If the values are too far apart.
+     */
+    private void checkClose(String name, long actual, long expected)
+        throws TestFailed
+    {
+        if(Math.abs(actual - expected) > expected / 25)
+        {
+            throw new TestFailed(name + " is " + actual + " instead of " +
+                                 expected);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package rmi;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import test.*;
+
+/** Unit test for <code>PrometheusRenderer</code>.
+
+    <p>
+    The test renders the metrics of a skeleton with one method, called once,
+    and of a stub whose address has a host name containing a quote, a
+    backslash and a newline. Every family must have one <code># TYPE</code>
+    line, the latency histogram of the method must have cumulative buckets
+    ending in <code>+Inf</code> and agreeing with its count, the call must be
+    counted as a success and in every phase of the stub's attempts, and the
+    label values must be escaped so that every sample stays on one line.
+ */
+public class PrometheusRendererTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking Prometheus rendering";
+
+    /** Host name needing every escape of the exposition format. */
+    private static final String HOST = "we\"ird\\host\nname";
+
+    /** Shape of a sample line: name, labels and value. */
+    private static final Pattern    SAMPLE =
+        Pattern.compile("[a-z_]+\\{[^\n]*\\} -?[0-9]+(\\.[0-9]+)?");
+
+    /** Bucket bound and value of a histogram sample. */
+    private static final Pattern    BUCKET =
+        Pattern.compile(".*,le=\"([^\"]+)\"\\} ([0-9]+)");
+
+    /** Remote interface of the rendered skeleton. */
+    public interface Echo
+    {
+        String echo(String text) throws RMIException;
+    }
+
+    /** Skeleton whose metrics are rendered. */
+    private Skeleton<Echo>      skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<Echo>(Echo.class, new Echo()
+        {
+            @Override
+            public String echo(String text)
+            {
+                return text;
+            }
+        }, new InetSocketAddress(InetAddress.getLoopbackAddress(), 7020));
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            Stub.create(Echo.class, skeleton.getAddress()).echo("hello");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call skeleton", e);
+        }
+
+        // The host cannot be resolved, so the call fails before connecting,
+        // but the stub's metrics are labeled with its address.
+        try
+        {
+            Stub.create(Echo.class, InetSocketAddress.createUnresolved(HOST, 1))
+                .echo("hello");
+            throw new TestFailed("call to an unresolved host succeeded");
+        }
+        catch(RMIException e) { }
+
+        String[]                lines =
+            new PrometheusRenderer().renderToString().split("\n");
+        List<String>            types = new ArrayList<String>();
+        int                     helps = 0;
+
+        for(String line : lines)
+        {
+            if(line.startsWith("# TYPE "))
+            {
+                String          family = line.split(" ")[2];
+
+                if(types.contains(family))
+                    throw new TestFailed("two TYPE lines for " + family);
+                types.add(family);
+            }
+            else if(line.startsWith("# HELP "))
+                ++helps;
+            else if(!SAMPLE.matcher(line).matches())
+                throw new TestFailed("malformed sample: " + line);
+        }
+
+        if(types.size() != helps)
+            throw new TestFailed(types.size() + " TYPE lines for " + helps +
+                                 " families");
+
+        expectLine(lines,
+                   "# TYPE rmi_server_call_duration_seconds histogram");
+        expectLine(lines, "# TYPE rmi_server_calls_total counter");
+        expectLine(lines, "# TYPE rmi_server_open_connections gauge");
+        expectLine(lines, "# TYPE rmi_client_attempt_phase_seconds histogram");
+        expectLine(lines,
+                   "# TYPE rmi_client_attempt_breakdown_seconds histogram");
+
+        checkHistogram(lines);
+
+        String                  method = "method=\"echo(String)\"";
+        String                  labels =
+            "{interface=\"" + Echo.class.getName() + "\",address=\"" +
+            skeleton.getAddress() + "\"," + method;
+
+        expectLine(lines, "rmi_server_calls_total" + labels +
+                   ",outcome=\"success\"} 1");
+
+        for(String phase : new String[] {"connect", "encode", "first_byte",
+                                         "decode"})
+        {
+            expectLine(lines, "rmi_client_attempt_phase_seconds_count" +
+                       labels + ",phase=\"" + phase + "\"} 1");
+        }
+
+        for(String part : new String[] {"network", "queue", "execute"})
+        {
+            expectLine(lines, "rmi_client_attempt_breakdown_seconds_count" +
+                       labels + ",part=\"" + part + "\"} 1");
+        }
+
+        String                  escaped = "we\\\"ird\\\\host\\nname";
+        boolean                 found = false;
+
+        for(String line : lines)
+        {
+            if(line.startsWith("rmi_client_calls_total{") &&
+               line.contains("address=\"" + escaped))
+            {
+                found = true;
+            }
+        }
+
+        if(!found)
+            throw new TestFailed("escaped address not found in client calls");
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+    }
+
+    /** Checks the latency histogram of the skeleton's method.
+
+        @param lines The rendered lines.
+        @throws TestFailed If the buckets are not cumulative, do not end in
+                           <code>+Inf</code> or disagree with the count.
+     */
+    private void checkHistogram(String[] lines) throws TestFailed
+    {
+        String                  prefix =
+            "rmi_server_call_duration_seconds_bucket{interface=\"" +
+            Echo.class.getName() + "\"";
+        List<String>            bounds = new ArrayList<String>();
+        long                    previous = 0;
+
+        for(String line : lines)
+        {
+            if(!line.startsWith(prefix))
+                continue;
+
+            Matcher             bucket = BUCKET.matcher(line);
+
+            if(!bucket.matches())
+                throw new TestFailed("malformed bucket: " + line);
+
+            long                value = Long.parseLong(bucket.group(2));
+
+            if(value < previous)
+                throw new TestFailed("buckets not cumulative at " + line);
+
+            bounds.add(bucket.group(1));
+            previous = value;
+        }
+
+        if(bounds.size() < 2 ||
+           !bounds.get(bounds.size() - 1).equals("+Inf"))
+        {
+            throw new TestFailed("buckets do not end in +Inf: " + bounds);
+        }
+
+        if(previous != 1)
+            throw new TestFailed("+Inf bucket counts " + previous + " calls");
+
+        for(int i = 0; i < bounds.size() - 2; ++i)
+        {
+            if(Double.parseDouble(bounds.get(i)) >=
+               Double.parseDouble(bounds.get(i + 1)))
+            {
+                throw new TestFailed("bucket bounds not increasing: " +
+                                     bounds);
+            }
+        }
+
+        String                  count =
+            "rmi_server_call_duration_seconds_count{interface=\"" +
+            Echo.class.getName() + "\"";
+
+        for(String line : lines)
+        {
+            if(line.startsWith(count) && !line.endsWith("} 1"))
+                throw new TestFailed("count disagrees with buckets: " + line);
+        }
+    }
+
+    /** Checks that a line was rendered.
+
+        @param lines The rendered lines.
+        @param expected The line.
+        @throws TestFailed If the line is missing.
+     */
+    private void expectLine(String[] lines, String expected)
+        throws TestFailed
+    {
+        for(String line : lines)
+        {
+            if(line.equals(expected))
+                return;
+        }
+
+        throw new TestFailed("missing line: " + expected);
+    }
+}
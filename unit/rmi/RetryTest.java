@@ -0,0 +1,278 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.*;
+
+/** Unit test for stub retries and <code>RetryBudget</code>.
+
+    <p>
+    The test first drives a budget directly: its tokens must run out, and
+    first attempts must deposit their share. It then calls stubs against a
+    server which accepts each connection and closes it at once, so that every
+    attempt fails after the request was sent, and counts the connections. A
+    method which is not idempotent must not be retried, an idempotent one must
+    be retried up to its attempts or until the budget is empty, and retries
+    must stop at the deadline of the call.
+ */
+public class RetryTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stub retries";
+
+    /** Remote interface of the failing server. */
+    public interface Flaky
+    {
+        @Retry(maxAttempts = 3, initialBackoffMillis = 1, maxBackoffMillis = 1)
+        void update() throws RMIException;
+
+        @Idempotent
+        @Retry(maxAttempts = 3, initialBackoffMillis = 1, maxBackoffMillis = 1)
+        void read() throws RMIException;
+
+        @Idempotent
+        @Retry(maxAttempts = 1000, initialBackoffMillis = 20,
+               maxBackoffMillis = 20)
+        @Timeout(300)
+        void poll() throws RMIException;
+    }
+
+    /** Server closing every connection it accepts. */
+    private ServerSocket        server;
+    /** Thread accepting the connections. */
+    private Thread              acceptor;
+    /** Number of connections accepted. */
+    private final AtomicInteger accepted = new AtomicInteger();
+    /** Budget in place before the test. */
+    private RetryBudget         previous;
+    /** Stub calling the server. */
+    private Flaky               stub;
+
+    /** Starts the server. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        previous = RetryBudget.global();
+
+        try
+        {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to start server", e);
+        }
+
+        InetSocketAddress   address =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                  server.getLocalPort());
+
+        // The breaker must not cut the retries short.
+        CircuitBreaker.install(new CircuitBreaker(address, 2000, 2000, 1.0, 0,
+                                                  1.0, 1000, 1));
+        stub = Stub.create(Flaky.class, address);
+
+        acceptor = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while(true)
+                    {
+                        Socket  socket = server.accept();
+
+                        accepted.incrementAndGet();
+                        socket.close();
+                    }
+                }
+                catch(IOException e) { }
+            }
+        };
+        acceptor.start();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkBudget();
+        checkNotIdempotent();
+        checkIdempotent();
+        checkExhaustedBudget();
+        checkDeadline();
+    }
+
+    /** Stops the server and restores the budget. */
+    @Override
+    protected void clean()
+    {
+        RetryBudget.setGlobal(previous);
+
+        try
+        {
+            server.close();
+        }
+        catch(IOException e) { }
+    }
+
+    /** Checks that a budget runs out, and that first attempts refill it.
+
+        @throws TestFailed If the budget permits too many retries, or first
+                           attempts do not deposit their share.
+     */
+    private void checkBudget() throws TestFailed
+    {
+        RetryBudget     budget = new RetryBudget(0.5, 0, 2);
+
+        if(!budget.tryRetry() || !budget.tryRetry())
+            throw new TestFailed("full budget refused a retry");
+
+        if(budget.tryRetry())
+            throw new TestFailed("empty budget permitted a retry");
+
+        budget.onRequest();
+        budget.onRequest();
+
+        if(!budget.tryRetry())
+            throw new TestFailed("first attempts did not refill the budget");
+
+        if(budget.tryRetry())
+            throw new TestFailed("budget permitted more than deposited");
+
+        for(int i = 0; i < 100; ++i)
+            budget.onRequest();
+
+        if(budget.getBalance() != 2)
+        {
+            throw new TestFailed("budget holds " + budget.getBalance() +
+                                 " tokens instead of its capacity of 2");
+        }
+
+        if(budget.getRetries() != 3 || budget.getDenied() != 2)
+        {
+            throw new TestFailed("budget counted " + budget.getRetries() +
+                                 " retries and " + budget.getDenied() +
+                                 " refusals");
+        }
+    }
+
+    /** Checks that a method which is not idempotent is not retried once its
+        request was sent.
+
+        @throws TestFailed If the call is retried.
+     */
+    private void checkNotIdempotent() throws TestFailed
+    {
+        RetryBudget.setGlobal(new RetryBudget(0, 0, 100));
+        expectAttempts("update", 1);
+    }
+
+    /** Checks that an idempotent method is retried up to its attempts.
+
+        @throws TestFailed If the call is not retried.
+     */
+    private void checkIdempotent() throws TestFailed
+    {
+        RetryBudget.setGlobal(new RetryBudget(0, 0, 100));
+        expectAttempts("read", 3);
+    }
+
+    /** Checks that retries stop when the budget is empty.
+
+        @throws TestFailed If the budget does not stop the retries.
+     */
+    private void checkExhaustedBudget() throws TestFailed
+    {
+        RetryBudget     budget = new RetryBudget(0, 0, 1);
+
+        RetryBudget.setGlobal(budget);
+        expectAttempts("read", 2);
+
+        if(budget.getDenied() != 1)
+            throw new TestFailed("budget refused " + budget.getDenied() +
+                                 " retries instead of 1");
+    }
+
+    /** Checks that retries stop at the deadline of the call.
+
+        @throws TestFailed If the call outlives its deadline, or is not
+                           retried until then.
+     */
+    private void checkDeadline() throws TestFailed
+    {
+        RetryBudget.setGlobal(new RetryBudget(0, 0, 1000));
+
+        long            start = System.nanoTime();
+        int             attempts = attempts("poll");
+        long            elapsed = (System.nanoTime() - start) / 1000000L;
+
+        if(elapsed > 1000)
+            throw new TestFailed("call returned " + elapsed + " ms after it " +
+                                 "started, past its deadline of 300 ms");
+
+        if(attempts < 2 || attempts >= 1000)
+            throw new TestFailed("call made " + attempts + " attempts before " +
+                                 "its deadline");
+    }
+
+    /** Calls a method, expecting it to fail after a number of attempts.
+
+        @param method Name of the method.
+        @param expected Number of attempts.
+        @throws TestFailed If the call makes another number of attempts.
+     */
+    private void expectAttempts(String method, int expected) throws TestFailed
+    {
+        int             attempts = attempts(method);
+
+        if(attempts != expected)
+        {
+            throw new TestFailed(method + " made " + attempts +
+                                 " attempts instead of " + expected);
+        }
+    }
+
+    /** Calls a method, expecting it to fail, and counts its attempts.
+
+        @param method Name of the method.
+        @return The number of connections the call made.
+        @throws TestFailed If the call succeeds.
+     */
+    private int attempts(String method) throws TestFailed
+    {
+        int             before = accepted.get();
+
+        try
+        {
+            if(method.equals("update"))
+                stub.update();
+            else if(method.equals("read"))
+                stub.read();
+            else
+                stub.poll();
+
+            throw new TestFailed(method + " succeeded against a server " +
+                                 "closing every connection");
+        }
+        catch(RMIException e) { }
+
+        // The last connection may still be counted by the acceptor.
+        try
+        {
+            Thread.sleep(50);
+        }
+        catch(InterruptedException e) { }
+
+        return accepted.get() - before;
+    }
+}
@@ -0,0 +1,124 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import test.*;
+
+/** Unit test for <code>TrafficCapture</code>.
+
+    <p>
+    The test records calls in two sessions appended to the same stream, then
+    reads them back from a copy of the stream cut in the middle of the last
+    record. Every call of the first session and all but the last of the second
+    must be read back in order, with their method, arguments and gaps.
+ */
+public class TrafficCaptureTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking traffic capture and replay";
+
+    /** Number of calls recorded in each session. */
+    private static final int    CALLS = 100;
+
+    /** Interface whose calls are recorded. */
+    public interface Service
+    {
+        String echo(int number, String[] words, long[] values);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ByteArrayOutputStream   out = new ByteArrayOutputStream();
+        Method                  method;
+
+        try
+        {
+            method = Service.class.getMethod("echo", int.class,
+                                             String[].class, long[].class);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to find method", e);
+        }
+
+        // The capacity holds all the calls, so none may be dropped.
+        for(int session = 0; session < 2; ++session)
+        {
+            TrafficCapture      capture = new TrafficCapture(out, 256, 1);
+
+            for(int i = 0; i < CALLS; ++i)
+            {
+                capture.record(Service.class, method,
+                               new Object[] {i, new String[] {"w" + i}, null},
+                               i * 2000000L);
+            }
+
+            try
+            {
+                capture.close();
+            }
+            catch(IOException e)
+            {
+                throw new TestFailed("unable to close capture", e);
+            }
+
+            if(capture.getCaptured() != CALLS || capture.getDropped() != 0)
+            {
+                throw new TestFailed("capture wrote " + capture.getCaptured() +
+                                     " calls and dropped " +
+                                     capture.getDropped());
+            }
+        }
+
+        // Cut the last record short, as a process dying while writing would.
+        byte[]                  bytes = out.toByteArray();
+        byte[]                  cut = Arrays.copyOf(bytes, bytes.length - 3);
+        int                     read = 0;
+
+        try(TrafficCapture.Reader reader =
+                TrafficCapture.read(new ByteArrayInputStream(cut)))
+        {
+            CapturedCall        call;
+
+            while((call = reader.next()) != null)
+            {
+                int             index = read % CALLS;
+                long            gap = index == 0 ? 0 : 2000;
+
+                if(!call.resolve(getClass().getClassLoader()).equals(method))
+                    throw new TestFailed("wrong method read back: " + call);
+
+                if(call.getGapMicros() != gap)
+                    throw new TestFailed("wrong gap read back: " + call);
+
+                Object[]        args = call.decodeArguments();
+
+                if(!args[0].equals(index) ||
+                   !((String[])args[1])[0].equals("w" + index) ||
+                   args[2] != null)
+                {
+                    throw new TestFailed("wrong arguments read back: " + call);
+                }
+
+                ++read;
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to read capture", e);
+        }
+
+        if(read != 2 * CALLS - 1)
+            throw new TestFailed("read back " + read + " calls");
+    }
+}